@@ -1,50 +1,157 @@
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 /**
  * AggregationServer, takes in incoming socket connections and create threads to handle each connection.
  */
 public class AggregationServer {
+    static final int DEFAULT_MAX_WORKERS = 512;
+    static final int DEFAULT_QUEUE_CAPACITY = 128;
+    static final int RETRY_AFTER_SECONDS = 5;
+    static final String BUSY_RESPONSE = "HTTP/1.1 503 Service Unavailable\r\nRetry-After: " + RETRY_AFTER_SECONDS +
+            "\r\nThe server is busy, please retry later.\n";
+    static final int DEFAULT_SNAPSHOT_RECORDS = 1000;
+    static final long EXPIRY_MILLIS = 30000;
+    static final long EXPIRY_TICK_MILLIS = 1000;
     private ServerSocket serverSocket;
     private static final String dataFilePath = "data/weather_data.txt";
     private static final LamportClock lamportClock = new LamportClock();
-    private static final Map<Long, Long> socketTimestamps = new ConcurrentHashMap<>();
+    private static final ExpiryWheel connectionExpiry =
+            new ExpiryWheel(EXPIRY_MILLIS, EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+    private static final WeatherDataStore dataStore = new WeatherDataStore();
+    private static final UpdateLog updateLog = new UpdateLog(dataFilePath);
+    private static final SnapshotFile snapshotFile = new SnapshotFile("data/weather_data.snapshot");
+    // PUTs hold the read lock from taking their Lamport timestamp until their update is logged, checkpoints the write lock
+    private static final ReadWriteLock persistenceLock = new ReentrantReadWriteLock();
+    private static volatile int snapshotRecords = DEFAULT_SNAPSHOT_RECORDS;
+    private static final AtomicLong connectionIds = new AtomicLong();
+    private static final ResponseCache responseCache = new ResponseCache(dataStore);
+    private static final ServerMetrics metrics = new ServerMetrics();
+    // Set when the server ships its updates to backups or is a backup itself
+    private static volatile ReplicationLog replicationLog;
+    // Set while the server is a backup of another server
+    private static volatile ReplicationClient replicationClient;
 
     /**
-     * AggregationServer Constructor.
-     * Starts a periodic check for inactive sockets every 5 seconds.
+     * AggregationServer Constructor, keeps the 20 most recent stations.
      */
     public AggregationServer() {
+        this(RecencyIndex.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * AggregationServer Constructor.
+     * Rebuilds the in-memory store from the latest snapshot and the update log tail written after it, then takes
+     * a new checkpoint and starts a periodic check for inactive sockets every second.
+     *
+     * @param maxEntries The maximum number of stations kept by the server.
+     */
+    public AggregationServer(int maxEntries) {
+        dataStore.setCapacity(maxEntries);
+        long recoveryStart = System.nanoTime();
+        long maxLamport = updateLog.recover(dataStore, snapshotFile);
+        // Updates logged from now on must not fall below the high-water mark of the recovered state
+        if (maxLamport > lamportClock.getValue()) {
+            lamportClock.update(maxLamport);
+        }
+        checkpoint();
+        System.out.println("Recovered " + dataStore.size() + " stations in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - recoveryStart) + " ms");
+        // Recovered entries expire like any other entry unless their content server sends new data.
+        // New connection IDs start after the recovered ones so they never take over recovered entries.
+        long recoveryTime = System.currentTimeMillis();
+        for (WeatherDataStore.WeatherEntry entry : dataStore.entries()) {
+            connectionExpiry.touch(entry.sourceId, recoveryTime);
+            connectionIds.accumulateAndGet(entry.sourceId, Math::max);
+        }
         ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        // Start the periodic check every 5 seconds
-        scheduler.scheduleAtFixedRate(this::checkInactiveSockets, 0, 5, TimeUnit.SECONDS);
+        // Advance the expiry wheel every tick
+        scheduler.scheduleAtFixedRate(this::checkInactiveSockets, 0, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     /**
      * Starts the aggregation server given the port number.
-     * Listens for incoming GETClient and ContentServer connections and handles requests in separate threads.
+     * Listens for incoming GETClient and ContentServer connections and handles requests in separate threads,
+     * using a worker pool of the default size.
      *
      * @param port The port number on which the server listens.
      */
     public void start(int port) {
+        start(port, DEFAULT_MAX_WORKERS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Starts the aggregation server given the port number.
+     * Each connection is handled by a thread of a bounded worker pool. Connections that find every worker busy
+     * wait in a bounded queue, and connections that find the queue full are rejected with 503 Service Unavailable.
+     *
+     * @param port The port number on which the server listens.
+     * @param maxWorkers The maximum number of connections handled at the same time.
+     * @param queueCapacity The maximum number of connections waiting for a worker.
+     */
+    public void start(int port, int maxWorkers, int queueCapacity) {
+        System.out.println("Handling connections with up to " + maxWorkers + " workers and a queue of " + queueCapacity);
+        start(port, newWorkerPool(maxWorkers, queueCapacity));
+    }
+
+    /**
+     * Starts the aggregation server given the port number, handling each connection on a virtual thread.
+     * A virtual thread that blocks on its socket does not hold a platform thread, so idle connections
+     * only cost their heap-allocated stack. Falls back to platform threads if the JVM has no virtual threads.
+     *
+     * @param port The port number on which the server listens.
+     */
+    public void startVirtual(int port) {
+        ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+        if (virtualThreadExecutor == null) {
+            System.err.println("Virtual threads are not available on this JVM (Java 21+ required), using platform threads.");
+            start(port);
+            return;
+        }
+        System.out.println("Handling each connection on a virtual thread.");
+        start(port, virtualThreadExecutor);
+    }
+
+    /**
+     * Listens for incoming GETClient and ContentServer connections and hands each connection to the executor.
+     *
+     * @param port The port number on which the server listens.
+     * @param connectionExecutor The executor that runs the handler of each connection.
+     */
+    private void start(int port, Executor connectionExecutor) {
         try {
             serverSocket = new ServerSocket(port);
             System.out.println("Aggregation Server started on port " + port);
             while (true) {
                 Socket socket = serverSocket.accept();
-                AggregationServerThread thread = new AggregationServerThread(socket);
-                thread.start();
+                try {
+                    connectionExecutor.execute(new AggregationServerThread(socket));
+                } catch (RejectedExecutionException e) {
+                    rejectConnection(socket);
+                }
             }
         } catch (IOException e) {
             System.err.println("Could not listen on port " + port);
@@ -53,10 +160,799 @@ public class AggregationServer {
     }
 
     /**
-     * AggregationServerThread, handle each socket connection.
+     * Creates the bounded worker pool that handles the connections. Threads are only created when needed,
+     * and idle threads stop after 60 seconds.
+     *
+     * @param maxWorkers The maximum number of threads.
+     * @param queueCapacity The maximum number of tasks waiting for a thread, 0 for no queue.
+     * @return The worker pool, which throws a RejectedExecutionException when it is saturated.
+     */
+    static ThreadPoolExecutor newWorkerPool(int maxWorkers, int queueCapacity) {
+        BlockingQueue<Runnable> queue = queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxWorkers, maxWorkers, 60, TimeUnit.SECONDS, queue,
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Rejects a connection that cannot be handled because the worker pool is saturated.
+     * Sends 503 Service Unavailable with a Retry-After hint and closes the socket, without reading the request.
+     *
+     * @param socket The socket of the rejected connection.
+     */
+    static void rejectConnection(Socket socket) {
+        try (socket) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(BUSY_RESPONSE);
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error rejecting connection: " + e.getMessage());
+        }
+        System.err.println("Rejected a connection, the worker pool is saturated.");
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     * The executor is looked up reflectively so that the server still compiles and runs on Java 17.
+     *
+     * @return The executor, or null if virtual threads are not available.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts the aggregation server in event-loop mode given the port number.
+     * All connections are handled without blocking by a small number of I/O threads, see {@link NioAggregationServer}.
+     * PUT requests, which wait for the update log, run on a bounded worker pool instead.
+     *
+     * @param port The port number on which the server listens.
+     * @param ioThreads The number of I/O threads.
+     * @param maxWorkers The maximum number of PUT requests handled at the same time.
+     * @param queueCapacity The maximum number of PUT requests waiting for a worker.
+     */
+    public void startNio(int port, int ioThreads, int maxWorkers, int queueCapacity) {
+        try {
+            NioAggregationServer nioServer = new NioAggregationServer(port, ioThreads, newWorkerPool(maxWorkers, queueCapacity));
+            System.out.println("Aggregation Server started on port " + port + " with " + ioThreads + " I/O threads");
+            nioServer.run();
+        } catch (IOException e) {
+            System.err.println("Could not listen on port " + port);
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Starts the HTTP/1.1 listener on its own thread, next to the listener of the current mode.
+     * See {@link HttpAggregationServer}.
+     *
+     * @param port The port number on which the HTTP listener listens.
+     * @param connectionExecutor The executor that runs the handler of each HTTP connection.
+     */
+    public void startHttp(int port, Executor connectionExecutor) {
+        try {
+            HttpAggregationServer httpServer = new HttpAggregationServer(port, connectionExecutor);
+            Thread listener = new Thread(httpServer::run, "http-listener");
+            listener.start();
+            System.out.println("HTTP listener started on port " + port);
+        } catch (IOException e) {
+            System.err.println("Could not listen on HTTP port " + port);
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Starts replicating the updates of this server, see {@link ReplicationServer} and {@link ReplicationClient}.
+     *
+     * @param port The port number on which backups connect, -1 to not accept backups.
+     * @param backupOf The replication ports of the servers this backup follows as "host:port", separated by commas
+     *                 in order of preference, or null if this server is a primary.
+     * @param takeoverMillis How long the first server of the list may be unreachable before this backup takes over.
+     */
+    public void startReplication(int port, String backupOf, long takeoverMillis) {
+        replicationLog = new ReplicationLog(lamportClock.getValue(), ReplicationLog.DEFAULT_CAPACITY_CHARS);
+        if (backupOf != null) {
+            ReplicationClient client = new ReplicationClient(List.of(backupOf.split(",")), takeoverMillis, replicationLog);
+            replicationClient = client;
+            Thread follower = new Thread(client, "replication-client");
+            follower.setDaemon(true);
+            follower.start();
+            System.out.println("Backup of " + backupOf + ", taking over after " + takeoverMillis + " ms without a primary");
+        }
+        if (port >= 0) {
+            try {
+                ReplicationServer replicationServer = new ReplicationServer(port, replicationLog);
+                Thread listener = new Thread(replicationServer::run, "replication-listener");
+                listener.setDaemon(true);
+                listener.start();
+                System.out.println("Replication listener started on port " + port);
+            } catch (IOException e) {
+                System.err.println("Could not listen on replication port " + port);
+                System.exit(-1);
+            }
+        }
+    }
+
+    /**
+     * Processes one message received from a GETClient or ContentServer, independently of how the message was read.
+     * Updates the Lamport clock and the last interaction time of the connection.
+     *
+     * @param message The message received.
+     * @param connectionId The ID of the connection the message was received from.
+     * @return The response to send back, or null if the message does not need a response (HEARTBEAT).
+     * @throws IOException if there is an issue with persisting the data of a PUT request.
+     */
+    static String processMessage(String message, long connectionId) throws IOException {
+        Response response = processRequest(message, connectionId);
+        return response == null ? null : response.toLegacyString();
+    }
+
+    /**
+     * Processes a message received with the legacy wire format, see {@link #processMessage}.
+     *
+     * @param message The request message.
+     * @param connectionId The ID of the connection the message was received from.
+     * @return The response to send back, or null if the message does not need a response (HEARTBEAT).
+     * @throws IOException if there is an issue with persisting the data of a PUT request.
+     */
+    static Response processRequest(String message, long connectionId) throws IOException {
+        // Check if the message is a GET or PUT request
+        String method = "";
+        if (message.startsWith("GET")) {
+            method = "GET";
+        } else if (message.startsWith("PUT")) {
+            method = "PUT";
+        } else if (message.startsWith("HEARTBEAT")) {
+            method = "HEARTBEAT";
+        }
+        long lamport = AggregationServerThread.extractLamportClock(message);
+        String sourceName = AggregationServerThread.extractHeader(message, AggregationServerThread.SOURCE_HEADER);
+        return handleRequest(method, requestTarget(message), lamport, sourceName, message, connectionId);
+    }
+
+    /**
+     * Handles one request, independently of the protocol it was received with.
+     * Updates the Lamport clock and the last interaction time of the connection.
+     *
+     * @param method The request method: GET, PUT or HEARTBEAT.
+     * @param target The request target, such as "/weather" or "/weather/all".
+     * @param lamport The Lamport clock value sent with the request, -1 if none was sent.
+     * @param body The request body holding the JSON data of a PUT request.
+     * @param connectionId The ID of the connection the request was received from.
+     * @return The response to send back, or null if the request does not need a response (HEARTBEAT).
+     * @throws IOException if there is an issue with persisting the data of a PUT request.
+     */
+    static Response handleRequest(String method, String target, long lamport, String body, long connectionId) throws IOException {
+        return handleRequest(method, target, lamport, null, body, connectionId);
+    }
+
+    /**
+     * Handles one request sent by a named source, independently of the protocol it was received with.
+     * Updates the Lamport clock and the last interaction time of the source, and records the request and
+     * the time it took in the {@link ServerMetrics}.
+     *
+     * @param method The request method: GET, PUT or HEARTBEAT.
+     * @param target The request target, such as "/weather" or "/weather/all".
+     * @param lamport The Lamport clock value sent with the request, -1 if none was sent.
+     * @param sourceName The Source-Id header of the request, or null if the sender did not name itself.
+     * @param body The request body holding the JSON data of a PUT request.
+     * @param connectionId The ID of the connection the request was received from.
+     * @return The response to send back, or null if the request does not need a response (HEARTBEAT).
+     * @throws IOException if there is an issue with persisting the data of a PUT request.
+     */
+    static Response handleRequest(String method, String target, long lamport, String sourceName, String body,
+                                  long connectionId) throws IOException {
+        long start = System.nanoTime();
+        try {
+            long sourceId = sourceKey(sourceName, connectionId);
+            //update timestamps to know when which source has its last interaction
+            connectionExpiry.touch(sourceId, System.currentTimeMillis());
+            //update lamportClock
+            lamportClock.update(lamport);
+
+            switch (method) {
+                case "GET":
+                    return buildGetResponse(target, lamport);
+                case "PUT":
+                    if (isBackup()) {
+                        return Response.text(503, "Service Unavailable",
+                                "This server is a backup and only serves GET requests, send updates to the primary.\n");
+                    }
+                    return buildPutResponse(body, sourceId);
+                case "HEARTBEAT": //Not a Request, just receive to know that
+                    // the connection between the GETClient and the AggregationServer is still existent.
+                    System.out.println("Received HEARTBEAT");
+                    return null;
+                default:
+                    return Response.text(400, "Bad Request", "Invalid request.\n");
+            }
+        } finally {
+            metrics.recordRequest(method, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Builds the response to a GET request for the given target, tracing its stage, see {@link RequestTracing}.
+     *
+     * @param target The request target, such as "/weather", "/weather/all", "/weather?id=IDS60901" or "/metrics".
+     * @param lamport The Lamport clock value sent with the request, -1 if none was sent.
+     * @return The response to send to the GETClient.
+     */
+    static Response buildGetResponse(String target, long lamport) {
+        if (target.startsWith("/metrics")) {
+            return buildMetricsResponse();
+        }
+        RequestTracing.Trace trace = RequestTracing.startGet();
+        List<String> stationIds = Collections.emptyList();
+        Response response;
+        if (target.startsWith("/weather/all")) {
+            trace.begin("lookup");
+            response = responseCache.getAll();
+        } else {
+            stationIds = requestedStationIds(target);
+            trace.begin(stationIds.isEmpty() ? "lookup" : "query");
+            response = stationIds.isEmpty() ? responseCache.getLatest() : buildStationsResponse(stationIds);
+        }
+        if (trace.isEnabled()) {
+            trace.commit(stationIds.isEmpty() ? null : String.join(",", stationIds), lamport, response.body.length(),
+                    stationIds.size());
+        }
+        return response;
+    }
+
+    /**
+     * Gets the request target of a message, the second word of its request line.
+     *
+     * @param message The message received.
+     * @return The request target, or an empty string if the message has none.
      */
-    static class AggregationServerThread extends Thread {
+    static String requestTarget(String message) {
+        int targetStart = message.indexOf(' ') + 1;
+        if (targetStart == 0) {
+            return "";
+        }
+        int targetEnd = targetStart;
+        while (targetEnd < message.length() && message.charAt(targetEnd) != ' ' && message.charAt(targetEnd) != '\r') {
+            targetEnd++;
+        }
+        return message.substring(targetStart, targetEnd);
+    }
+
+    /**
+     * Gets the station ids of a query such as "/weather?id=IDS60901,IDS60902". Ids can be separated by commas
+     * or given in several "id" parameters, and are URL-decoded.
+     *
+     * @param target The request target.
+     * @return The requested station ids in the order of the query, empty if the target has no "id" parameter.
+     */
+    static List<String> requestedStationIds(String target) {
+        int queryStart = target.indexOf('?');
+        if (queryStart == -1) {
+            return Collections.emptyList();
+        }
+        List<String> stationIds = new ArrayList<>();
+        for (String parameter : target.substring(queryStart + 1).split("&")) {
+            if (!parameter.startsWith("id=")) {
+                continue;
+            }
+            for (String stationId : parameter.substring(3).split(",")) {
+                try {
+                    stationId = URLDecoder.decode(stationId, StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    continue; // malformed escape sequence, no station can have that id
+                }
+                if (!stationId.isEmpty() && !stationIds.contains(stationId)) {
+                    stationIds.add(stationId);
+                }
+            }
+        }
+        return stationIds;
+    }
+
+    /**
+     * Builds the response to a GET request for given stations, looked up by id in the in-memory store.
+     * A single station is answered with its JSON object, several stations with a JSON array of the stations found,
+     * in the order they were requested.
+     *
+     * @param stationIds The requested station ids, at least one.
+     * @return The response to send to the GETClient, 404 if none of the stations is stored.
+     */
+    static Response buildStationsResponse(List<String> stationIds) {
+        if (stationIds.size() == 1) {
+            WeatherDataStore.WeatherEntry entry = dataStore.get(stationIds.get(0));
+            return entry != null ? Response.json(200, "OK", entry.json)
+                    : Response.text(404, "Not Found", "No weather data available for station " + stationIds.get(0) + ".\n");
+        }
+        StringBuilder data = new StringBuilder(stationIds.size() * 256).append('[');
+        for (String stationId : stationIds) {
+            WeatherDataStore.WeatherEntry entry = dataStore.get(stationId);
+            if (entry != null) {
+                data.append(data.length() > 1 ? "," : "").append(entry.json);
+            }
+        }
+        if (data.length() == 1) {
+            return Response.text(404, "Not Found", "No weather data available for stations " + String.join(",", stationIds) + ".\n");
+        }
+        return Response.json(200, "OK", data.append(']').toString());
+    }
+
+    /**
+     * Builds the response to a GET request from the latest weather data in the in-memory store.
+     *
+     * @return The response to send to the GETClient.
+     */
+    static Response buildGetResponse() {
+        String data = dataStore.getLatestJson();
+        if (data != null) {
+            return Response.json(200, "OK", data);
+        }
+        return Response.text(404, "Not Found", "No weather data available.\n");
+    }
+
+    /**
+     * Builds the response to a GET /metrics request, the metrics of the server in the Prometheus text format.
+     * It is built for each request, never cached.
+     *
+     * @return The response.
+     */
+    static Response buildMetricsResponse() {
+        return Response.of(200, "OK", ServerMetrics.CONTENT_TYPE, metrics.render(lamportClock.getValue(), dataStore.size()));
+    }
+
+    /**
+     * Builds the response to a GET /weather/all request, a JSON array holding the data of every stored station,
+     * most recently updated first. With thousands of stations the response is larger than the legacy framing allows,
+     * see {@link MessageFraming}.
+     *
+     * @return The response to send to the GETClient.
+     */
+    static Response buildGetAllResponse() {
+        List<WeatherDataStore.WeatherEntry> entries = dataStore.entries();
+        if (entries.isEmpty()) {
+            return Response.text(404, "Not Found", "No weather data available.\n");
+        }
+        entries.sort(Collections.reverseOrder(RecencyIndex.RECENCY_ORDER));
+        StringBuilder data = new StringBuilder(entries.size() * 256);
+        data.append('[');
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0) {
+                data.append(',');
+            }
+            data.append(entries.get(i).json);
+        }
+        data.append(']');
+        return Response.json(200, "OK", data.toString());
+    }
+
+    /**
+     * Replaces a response that is too long for the legacy framing by 413 Payload Too Large,
+     * telling the client to negotiate the chunked framing.
+     *
+     * @param response The response to send.
+     * @param framingVersion The framing version of the connection.
+     * @return The response itself, or the 413 response if it cannot be sent with the framing of the connection.
+     */
+    static String fitToFraming(String response, int framingVersion) {
+        if (framingVersion == MessageFraming.LEGACY_VERSION && !MessageFraming.fitsLegacyFraming(response)) {
+            return Response.text(413, "Payload Too Large", "The response exceeds 65535 bytes, negotiate " +
+                    MessageFraming.FRAMING_HEADER + " " + MessageFraming.CHUNKED_VERSION + " to receive it.\n").toLegacyString();
+        }
+        return response;
+    }
+
+    /**
+     * Builds the response to a PUT request after updating the weather data in the in-memory store.
+     * Ensures the data is valid JSON and appends the update to the update log, which costs one sequential write,
+     * before storing it, so GET requests never see data that a failed append would lose on the next restart.
+     * With group commit the update is only stored once it is durable. An update older than the stored data of
+     * its station is answered with 409 Conflict, see {@link WeatherDataStore#isOutdated}.
+     * Each stage is traced with a {@link RequestTracing.PutStageEvent} while a flight recording is running.
+     *
+     * @param message The PUT request message containing the JSON data.
+     * @param sourceId The ID of the source the request was received from, see {@link #sourceKey}.
+     * @return The response to send to the ContentServer.
+     * @throws IOException if there is an issue with persisting the data.
+     */
+    static Response buildPutResponse(String message, long sourceId) throws IOException {
+        RequestTracing.Trace trace = RequestTracing.startPut();
+        trace.begin("extract");
+        String batchData = AggregationServerThread.extractJsonArray(message);
+        if (batchData != null) {
+            return buildBatchPutResponse(batchData, sourceId, trace);
+        }
+        boolean createStorage = !Files.exists(Paths.get(dataFilePath));
+        String jsonData = AggregationServerThread.extractJsonData(message);
+        if (jsonData == null) {
+            trace.commit(null, -1, 0, 0);
+            return Response.text(204, "No Content Request", "No content is sent.\n");
+        }
+        trace.begin("validate");
+        JSONTokenizer.FieldOffsets fields = new JSONTokenizer.FieldOffsets();
+        if (!JSONTokenizer.tokenize(jsonData, fields)) {
+            trace.commit(null, -1, jsonData.length(), 1);
+            return Response.text(500, "Invalid JSON Data", "The JSON data is not valid.\n");
+        }
+        trace.begin("normalize");
+        String jsonObject = JSONParser.convertToSingleLineJson(jsonData);
+        String stationId = stationIdOf(fields);
+        long timestamp = System.currentTimeMillis();
+        long lamport = -1;
+        String records = null;
+        boolean applied = false;
+        trace.begin("lock");
+        persistenceLock.readLock().lock();
+        try {
+            lamport = stampUpdate();
+            // A concurrent PUT of the station with a higher Lamport clock value won, the update is neither
+            // logged nor published. If that PUT is stored after this check, the update is logged but ignored
+            // by the store, and by the replay and the backups as well.
+            if (!dataStore.isStationOutdated(stationId, lamport)) {
+                // The update is only visible to GET requests once it is in the log, and not at all if the append fails
+                trace.begin("log");
+                records = updateLog.appendPut(jsonObject, timestamp, lamport, sourceId);
+                trace.begin("store");
+                applied = dataStore.put(stationId, jsonObject, sourceId, timestamp, lamport)
+                        != WeatherDataStore.PutResult.IGNORED;
+            }
+        } finally {
+            publishUpdate(lamport, records);
+            persistenceLock.readLock().unlock();
+        }
+        if (trace.isEnabled()) {
+            trace.commit(stationId, lamport, jsonData.length(), 1);
+        }
+        if (!applied) {
+            return Response.text(409, "Conflict", "Newer data of the station is stored already.\n");
+        }
+        if (createStorage) {
+            return Response.text(201, "Created", "Data is received and the storage file is created.\n");
+        }
+        return Response.text(200, "", "Data is successfully updated.\n");
+    }
+
+    /**
+     * Builds the response to a batch PUT request, whose body is a JSON array with the data of several stations.
+     * If any record is invalid nothing is stored. Otherwise the records that are not outdated are stored at once
+     * and persisted with a single append to the update log.
+     * The response body holds the status of each record: 201 for a new station, 200 for an updated station,
+     * 409 for a record older than the stored data of its station, which is not logged,
+     * 500 for invalid JSON data and 424 for valid records that were not applied because of another record.
+     *
+     * @param batchData The JSON array of the request.
+     * @param sourceId The ID of the source the request was received from, see {@link #sourceKey}.
+     * @return The response to send to the ContentServer.
+     * @throws IOException if there is an issue with persisting the data.
+     */
+    static Response buildBatchPutResponse(String batchData, long sourceId) throws IOException {
+        return buildBatchPutResponse(batchData, sourceId, RequestTracing.startPut());
+    }
+
+    private static Response buildBatchPutResponse(String batchData, long sourceId, RequestTracing.Trace trace)
+            throws IOException {
+        trace.begin("parse");
+        List<String> records = JSONParser.splitJsonArray(batchData);
+        if (records == null || records.isEmpty()) {
+            trace.commit(null, -1, batchData.length(), 0);
+            return records == null ? Response.text(500, "Invalid JSON Data", "The JSON data is not valid.\n")
+                    : Response.text(204, "No Content Request", "No content is sent.\n");
+        }
+        boolean createStorage = !Files.exists(Paths.get(dataFilePath));
+        List<String> jsonObjects = new ArrayList<>(records.size());
+        List<String> stationIds = new ArrayList<>(records.size());
+        int[] statuses = new int[records.size()];
+        boolean valid = true;
+        JSONTokenizer.FieldOffsets fields = new JSONTokenizer.FieldOffsets(); // reused for every record
+        for (int i = 0; i < records.size(); i++) {
+            if (JSONTokenizer.tokenize(records.get(i), fields)) {
+                jsonObjects.add(JSONParser.convertToSingleLineJson(records.get(i)));
+                stationIds.add(stationIdOf(fields));
+            } else {
+                jsonObjects.add(records.get(i));
+                stationIds.add(JSONParser.extractId(records.get(i)));
+                statuses[i] = 500;
+                valid = false;
+            }
+        }
+        if (!valid) {
+            for (int i = 0; i < statuses.length; i++) {
+                if (statuses[i] == 0) {
+                    statuses[i] = 424;
+                }
+            }
+            trace.commit(null, -1, batchData.length(), records.size());
+            return Response.json(500, "Invalid JSON Data", formatRecordStatuses(stationIds, statuses));
+        }
+        long timestamp = System.currentTimeMillis();
+        long lamport = -1;
+        String logged = null;
+        boolean applied = false;
+        trace.begin("lock");
+        persistenceLock.readLock().lock();
+        try {
+            lamport = stampUpdate();
+            // Records older than the stored data of their station are left out, as in buildPutResponse
+            List<String> current = new ArrayList<>(jsonObjects.size());
+            List<String> currentIds = new ArrayList<>(jsonObjects.size());
+            for (int i = 0; i < statuses.length; i++) {
+                if (dataStore.isStationOutdated(stationIds.get(i), lamport)) {
+                    statuses[i] = 409;
+                } else {
+                    current.add(jsonObjects.get(i));
+                    currentIds.add(stationIds.get(i));
+                }
+            }
+            if (!current.isEmpty()) {
+                trace.begin("log");
+                logged = updateLog.appendPuts(current, timestamp, lamport, sourceId);
+                trace.begin("store");
+                WeatherDataStore.PutResult[] stored =
+                        dataStore.putAll(currentIds, current, sourceId, timestamp, lamport);
+                for (int i = 0, j = 0; i < statuses.length; i++) {
+                    if (statuses[i] == 0) {
+                        statuses[i] = recordStatus(stored[j++]);
+                        applied |= statuses[i] != 409;
+                    }
+                }
+            }
+        } finally {
+            publishUpdate(lamport, logged);
+            persistenceLock.readLock().unlock();
+        }
+        if (trace.isEnabled()) {
+            trace.commit(stationIds.get(0), lamport, batchData.length(), records.size());
+        }
+        String results = formatRecordStatuses(stationIds, statuses);
+        if (!applied) {
+            return Response.json(409, "Conflict", results);
+        }
+        return createStorage ? Response.json(201, "Created", results) : Response.json(200, "OK", results);
+    }
+
+    /**
+     * Gets the station id of a validated record, as it is read back from its single-line JSON data.
+     */
+    private static String stationIdOf(JSONTokenizer.FieldOffsets fields) {
+        String stationId = JSONParser.extractId(fields);
+        return stationId == null ? null : JSONParser.convertToSingleLineJson(stationId);
+    }
+
+    private static int recordStatus(WeatherDataStore.PutResult result) {
+        switch (result) {
+            case CREATED:
+                return 201;
+            case REPLACED:
+                return 200;
+            default:
+                return 409;
+        }
+    }
+
+    /**
+     * Formats the status of each record of a batch as a JSON array, such as [{"id":"IDS60901","status":200}].
+     */
+    private static String formatRecordStatuses(List<String> stationIds, int[] statuses) {
+        StringBuilder results = new StringBuilder(statuses.length * 32).append('[');
+        for (int i = 0; i < statuses.length; i++) {
+            String stationId = stationIds.get(i);
+            if (i > 0) {
+                results.append(',');
+            }
+            results.append("{\"id\":");
+            if (stationId == null) {
+                results.append("null");
+            } else {
+                appendJsonString(results, stationId);
+            }
+            results.append(",\"status\":").append(statuses[i]).append('}');
+        }
+        return results.append(']').toString();
+    }
+
+    /**
+     * Appends a value as a quoted JSON string, escaping quotes, backslashes and control characters.
+     * The id of an invalid record is scanned from its raw text and may hold any of them.
+     */
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Response, the status and body of a response, written either in the legacy pseudo-HTTP format
+     * or as a real HTTP/1.1 response by {@link HttpAggregationServer}.
+     */
+    static final class Response {
+        final int status;
+        final String reason;
+        final String contentType;
+        final String body;
+        // Encoded forms, built on first use: a cached GET response is encoded once and then only copied to sockets
+        private volatile byte[] legacyFrame;
+        private volatile byte[] chunkedFrame;
+        private volatile byte[] httpKeepAliveResponse;
+        private volatile byte[] httpCloseResponse;
+
+        private Response(int status, String reason, String contentType, String body) {
+            this.status = status;
+            this.reason = reason;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        /**
+         * Creates a response carrying JSON data.
+         *
+         * @param status The status code.
+         * @param reason The reason phrase.
+         * @param json The JSON data.
+         * @return The response.
+         */
+        static Response json(int status, String reason, String json) {
+            return new Response(status, reason, "application/json", json);
+        }
+
+        /**
+         * Creates a response carrying a plain text message.
+         *
+         * @param status The status code.
+         * @param reason The reason phrase, may be empty.
+         * @param message The message.
+         * @return The response.
+         */
+        static Response text(int status, String reason, String message) {
+            return new Response(status, reason, null, message);
+        }
+
+        /**
+         * Creates a response carrying data of the given content type.
+         *
+         * @param status The status code.
+         * @param reason The reason phrase.
+         * @param contentType The content type of the body.
+         * @param body The body.
+         * @return The response.
+         */
+        static Response of(int status, String reason, String contentType, String body) {
+            return new Response(status, reason, contentType, body);
+        }
+
+        /**
+         * Formats the response the way it is sent inside a message frame to the GETClient and ContentServer.
+         *
+         * @return The response message.
+         */
+        String toLegacyString() {
+            String statusLine = "HTTP/1.1 " + status + (reason.isEmpty() ? "" : " " + reason) + "\r\n";
+            if (contentType == null) {
+                return statusLine + body;
+            }
+            return statusLine + "Content-Type: " + contentType + "\r\n" +
+                    "Content-Length: " + body.length() + "\r\n" + body + "\r\n";
+        }
+
+        /**
+         * Encodes the response as a complete message frame for the GETClient and ContentServer.
+         * A response too large for the legacy framing is replaced by 413, see {@link #fitToFraming}.
+         *
+         * @param framingVersion The framing version of the connection.
+         * @return The frame, shared by every caller: it must not be modified.
+         * @throws IOException if the response cannot be encoded.
+         */
+        byte[] encodeFrame(int framingVersion) throws IOException {
+            boolean legacy = framingVersion == MessageFraming.LEGACY_VERSION;
+            byte[] frame = legacy ? legacyFrame : chunkedFrame;
+            if (frame == null) {
+                frame = MessageFraming.encodeMessage(fitToFraming(toLegacyString(), framingVersion), framingVersion);
+                if (legacy) {
+                    legacyFrame = frame;
+                } else {
+                    chunkedFrame = frame;
+                }
+            }
+            return frame;
+        }
+
+        /**
+         * Encodes the response as an HTTP/1.1 response, see {@link HttpAggregationServer#encodeResponse}.
+         *
+         * @param keepAlive Whether the connection stays open after the response.
+         * @return The response bytes, shared by every caller: they must not be modified.
+         */
+        byte[] encodeHttp(boolean keepAlive) {
+            byte[] response = keepAlive ? httpKeepAliveResponse : httpCloseResponse;
+            if (response == null) {
+                response = HttpAggregationServer.encodeResponse(status, reason, contentType, body, keepAlive, "");
+                if (keepAlive) {
+                    httpKeepAliveResponse = response;
+                } else {
+                    httpCloseResponse = response;
+                }
+            }
+            return response;
+        }
+    }
+
+    /**
+     * ResponseCache, the responses to GET requests for the current version of the WeatherDataStore.
+     * A response is built by the first GET after a PUT or an expiry changed the store, published atomically,
+     * and then shared with its encoded frames by every GET until the store changes again.
+     */
+    static final class ResponseCache {
+        private final WeatherDataStore store;
+        private final AtomicReference<CachedResponse> latest = new AtomicReference<>();
+        private final AtomicReference<CachedResponse> all = new AtomicReference<>();
+
+        ResponseCache(WeatherDataStore store) {
+            this.store = store;
+        }
+
+        /**
+         * Gets the response to GET /weather, see {@link #buildGetResponse()}.
+         *
+         * @return The cached response.
+         */
+        Response getLatest() {
+            return get(latest, AggregationServer::buildGetResponse);
+        }
+
+        /**
+         * Gets the response to GET /weather/all, see {@link #buildGetAllResponse()}.
+         *
+         * @return The cached response.
+         */
+        Response getAll() {
+            return get(all, AggregationServer::buildGetAllResponse);
+        }
+
+        private Response get(AtomicReference<CachedResponse> cache, Supplier<Response> builder) {
+            // Read the version first: if the store changes while building, the response is rebuilt by the next GET
+            long version = store.getVersion();
+            CachedResponse cached = cache.get();
+            if (cached != null && cached.version == version) {
+                return cached.response;
+            }
+            CachedResponse built = new CachedResponse(version, builder.get());
+            cache.accumulateAndGet(built, (current, candidate) ->
+                    current == null || candidate.version > current.version ? candidate : current);
+            return built.response;
+        }
+    }
+
+    private static final class CachedResponse {
+        final long version;
+        final Response response;
+
+        CachedResponse(long version, Response response) {
+            this.version = version;
+            this.response = response;
+        }
+    }
+
+    /**
+     * AggregationServerThread, handle each socket connection. Runs on a platform thread or a virtual thread
+     * depending on the server mode, so it holds no monitor while blocking on the socket.
+     */
+    static class AggregationServerThread implements Runnable {
         private final Socket socket;
+        private final long connectionId;
+        private static final String LAMPORT_HEADER = "Lamport-Clock:";
+        static final String SOURCE_HEADER = "Source-Id:";
+        private int framingVersion = MessageFraming.LEGACY_VERSION;
 
         /**
          * Constructor for the AggregationServerThread.
@@ -66,106 +962,64 @@ public class AggregationServer {
          */
         public AggregationServerThread(Socket socket) { // Constructor
             this.socket = socket;
+            this.connectionId = nextConnectionId();
         }
 
         /**
          * Handles incoming requests (GET, PUT, and HEARTBEAT) in a loop until the socket is closed.
-         * Updates the Lamport clock for each message received.
+         * Updates the Lamport clock for each message received, and switches to the chunked framing
+         * when the client negotiates it.
          */
-        public synchronized void run() {
-            try (DataInputStream in = new DataInputStream(socket.getInputStream());
-                 DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+        public void run() {
+            metrics.connectionOpened();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(metrics.countingInput(socket.getInputStream())));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                         metrics.countingOutput(socket.getOutputStream()), MessageFraming.CHUNK_SIZE + 4))) {
 
                 while (!socket.isClosed()) { // Keep listening for incoming connections
-                    String message = in.readUTF();
-
-                    //update timestamps to know when which socket has its last interaction
-                    socketTimestamps.put(this.getId(), System.currentTimeMillis());
-                    //update lamportClock
-                    int messageLamportValue = extractLamportClock(message);
-                    lamportClock.update(messageLamportValue);
-
-                    // Check if the message is a GET or PUT request
-                    if (message.startsWith("GET")) {
-                        handleGetRequest(out);
-                    } else if (message.startsWith("PUT")) {
-                        handlePutRequest(message, out);
-                    } else if (message.startsWith("HEARTBEAT")) { //Not a Request, just receive to know that
-                        // the connection between the GETClient and the AggregationServer is still existent.
-                        System.out.println("Received HEARTBEAT");
-                    } else {
-                        String response = "HTTP/1.1 400 Bad Request\r\nInvalid request.\n";
-                        out.writeUTF(response);
+                    String message = MessageFraming.readMessage(in, framingVersion);
+                    int requestedVersion = MessageFraming.requestedVersion(message);
+                    if (requestedVersion != -1) {
+                        MessageFraming.writeMessage(out, framingVersion, MessageFraming.negotiationResponse(requestedVersion));
+                        framingVersion = MessageFraming.acceptedVersion(requestedVersion);
+                        continue;
+                    }
+                    Response response = processRequest(message, connectionId);
+                    if (response != null) {
+                        out.write(response.encodeFrame(framingVersion));
                         out.flush();
                     }
                 }
             } catch (IOException e) {
-                System.err.println("Error handling request in socket ID: " + this.getId() + " - " + e.getMessage());
+                System.err.println("Error handling request in socket ID: " + connectionId + " - " + e.getMessage());
+            } finally {
+                metrics.connectionClosed();
             }
         }
 
         /**
-         * Handles GET requests from the GETClient, reading weather data from the file and sending it to the client.
+         * Handles GET requests from the GETClient, reading the latest weather data from the in-memory store and sending it to the client.
          *
          * @param out DataOutputStream to send the response to the GETClient.
-         * @throws IOException if there is an issue with reading the data or sending the response.
+         * @throws IOException if there is an issue with sending the response.
          */
         void handleGetRequest(DataOutputStream out) throws IOException {
-            String data = readData();
-            String response;
-            if (data != null) {
-                response = "HTTP/1.1 200 OK\r\n" +
-                        "Content-Type: application/json\r\n" +
-                        "Content-Length: " + data.length() + "\r\n" + data + "\r\n";
-            } else {
-                response = "HTTP/1.1 404 Not Found\r\nNo weather data available.\n";
-            }
-            out.writeUTF(response);
+            out.writeUTF(responseCache.getLatest().toLegacyString());
             out.flush();
         }
 
         /**
-         * Handles PUT requests from the ContentServer by saving and updating the weather data in the storage file.
-         * Ensures the data is valid JSON and sorts the entries in the storage file by timestamp, return the latest entry.
+         * Handles PUT requests from the ContentServer by updating the weather data in the in-memory store.
+         * Ensures the data is valid JSON and appends the update to the update log, which costs one sequential write.
          *
          * @param message The PUT request message containing the JSON data.
          * @param out DataOutputStream to send the response to the ContentServer.
          * @throws IOException if there is an issue with processing the data or sending the response.
          */
         void handlePutRequest(String message, DataOutputStream out) throws IOException {
-            boolean createStorage = false;
-            Path path = Paths.get(dataFilePath);
-            boolean storageInitialized = Files.exists(path);
-
-            if (!storageInitialized) {
-                initializeFiles();
-                createStorage = true;
-            }
-            String jsonData = extractJsonData(message);
-
-            if (jsonData != null) {
-                String response;
-                if (!JSONParser.isValidJson(jsonData)) {
-                    response = "HTTP/1.1 500 Invalid JSON Data\r\nThe JSON data is not valid.\n";
-                    out.writeUTF(response);
-                    out.flush();
-                }
-                String jsonObject = JSONParser.convertToSingleLineJson(jsonData);
-                DataFileHandler.saveDataToFile(jsonObject,dataFilePath);
-                DataFileHandler.sortFileByTimestamp(dataFilePath); //sort data entries in the storage file, latest entries are at the top
-                DataFileHandler.keepTop20Entries(dataFilePath); //remove entries that are not among the 20 most recent ones
-                if (createStorage) {
-                    response = "HTTP/1.1 201 Created\r\nData is received and the storage file is created.\n";
-                } else {
-                    response = "HTTP/1.1 200\r\nData is successfully updated.\n";
-                }
-                out.writeUTF(response);
-                out.flush();
-            } else {
-                String response = "HTTP/1.1 204 No Content Request\r\nNo content is sent.\n";
-                out.writeUTF(response);
-                out.flush();
-            }
+            long sourceId = sourceKey(extractHeader(message, SOURCE_HEADER), connectionId);
+            out.writeUTF(buildPutResponse(message, sourceId).toLegacyString());
+            out.flush();
         }
 
         /**
@@ -174,7 +1028,7 @@ public class AggregationServer {
          * @param request The ContentServer's request containing the JSON data.
          * @return The extracted JSON data, or null if not found.
          */
-        String extractJsonData(String request) {
+        static String extractJsonData(String request) {
             int jsonStartIndex = request.indexOf("{");
             if (jsonStartIndex == -1) {
                 return null;
@@ -183,140 +1037,397 @@ public class AggregationServer {
         }
 
         /**
-         * Initializes the data storage file by creating the necessary directory and file.
+         * Extracts the JSON array of a batch PUT request, the body of the request if it starts with '['.
          *
-         * @throws IOException if there is an issue while creating the directory or file.
+         * @param request The ContentServer's request, or the body of an HTTP request.
+         * @return The JSON array, or null if the request does not hold a batch.
          */
-        private void initializeFiles() throws IOException {
-            Files.createDirectories(Paths.get("data"));
-            Files.createFile(Paths.get(dataFilePath));
+        static String extractJsonArray(String request) {
+            int bodyStart = request.indexOf("\r\n\r\n");
+            bodyStart = bodyStart == -1 ? 0 : bodyStart + 4;
+            while (bodyStart < request.length() && Character.isWhitespace(request.charAt(bodyStart))) {
+                bodyStart++;
+            }
+            if (bodyStart == request.length() || request.charAt(bodyStart) != '[') {
+                return null;
+            }
+            return request.substring(bodyStart).trim();
         }
 
         /**
-         * Reads a file line-by-line to find and return the first valid JSON string (latest valid JSON data in the file).
-         *
-         * This method looks at each line in the storage file and attempts to extract a JSON object.
-         * It skips newlines and checks the extracted content for valid JSON structure.
-         * The JSON is validated by the custom JSONParser.
-         *
-         * @return A valid JSON string from the file, or null if no valid JSON is found.
+         * Extracts the Lamport clock value from the request headers.
          *
-         * @throws IOException If an I/O error occurs, such as if the file doesn't exist or cannot be read.
-         * @throws FileNotFoundException If the file is not found at the specified path.
+         * @param message The request message containing the Lamport clock.
+         * @return The Lamport clock value or -1 if not found or not a number.
          */
-        private String readData() throws IOException {
-            Path path = Paths.get(dataFilePath);
-            if (!Files.exists(path)) {
-                throw new FileNotFoundException("Data file not available at: " + dataFilePath);
-            }
-            try (BufferedReader reader = Files.newBufferedReader(path)) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.trim().isEmpty()) {
-                        continue;
-                    }
-                    String jsonData = extractJsonData(line);
-                    // If valid JSON is found, return it
-                    if (jsonData != null && JSONParser.isValidJson(jsonData)) {
-                        return jsonData;
-                    }
-                }
+        public static long extractLamportClock(String message) {
+            // Scan for the header line instead of splitting the message, so no copy of the message is made
+            int headerStart = message.startsWith(LAMPORT_HEADER) ? 0 : message.indexOf("\r\n" + LAMPORT_HEADER);
+            if (headerStart == -1) {
+                return -1;
+            }
+            int valueStart = message.indexOf(LAMPORT_HEADER, headerStart) + LAMPORT_HEADER.length();
+            int valueEnd = message.indexOf("\r\n", valueStart);
+            if (valueEnd == -1) {
+                valueEnd = message.length();
+            }
+            while (valueStart < valueEnd && message.charAt(valueStart) <= ' ') {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && message.charAt(valueEnd - 1) <= ' ') {
+                valueEnd--;
+            }
+            try {
+                return Long.parseLong(message, valueStart, valueEnd, 10);
+            } catch (NumberFormatException e) {
+                return -1;
             }
-            return null;
         }
 
         /**
-         * Extracts the Lamport clock value from the request headers.
+         * Extracts the value of a header, looking only at the header lines so the body cannot fake one.
          *
-         * @param message The request message containing the Lamport clock.
-         * @return The Lamport clock value or -1 if not found.
+         * @param message The request message.
+         * @param header The header name followed by its colon, such as "Source-Id:".
+         * @return The trimmed header value, or null if the header is not found.
          */
-        public static int extractLamportClock(String message) {
-            String[] lines = message.split("\r\n");
-            for (String line : lines) {
-                if (line.startsWith("Lamport-Clock:")) {
-                    return Integer.parseInt(line.split(":")[1].trim());
-                }
+        static String extractHeader(String message, String header) {
+            int headersEnd = message.indexOf("\r\n\r\n");
+            if (headersEnd == -1) {
+                headersEnd = message.length();
+            }
+            int headerStart = message.indexOf("\r\n" + header);
+            if (headerStart == -1 || headerStart >= headersEnd) {
+                return null;
+            }
+            int valueStart = headerStart + 2 + header.length();
+            int valueEnd = message.indexOf("\r\n", valueStart);
+            if (valueEnd == -1) {
+                valueEnd = message.length();
             }
-            return -1;
+            return message.substring(valueStart, valueEnd).trim();
+        }
+    }
+
+    /**
+     * Gets the ID under which the data of a source is stored, logged and expired.
+     * A content server that names itself with a Source-Id header gets the same ID on every connection and
+     * across restarts of either server, so after reconnecting it takes over its own stations instead of adding
+     * them again. These IDs are negative and never collide with connection IDs, which are used for the
+     * senders that do not name themselves.
+     *
+     * @param sourceName The Source-Id header, or null if none was sent.
+     * @param connectionId The ID of the connection the request was received from.
+     * @return The source ID.
+     */
+    static long sourceKey(String sourceName, long connectionId) {
+        if (sourceName == null || sourceName.isEmpty()) {
+            return connectionId;
+        }
+        // 64-bit FNV-1a followed by a final mix, stable across JVMs unlike String.hashCode
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < sourceName.length(); i++) {
+            hash = (hash ^ sourceName.charAt(i)) * 0x100000001b3L;
         }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (hash ^ (hash >>> 33)) | Long.MIN_VALUE;
+    }
+
+    /**
+     * Gets a new unique ID for an accepted connection.
+     *
+     * @return The connection ID.
+     */
+    static long nextConnectionId() {
+        return connectionIds.incrementAndGet();
+    }
+
+    /**
+     * Gets the metrics of the server, recorded by every listener.
+     *
+     * @return The metrics.
+     */
+    static ServerMetrics metrics() {
+        return metrics;
     }
 
     /**
-     * Periodically checks for inactive sockets that have not interacted within the last 30 seconds.
-     * Removes inactive socket entries from memory and updates the data file.
+     * Periodically checks for inactive sources that have not interacted within the last 30 seconds.
+     * Only the sources whose deadline has passed are visited, see {@link ExpiryWheel}. Their entries are
+     * removed from the in-memory store through its per-source index and logged as tombstones. A checkpoint
+     * is taken once the update log tail has grown past the snapshot threshold.
      */
     private void checkInactiveSockets() {
-        long currentTime = System.currentTimeMillis();
-        List<Long> inactiveSockets = new ArrayList<>();
-        socketTimestamps.entrySet().removeIf(entry -> {
-            long lastInteractionTime = entry.getValue();
-            // Check if the socket has not interacted for more than 30 seconds
-            if (currentTime - lastInteractionTime > 30000) {
-                System.out.println("Adding inactive socket: " + entry.getKey());
-                inactiveSockets.add(entry.getKey()); // Add to inactive list
-                return true; // Remove the socket from the map
-            }
-            return false; // Keep the socket in the map
-        });
+        List<Long> inactiveSockets = connectionExpiry.advance(System.currentTimeMillis());
+        // A backup removes entries when the tombstones of its primary arrive
+        if (!inactiveSockets.isEmpty() && !isBackup()) {
+            System.out.println("Removing data of inactive sockets: " + inactiveSockets);
+            removeExpiredEntries(inactiveSockets);
+        }
+        // Take a checkpoint only when the log tail would slow down the next restart
+        if (updateLog.getRecordCount() >= snapshotRecords || updateLog.needsCompaction(dataStore.size())) {
+            checkpoint();
+            System.out.println("Took a checkpoint of the weather data.");
+        }
+    }
+
+    /**
+     * Removes the entries received from the given sources and appends their tombstones to the update log.
+     *
+     * @param sourceIds The IDs of the expired sources.
+     */
+    private static void removeExpiredEntries(List<Long> sourceIds) {
+        long lamport = -1;
+        String records = null;
+        persistenceLock.readLock().lock();
         try {
-            removeInactiveEntriesFromFile(inactiveSockets); // Call method to remove entries of inactive sockets
+            lamport = stampUpdate();
+            List<WeatherDataStore.WeatherEntry> removed = dataStore.removeBySources(sourceIds);
+            metrics.recordExpiry(sourceIds.size(), removed.size());
+            if (!removed.isEmpty()) {
+                records = updateLog.appendDeletes(removed, System.currentTimeMillis(), lamport);
+            }
         } catch (IOException e) {
-            System.err.println("Error removing inactive entries from file: " + e.getMessage());
+            System.err.println("Error logging expired entries: " + e.getMessage());
+        } finally {
+            publishUpdate(lamport, records);
+            persistenceLock.readLock().unlock();
         }
     }
 
     /**
+     * Takes the Lamport clock value of an update, through the replication log if the server has backups.
+     * The caller holds the read lock of the persistence lock and calls {@link #publishUpdate} before releasing it.
      *
-     * Removes entries of inactive socket from storage and updates the storage file.
+     * @return The Lamport clock value of the update.
+     */
+    private static long stampUpdate() {
+        ReplicationLog log = replicationLog;
+        return log == null ? lamportClock.tickAndGet() : log.stamp(lamportClock);
+    }
+
+    /**
+     * Hands the records of an update to the backups once they are in the update log.
      *
-     * @param inactiveSocketIds A list of socket IDs for which data entries need to be removed.
+     * @param lamport The Lamport clock value of the update, -1 if it was not stamped.
+     * @param records The appended records, or null if nothing was appended.
+     */
+    private static void publishUpdate(long lamport, String records) {
+        ReplicationLog log = replicationLog;
+        if (log != null && lamport != -1) {
+            log.publish(lamport, records);
+        }
+    }
+
+    /**
+     * Checks whether the server is a backup, which serves GET requests only.
      *
+     * @return true while the server follows a primary.
      */
-    private void removeInactiveEntriesFromFile(List<Long> inactiveSocketIds) throws IOException {
-        List<String> nonExpiredEntries = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(dataFilePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                boolean remove = false;
-                for (Long socketId : inactiveSocketIds) {
-                    if (line.contains("[Thread ID: " + socketId + "]")) {
-                        remove = true; //mark this entry as going to be removed
-                        break;
-                    }
-                }
-                if (!remove) {
-                    nonExpiredEntries.add(line); //add back the non expired entries
-                }
-            }
+    static boolean isBackup() {
+        return replicationClient != null;
+    }
+
+    /**
+     * Gets the whole state of the store for a backup, see {@link ReplicationServer#formatFullSync}.
+     * No update is between the store and the replication log while the state is read, so the backup can
+     * continue with the updates published after it.
+     *
+     * @return The FULLSYNC message.
+     */
+    static String replicationState() {
+        List<WeatherDataStore.WeatherEntry> entries;
+        long historyId;
+        long lamport;
+        persistenceLock.writeLock().lock();
+        try {
+            entries = dataStore.entries();
+            historyId = replicationLog.getHistoryId();
+            lamport = replicationLog.getLastLamport();
+        } finally {
+            persistenceLock.writeLock().unlock();
         }
-        //update the data file after the expired entries are removed
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dataFilePath))) {
-            for (String entry : nonExpiredEntries) {
-                writer.write(entry);
-                writer.newLine();
-            }
+        return ReplicationServer.formatFullSync(historyId, lamport, entries);
+    }
+
+    /**
+     * Replaces the state of this backup by the state sent by its primary, and writes it as a new checkpoint.
+     *
+     * @param historyId The history ID of the primary.
+     * @param lamport The Lamport clock value of the last update in the state.
+     * @param records The PUT records of every entry of the primary.
+     */
+    static void loadReplicatedState(long historyId, long lamport, String records) {
+        persistenceLock.writeLock().lock();
+        try {
+            dataStore.clear();
+            UpdateLog.apply(records.split("\n"), dataStore);
+            lamportClock.update(lamport);
+            replicationLog.reset(historyId, lamport);
+            updateLog.checkpoint(dataStore.entries(), lamport + 1, snapshotFile);
+        } catch (IOException e) {
+            System.err.println("Error writing the snapshot: " + e.getMessage());
+        } finally {
+            persistenceLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an update received from the primary to the store and the update log of this backup.
+     *
+     * @param lamport The Lamport clock value of the update.
+     * @param records The records of the update.
+     * @throws IOException if the records cannot be written to the update log.
+     */
+    static void applyReplicated(long lamport, String records) throws IOException {
+        persistenceLock.readLock().lock();
+        try {
+            updateLog.appendReplicated(records, dataStore);
+            lamportClock.update(lamport);
+            replicationLog.append(lamport, records);
+        } finally {
+            persistenceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Turns this backup into the primary: it accepts PUT requests from now on and expires the entries of
+     * the sources that do not send new data within 30 seconds. The replication log keeps its history, so
+     * the other backups continue from it without a full state transfer if they are not ahead of this server.
+     */
+    static void promote() {
+        ReplicationClient client = replicationClient;
+        if (client == null) {
+            return;
+        }
+        client.stop();
+        long now = System.currentTimeMillis();
+        for (WeatherDataStore.WeatherEntry entry : dataStore.entries()) {
+            connectionExpiry.touch(entry.sourceId, now);
+            connectionIds.accumulateAndGet(entry.sourceId, Math::max);
+        }
+        replicationClient = null;
+        System.out.println("Took over as primary after update " + replicationLog.getLastLamport());
+    }
+
+    /**
+     * Writes a snapshot of the in-memory store and starts a new, empty update log.
+     * The Lamport clock value is the high-water mark of the snapshot: every later PUT is logged with a value
+     * at least as high, so recovery replays exactly the records that are not in the snapshot.
+     * A backup logs the updates of its primary, which only follow the last update it applied.
+     */
+    static void checkpoint() {
+        persistenceLock.writeLock().lock();
+        try {
+            long highWaterMark = isBackup() ? replicationLog.getLastLamport() + 1 : lamportClock.getValue();
+            updateLog.checkpoint(dataStore.entries(), highWaterMark, snapshotFile);
+        } catch (IOException e) {
+            System.err.println("Error writing the snapshot: " + e.getMessage());
+        } finally {
+            persistenceLock.writeLock().unlock();
         }
-        System.out.println("Removed entries for inactive sockets from the file.");
     }
 
     /**
      * Main method that starts the Aggregation. Listen to connections from sockets and
      * handle those connections.
      *
-     * @param args Command line arguments containing the server URL and input file path.
+     * @param args Command line arguments containing the port number, optionally followed by
+     *             "--max-entries=N" to change the number of stations kept (default 20),
+     *             "--mode=nio" to handle connections with I/O threads instead of one thread per connection,
+     *             "--mode=virtual" to handle each connection on a virtual thread (Java 21+),
+     *             "--io-threads=N" to change the number of I/O threads (default 2),
+     *             "--max-workers=N" and "--queue-capacity=N" to bound the worker pool of the default mode and
+     *             of the PUT requests in nio mode (default 512 and 128), "--http-port=N" to also serve HTTP/1.1 clients on another port,
+     *             "--commit-window-us=N" to force the PUTs to the disk before answering them, collecting the PUTs
+     *             of N microseconds into one write (by default PUTs are written without forcing),
+     *             "--snapshot-records=N" to change how many logged PUTs trigger a new snapshot (default 1000),
+     *             "--replication-port=N" to ship the updates to backups connecting on port N,
+     *             "--backup-of=HOST:PORT[,HOST:PORT...]" to run as a read-only backup of the servers with these
+     *             replication ports, and "--takeover-ms=N" to change how long a backup waits for an unreachable
+     *             primary before taking over (default 5000).
      *
      */
     public static void main(String[] args) {
         int portNumber = 4567;
-        if (args.length == 1) {
+        if (args.length >= 1) {
             try {
                 portNumber = Integer.parseInt(args[0]);
             } catch (NumberFormatException e) {
                 System.err.println("Invalid port number provided. Using default port " + portNumber);
             }
         }
-        AggregationServer server = new AggregationServer();
-        server.start(portNumber);
+        int maxEntries = getIntOption(args, "max-entries", RecencyIndex.DEFAULT_CAPACITY);
+        if (maxEntries < 1) {
+            System.err.println("Invalid max entries provided. Using default " + RecencyIndex.DEFAULT_CAPACITY);
+            maxEntries = RecencyIndex.DEFAULT_CAPACITY;
+        }
+        snapshotRecords = Math.max(1, getIntOption(args, "snapshot-records", DEFAULT_SNAPSHOT_RECORDS));
+        AggregationServer server = new AggregationServer(maxEntries);
+        long commitWindowMicros = getIntOption(args, "commit-window-us", -1);
+        if (commitWindowMicros >= 0) {
+            updateLog.startGroupCommit(commitWindowMicros);
+            System.out.println("Group commit of the update log with a window of " + commitWindowMicros + " us");
+        }
+        String mode = getOption(args, "mode");
+        int maxWorkers = Math.max(1, getIntOption(args, "max-workers", DEFAULT_MAX_WORKERS));
+        int queueCapacity = Math.max(0, getIntOption(args, "queue-capacity", DEFAULT_QUEUE_CAPACITY));
+        int replicationPort = getIntOption(args, "replication-port", -1);
+        String backupOf = getOption(args, "backup-of");
+        if (replicationPort >= 0 || backupOf != null) {
+            server.startReplication(replicationPort, backupOf,
+                    getIntOption(args, "takeover-ms", (int) ReplicationClient.DEFAULT_TAKEOVER_MILLIS));
+        }
+        int httpPort = getIntOption(args, "http-port", -1);
+        if (httpPort >= 0) {
+            ExecutorService httpExecutor = "virtual".equals(mode) ? newVirtualThreadPerTaskExecutor() : null;
+            server.startHttp(httpPort, httpExecutor != null ? httpExecutor : newWorkerPool(maxWorkers, queueCapacity));
+        }
+        if ("nio".equals(mode)) {
+            server.startNio(portNumber, Math.max(1, getIntOption(args, "io-threads", 2)), maxWorkers, queueCapacity);
+        } else if ("virtual".equals(mode)) {
+            server.startVirtual(portNumber);
+        } else {
+            server.start(portNumber, maxWorkers, queueCapacity);
+        }
+    }
+
+    /**
+     * Gets the value of a "--name=value" command line option.
+     *
+     * @param args Command line arguments.
+     * @param name The name of the option.
+     * @return The value of the option, or null if the option is not given.
+     */
+    static String getOption(String[] args, String name) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the value of a numeric "--name=value" command line option.
+     *
+     * @param args Command line arguments.
+     * @param name The name of the option.
+     * @param defaultValue The value used when the option is not given or is not a number.
+     * @return The value of the option.
+     */
+    static int getIntOption(String[] args, String name, int defaultValue) {
+        String value = getOption(args, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for --" + name + ": " + value + ". Using default " + defaultValue);
+            return defaultValue;
+        }
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,10 @@ import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -66,6 +70,16 @@ class AggregationServerTest {
         verify(mockOut).writeUTF(contains("HTTP/1.1 200")); // Ensure success response
     }
 
+    @Test
+    void testHandlePutRequestAfterCheckpointUpdatesData() throws IOException {
+        String message = "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n{\"id\":\"CHECKPOINT01\",\"air_temp\":1}";
+        AggregationServer.buildPutResponse(message, 1);
+        AggregationServer.checkpoint();
+
+        AggregationServer.Response response = AggregationServer.buildPutResponse(message, 1);
+        assertEquals(200, response.status, "The storage file exists after a checkpoint");
+    }
+
     @Test
     void testInvalidJsonOnPutRequest() throws IOException {
         String putMessage = "PUT /data HTTP/1.1\r\nLamport-Clock: 1\r\n\r\n{\"temperature\": }";
@@ -82,34 +96,36 @@ class AggregationServerTest {
 
     @Test
     void testHandleGetRequest() throws IOException {
-        String filePath = "data/weather_data.txt";
-        setupDatabase(filePath, "2024-10-03 23:49:54 [Thread ID: 1] {\"temperature\": 102}\n");
-        new AggregationServer.AggregationServerThread(mockSocket).handleGetRequest(mockOut);
+        String putMessage = "PUT /data HTTP/1.1\r\nLamport-Clock: 1\r\n\r\n{\"id\": \"IDS60901\", \"temperature\": 102}";
+        AggregationServer.AggregationServerThread thread = new AggregationServer.AggregationServerThread(mockSocket);
+        thread.handlePutRequest(putMessage, mock(DataOutputStream.class));
+
+        // GET is served from the in-memory store, the storage file is not read
+        setupDatabase("data/weather_data.txt", "");
+        thread.handleGetRequest(mockOut);
         verify(mockOut).writeUTF(contains("HTTP/1.1 200")); // Ensure success response
+        verify(mockOut).writeUTF(contains("\"temperature\": 102"));
     }
 
     @Test
     void testExtractJsonDataWithValidJson() {
-        AggregationServer.AggregationServerThread thread = new AggregationServer.AggregationServerThread(mockSocket);
         String request = "POST /data HTTP/1.1\r\nContent-Type: application/json\r\n\r\n{ \"key\": \"value\" }";
-        String actualJson = thread.extractJsonData(request);
+        String actualJson = AggregationServer.AggregationServerThread.extractJsonData(request);
         String expectedJson = "{ \"key\": \"value\" }";
         assertEquals(expectedJson, actualJson);
     }
 
     @Test
     void testExtractJsonDataWithInvalidJson() {
-        AggregationServer.AggregationServerThread thread = new AggregationServer.AggregationServerThread(mockSocket);
         String request = "POST /data HTTP/1.1\r\nContent-Type: application/json\r\n\r\n[ \"key\": \"value\" }";
-        String actualJson = thread.extractJsonData(request);
+        String actualJson = AggregationServer.AggregationServerThread.extractJsonData(request);
         assertNull(actualJson);
     }
 
     @Test
     void testExtractJsonDataWithNullJson() {
-        AggregationServer.AggregationServerThread thread = new AggregationServer.AggregationServerThread(mockSocket);
         String request = "";
-        String actualJson = thread.extractJsonData(request);
+        String actualJson = AggregationServer.AggregationServerThread.extractJsonData(request);
         assertNull(actualJson);
     }
 
@@ -215,8 +231,227 @@ class AggregationServerTest {
         assertEquals(1, fileContent.size());
         Thread.sleep(36000);
 
-        File fileAfterRemove = new File(filePath);
-        assertEquals(0, fileAfterRemove.length());
+        // Expired data is logged as a tombstone instead of rewriting the file
+        List<String> fileAfterRemove = Files.readAllLines(Paths.get(filePath));
+        assertEquals(fileContent.get(0), fileAfterRemove.get(0));
+        assertTrue(fileAfterRemove.stream().anyMatch(line -> line.startsWith("DEL ") && line.endsWith(" IDS60901")));
+    }
+
+    @Test
+    void testRejectConnection() throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        Socket rejectedSocket = mock(Socket.class);
+        when(rejectedSocket.getOutputStream()).thenReturn(response);
+
+        AggregationServer.rejectConnection(rejectedSocket);
+
+        String message = new DataInputStream(new ByteArrayInputStream(response.toByteArray())).readUTF();
+        assertTrue(message.startsWith("HTTP/1.1 503 Service Unavailable"));
+        assertTrue(message.contains("Retry-After: " + AggregationServer.RETRY_AFTER_SECONDS));
+        verify(rejectedSocket).close();
+    }
+
+    @Test
+    void testWorkerPoolRejectsWhenSaturated() throws InterruptedException {
+        ThreadPoolExecutor pool = AggregationServer.newWorkerPool(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        pool.execute(blocked); // taken by the only worker
+        pool.execute(blocked); // waits in the queue
+        assertThrows(RejectedExecutionException.class, () -> pool.execute(blocked));
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testChunkedFramingNegotiation() throws IOException {
+        try (Socket socket = new Socket("localhost", 4567);
+             DataInputStream in = new DataInputStream(socket.getInputStream());
+             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+            int version = MessageFraming.negotiate(out, in);
+            assertEquals(MessageFraming.CHUNKED_VERSION, version);
+
+            MessageFraming.writeMessage(out, version, "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n" +
+                    "{\"id\":\"IDS60901\",\"name\":\"Chunked\"}\r\n");
+            assertTrue(MessageFraming.readMessage(in, version).startsWith("HTTP/1.1 20"));
+            MessageFraming.writeMessage(out, version, "GET /weather/all HTTP/1.1\r\nLamport-Clock: 0\r\n");
+            String response = MessageFraming.readMessage(in, version);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response.contains("[{\"id\":\"IDS60901\",\"name\":\"Chunked\"}"));
+        }
+    }
+
+    @Test
+    void testExtractLamportClock() {
+        assertEquals(7, AggregationServer.AggregationServerThread.extractLamportClock(
+                "GET /weather HTTP/1.1\r\nHost: localhost:4567\r\nLamport-Clock: 7\r\n"));
+        assertEquals(12, AggregationServer.AggregationServerThread.extractLamportClock("Lamport-Clock:12"));
+        assertEquals(-1, AggregationServer.AggregationServerThread.extractLamportClock("HEARTBEAT"));
+        assertEquals(-1, AggregationServer.AggregationServerThread.extractLamportClock("GET /weather HTTP/1.1\r\nLamport-Clock: abc\r\n"));
+    }
+
+    @Test
+    void testExtractHeader() {
+        String message = "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 7\r\nSource-Id:  feed-1 \r\n\r\n{\"id\":\"A\"}";
+        assertEquals("feed-1", AggregationServer.AggregationServerThread.extractHeader(message, "Source-Id:"));
+        assertNull(AggregationServer.AggregationServerThread.extractHeader(
+                "PUT /weather_data.txt HTTP/1.1\r\n\r\n\r\nSource-Id: body", "Source-Id:"), "The body is not a header");
+    }
+
+    @Test
+    void testSourceKey() {
+        assertEquals(42, AggregationServer.sourceKey(null, 42), "Unnamed senders are keyed by their connection");
+        long key = AggregationServer.sourceKey("host:/data/feed.txt", 42);
+        assertEquals(key, AggregationServer.sourceKey("host:/data/feed.txt", 43), "A named source keeps its key on reconnect");
+        assertTrue(key < 0, "Named sources never collide with connection IDs");
+        assertNotEquals(key, AggregationServer.sourceKey("host:/data/other.txt", 42));
+    }
+
+    @Test
+    void testReconnectingSourceReclaimsItsStations() throws IOException {
+        String message = "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\nSource-Id: reclaim-feed\r\n\r\n" +
+                "[{\"id\":\"RECLAIM01\",\"air_temp\":1}]\r\n";
+
+        assertTrue(AggregationServer.processRequest(message, 1001).body.contains("{\"id\":\"RECLAIM01\",\"status\":201}"));
+        assertTrue(AggregationServer.processRequest(message.replace(":1}", ":2}"), 1002).body
+                        .contains("{\"id\":\"RECLAIM01\",\"status\":200}"),
+                "The second connection updates the station of the first one instead of adding it again");
+        AggregationServer.Response station = AggregationServer.handleRequest("GET", "/weather?id=RECLAIM01", 0, "", 1002);
+        assertEquals("{\"id\":\"RECLAIM01\",\"air_temp\":2}", station.body);
+    }
+
+    @Test
+    void testFitToFraming() {
+        String large = "HTTP/1.1 200 OK\r\n" + "x".repeat(70000);
+        assertTrue(AggregationServer.fitToFraming(large, MessageFraming.LEGACY_VERSION).startsWith("HTTP/1.1 413"));
+        assertSame(large, AggregationServer.fitToFraming(large, MessageFraming.CHUNKED_VERSION));
+    }
+
+    @Test
+    void testBatchPutRequest() throws IOException {
+        String message = "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n" +
+                "[{\"id\":\"BATCH01\",\"air_temp\":1},\n{\"id\":\"BATCH02\",\"air_temp\":2}]\r\n";
+
+        String response = AggregationServer.buildPutResponse(message, 1).toLegacyString();
+
+        assertTrue(response.startsWith("HTTP/1.1 20"));
+        assertTrue(response.contains("{\"id\":\"BATCH01\",\"status\":"));
+        assertTrue(response.contains("{\"id\":\"BATCH02\",\"status\":"));
+        String all = AggregationServer.buildGetAllResponse().body;
+        assertTrue(all.contains("BATCH01") && all.contains("BATCH02"));
+    }
+
+    @Test
+    void testBatchPutStatusesEscapeTheIdOfAnInvalidRecord() throws IOException {
+        String message = "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n" +
+                "[{\"id\":\"ESCAPE01\",\"air_temp\":1},{\"id\": ab\"c\\d\t\", \"air_temp\": }]\r\n";
+
+        AggregationServer.Response response = AggregationServer.buildPutResponse(message, 1);
+
+        assertEquals(500, response.status);
+        List<String> records = JSONParser.splitJsonArray(response.body);
+        assertNotNull(records, "The statuses should stay a JSON array");
+        assertEquals(2, records.size());
+        for (String record : records) {
+            assertTrue(JSONParser.isValidJson(record), record);
+        }
+        assertEquals("{\"id\":\"ab\\\"c\\\\d\\u0009\\\"\",\"status\":500}", records.get(1));
+    }
+
+    @Test
+    void testBatchPutRequestIsAtomic() throws IOException {
+        String message = "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n" +
+                "[{\"id\":\"ATOMIC01\",\"air_temp\":1},{\"id\":\"ATOMIC02\",\"air_temp\"}]\r\n";
+
+        String response = AggregationServer.buildPutResponse(message, 1).toLegacyString();
+
+        assertTrue(response.startsWith("HTTP/1.1 500"));
+        assertTrue(response.contains("{\"id\":\"ATOMIC01\",\"status\":424}"), "The valid record is not applied");
+        assertTrue(response.contains("{\"id\":\"ATOMIC02\",\"status\":500}"));
+        AggregationServer.Response all = AggregationServer.buildGetAllResponse();
+        assertFalse(all.body.contains("ATOMIC01"), "Nothing of a rejected batch should be stored");
+    }
+
+    @Test
+    void testRequestedStationIds() {
+        assertEquals(List.of(), AggregationServer.requestedStationIds("/weather"));
+        assertEquals(List.of("IDS60901"), AggregationServer.requestedStationIds("/weather?id=IDS60901"));
+        assertEquals(List.of("A", "B,C", "D"), AggregationServer.requestedStationIds("/weather?id=A,B%2CC&x=1&id=D,A"));
+        assertEquals(List.of(), AggregationServer.requestedStationIds("/weather?id=%zz"));
+    }
+
+    @Test
+    void testGetStationsById() throws IOException {
+        String message = "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n" +
+                "[{\"id\":\"QUERY01\",\"air_temp\":1},{\"id\":\"QUERY02\",\"air_temp\":2}]\r\n";
+        AggregationServer.buildPutResponse(message, 1);
+
+        AggregationServer.Response one = AggregationServer.handleRequest("GET", "/weather?id=QUERY02", 0, "", 1);
+        assertEquals(200, one.status);
+        assertEquals("{\"id\":\"QUERY02\",\"air_temp\":2}", one.body);
+
+        AggregationServer.Response many = AggregationServer.handleRequest("GET", "/weather?id=QUERY02,MISSING,QUERY01", 0, "", 1);
+        assertEquals("[{\"id\":\"QUERY02\",\"air_temp\":2},{\"id\":\"QUERY01\",\"air_temp\":1}]", many.body,
+                "Stations should be returned in the requested order, missing ones left out");
+
+        assertEquals(404, AggregationServer.handleRequest("GET", "/weather?id=MISSING", 0, "", 1).status);
+    }
+
+    @Test
+    void testResponseCacheIsInvalidatedByUpdates() {
+        WeatherDataStore store = new WeatherDataStore();
+        store.put("{\"id\":\"CACHE01\"}", 1, 1000, 1);
+        AggregationServer.ResponseCache cache = new AggregationServer.ResponseCache(store);
+
+        AggregationServer.Response first = cache.getLatest();
+        assertSame(first, cache.getLatest(), "GETs without updates in between should share one response");
+        assertSame(cache.getAll(), cache.getAll());
+
+        store.put("{\"id\":\"CACHE02\"}", 1, 2000, 2);
+        assertNotSame(first, cache.getLatest(), "A PUT should invalidate the cached response");
+        store.removeBySources(List.of(1L));
+        assertNotSame(first, cache.getLatest(), "An expiry should invalidate the cached response");
+    }
+
+    @Test
+    void testEncodedResponsesMatchWrittenResponses() throws IOException {
+        AggregationServer.Response response = AggregationServer.Response.json(200, "OK", "{\"id\":\"ENC01\"}");
+
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        MessageFraming.writeMessage(new DataOutputStream(legacy), MessageFraming.LEGACY_VERSION, response.toLegacyString());
+        assertArrayEquals(legacy.toByteArray(), response.encodeFrame(MessageFraming.LEGACY_VERSION));
+        assertSame(response.encodeFrame(MessageFraming.LEGACY_VERSION), response.encodeFrame(MessageFraming.LEGACY_VERSION));
+
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+        MessageFraming.writeMessage(new DataOutputStream(chunked), MessageFraming.CHUNKED_VERSION, response.toLegacyString());
+        assertArrayEquals(chunked.toByteArray(), response.encodeFrame(MessageFraming.CHUNKED_VERSION));
+
+        ByteArrayOutputStream http = new ByteArrayOutputStream();
+        HttpAggregationServer.writeResponse(http, 200, "OK", "application/json", response.body, false, "");
+        assertArrayEquals(http.toByteArray(), response.encodeHttp(false));
+    }
+
+    @Test
+    void testMetricsEndpoint() throws IOException {
+        long putsBefore = AggregationServer.metrics().getRequestCount("PUT");
+        AggregationServer.handleRequest("PUT", "/weather_data.txt", 0,
+                "PUT /weather_data.txt HTTP/1.1\r\n\r\n{\"id\":\"METRICS01\",\"air_temp\":1}", 1);
+        assertEquals(putsBefore + 1, AggregationServer.metrics().getRequestCount("PUT"));
+
+        AggregationServer.Response response = AggregationServer.handleRequest("GET", "/metrics", 0, "", 1);
+        assertEquals(200, response.status);
+        assertEquals(ServerMetrics.CONTENT_TYPE, response.contentType);
+        assertTrue(response.body.contains("aggregation_requests_total{type=\"PUT\"} " + (putsBefore + 1)));
+        assertTrue(response.body.contains("aggregation_request_latency_seconds{type=\"PUT\",quantile=\"0.99\"} "));
+        assertTrue(response.body.contains("aggregation_lamport_clock "));
+        assertNotSame(response, AggregationServer.handleRequest("GET", "/metrics", 0, "", 1), "Metrics are never cached");
     }
 
     public static void setupDatabase(String filePath, String dataEntry) throws IOException {
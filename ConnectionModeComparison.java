@@ -0,0 +1,173 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConnectionModeComparison, compares the memory cost per connection and the GET throughput of the
+ * AggregationServer connection modes (thread, virtual, nio).
+ * Each mode is started as a separate AggregationServer process, so the numbers only contain the server side.
+ * Memory is read from /proc/&lt;pid&gt;/status and is only available on Linux.
+ */
+public class ConnectionModeComparison {
+    private static final int GET_CLIENTS = 8;
+
+    /**
+     * Main method that runs the comparison.
+     *
+     * @param args Command line arguments: the number of idle heartbeating connections (default 2000),
+     *             the duration of the GET throughput run in seconds (default 5) and the modes to compare
+     *             (default "thread virtual nio").
+     * @throws Exception if a server cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+        int connections = args.length >= 1 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 5;
+        List<String> modes = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            modes.add(args[i]);
+        }
+        if (modes.isEmpty()) {
+            modes = List.of("thread", "virtual", "nio");
+        }
+
+        System.out.printf("%-8s %12s %10s %14s %14s %12s%n",
+                "mode", "connections", "threads", "RSS delta KB", "KB/connection", "GET/s");
+        for (String mode : modes) {
+            compare(mode, connections, seconds);
+        }
+    }
+
+    /**
+     * Starts a server in the given mode, opens the idle connections, measures the memory, then measures the GET throughput.
+     */
+    private static void compare(String mode, int connections, int seconds) throws Exception {
+        int port = findFreePort();
+        Process server = startServer(mode, port);
+        List<Socket> idleSockets = new ArrayList<>();
+        try {
+            waitUntilListening(port);
+            Thread.sleep(1000);
+            long baselineRss = readStatus(server.pid(), "VmRSS");
+
+            int opened = 0;
+            for (int i = 0; i < connections; i++) {
+                try {
+                    Socket socket = new Socket("localhost", port);
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeUTF("HEARTBEAT");
+                    out.flush();
+                    idleSockets.add(socket);
+                    opened++;
+                } catch (IOException e) {
+                    System.err.println(mode + ": could only open " + opened + " connections - " + e.getMessage());
+                    break;
+                }
+            }
+            // Let the server pick up every connection, then send one more heartbeat round
+            Thread.sleep(2000);
+            for (Socket socket : idleSockets) {
+                new DataOutputStream(socket.getOutputStream()).writeUTF("HEARTBEAT");
+            }
+            Thread.sleep(2000);
+            long connectedRss = readStatus(server.pid(), "VmRSS");
+            long threads = readStatus(server.pid(), "Threads");
+
+            double getsPerSecond = measureGetThroughput(port, seconds);
+            long rssDelta = connectedRss - baselineRss;
+            System.out.printf("%-8s %12d %10d %14d %14.1f %12.0f%n", mode, opened, threads, rssDelta,
+                    opened == 0 ? 0.0 : (double) rssDelta / opened, getsPerSecond);
+        } finally {
+            for (Socket socket : idleSockets) {
+                socket.close();
+            }
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    /**
+     * Sends GET requests from several client threads for the given duration, each waiting for its response.
+     *
+     * @return The number of GET responses per second.
+     */
+    private static double measureGetThroughput(int port, int seconds) throws InterruptedException {
+        AtomicLong responses = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < GET_CLIENTS; i++) {
+            Thread client = new Thread(() -> {
+                try (Socket socket = new Socket("localhost", port);
+                     DataInputStream in = new DataInputStream(socket.getInputStream());
+                     DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                    String request = "GET /weather HTTP/1.1\r\nHost: localhost:" + port + "\r\nLamport-Clock: 0\r\n";
+                    while (System.nanoTime() < deadline) {
+                        out.writeUTF(request);
+                        out.flush();
+                        in.readUTF();
+                        responses.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    System.err.println("GET client failed: " + e.getMessage());
+                }
+            });
+            client.start();
+            clients.add(client);
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return responses.get() / (double) seconds;
+    }
+
+    private static Process startServer(String mode, int port) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "AggregationServer", String.valueOf(port), "--mode=" + mode);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    private static void waitUntilListening(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Reads a numeric field (such as VmRSS in KB or Threads) of /proc/&lt;pid&gt;/status.
+     *
+     * @return The value of the field, or -1 if it is not available.
+     */
+    private static long readStatus(long pid, String field) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/" + pid + "/status"))) {
+                if (line.startsWith(field + ":")) {
+                    return Long.parseLong(line.substring(field.length() + 1).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Cannot read " + field + " of process " + pid + ": " + e.getMessage());
+        }
+        return -1;
+    }
+}
@@ -1,11 +1,26 @@
 import java.io.*;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * ContentServer, connect to AggregationServer and send/update data.
+ * Every PUT names its sender with a Source-Id header, so the AggregationServer keeps and expires the data
+ * of this content server under the same identity after a reconnect.
  */
 public class ContentServer {
     private static final LamportClock lamportClock = new LamportClock();
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+    private static final long SEND_INTERVAL_MILLIS = 20000;
+    private static final long SHARD_CONNECT_WAIT_MILLIS = 1000;
+    private static long retryAfterMillis = -1;
+    private static boolean serverUnavailable = false;
+    private static int busyResponses = 0;
+    private static int framingVersion = MessageFraming.LEGACY_VERSION;
+    private static String sourceId = null;
 
     /**
      * Sends a PUT request to the server with data from an input file.
@@ -16,51 +31,224 @@ public class ContentServer {
      *                      there is an error during the request.
      */
     public static void sendPutRequest(DataOutputStream out, String inputFilePath) throws IOException {
+        try {
+            sendPut(out, readStationData(inputFilePath));
+        } catch (IOException e) {
+            System.err.println("Error reading data/sending PUT: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Sends one batch PUT request with the data of several stations, one input file per station.
+     * The body is a JSON array that the server applies as one unit.
+     *
+     * @param out            The output stream to send the request.
+     * @param inputFilePaths The paths to the files that contain the data to be sent.
+     * @throws IOException   If a file path is invalid, data conversion fails, or
+     *                       there is an error during the request.
+     */
+    public static void sendBatchPutRequest(DataOutputStream out, List<String> inputFilePaths) throws IOException {
+        try {
+            sendPut(out, readBatchData(inputFilePaths));
+        } catch (IOException e) {
+            System.err.println("Error reading data/sending batch PUT: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the data of several stations as the JSON array of a batch PUT request, one input file per station.
+     */
+    private static String readBatchData(List<String> inputFilePaths) throws IOException {
+        StringBuilder data = new StringBuilder("[\n");
+        for (int i = 0; i < inputFilePaths.size(); i++) {
+            if (i > 0) {
+                data.append(",\n");
+            }
+            data.append(readStationData(inputFilePaths.get(i)));
+        }
+        return data.append("\n]").toString();
+    }
+
+    /**
+     * Reads the data of a station from an input file and converts it to JSON.
+     */
+    private static String readStationData(String inputFilePath) throws IOException {
         File inputFile = new File(inputFilePath);
         if (!inputFile.exists() || !inputFile.isFile()) {
             String errorMessage = "Invalid file path: " + inputFilePath;
             System.err.println(errorMessage);
             throw new IOException(errorMessage);
         }
+        String data = JSONParser.convertFileToJson(inputFilePath);
+        if (data == null) {
+            System.err.println("Data is null after conversion from file.");
+            throw new IOException("Data is null after conversion from file.");
+        }
+        return data;
+    }
 
-        try {
-            String data = JSONParser.convertFileToJson(inputFilePath);
-            if (data == null) {
-                System.err.println("Data is null after conversion from file.");
-                throw new IOException("Data is null after conversion from file.");
-            }
+    /**
+     * Sends a PUT request with the given body, timestamped with a new Lamport clock value.
+     * The value is taken with one atomic tick, so two requests never carry the same value.
+     */
+    private static void sendPut(DataOutputStream out, String data) throws IOException {
+        long timestamp = lamportClock.tickAndGet();
+        String request = "PUT /weather_data.txt HTTP/1.1\r\nUser-Agent: ATOMClient/1/0\r\nContent-Type: text/Json\r\nContent-Length: "
+                + data.length() + "\r\nLamport-Clock: " + timestamp
+                + (sourceId == null ? "" : "\r\nSource-Id: " + sourceId) + "\r\n\r\n" + data + "\r\n";
 
-            String request = "PUT /weather_data.txt HTTP/1.1\r\nUser-Agent: ATOMClient/1/0\r\nContent-Type: text/Json\r\nContent-Length: "
-                    + data.length() + "\r\nLamport-Clock: " + lamportClock.getValue() + "\r\n\r\n" + data + "\r\n";
+        MessageFraming.writeMessage(out, framingVersion, request);
+    }
 
-            out.writeUTF(request);
-            out.flush();
-            lamportClock.increment();
+    /**
+     * Sets the identity sent with every PUT request in the Source-Id header.
+     *
+     * @param id The identity of this content server, or null to send no Source-Id header.
+     */
+    static void setSourceId(String id) {
+        sourceId = id == null || id.isBlank() ? null : id.trim();
+    }
+
+    /**
+     * Gets the identity sent with every PUT request.
+     *
+     * @return The identity, or null if none is sent.
+     */
+    static String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * Gets the default identity of a content server: the host name followed by the absolute path of its
+     * first input file. It stays the same when the content server is restarted with the same input.
+     *
+     * @param inputFilePaths The input files of the content server.
+     * @return The default identity.
+     */
+    static String defaultSourceId(List<String> inputFilePaths) {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
         } catch (IOException e) {
-            System.err.println("Error reading data/sending PUT: " + e.getMessage());
-            throw e;
+            host = "localhost";
         }
+        return host + ":" + new File(inputFilePaths.get(0)).getAbsolutePath();
     }
 
     /**
      * Reads and processes the server's response to the PUT request.
+     * If the server is busy (503) and sends a Retry-After hint, the hint is kept for the next retry.
+     * A 503 without the hint means the server does not accept updates, such as a backup, see {@link #isServerUnavailable()}.
      *
      * @param in The input stream to receive the server's response.
      * @return true if the server responds with success (200 or 201 status code), false otherwise.
      * @throws IOException If there is an error while reading the server's response.
      */
     public static boolean readServerResponse(DataInputStream in) throws IOException {
-        String response = in.readUTF();
+        String response = MessageFraming.readMessage(in, framingVersion);
+        retryAfterMillis = response.startsWith("HTTP/1.1 503") ? extractRetryAfterMillis(response) : -1;
+        serverUnavailable = response.startsWith("HTTP/1.1 503") && retryAfterMillis < 0;
         if (response.startsWith("HTTP/1.1 200") || response.startsWith("HTTP/1.1 201")) {
             System.out.println("Content is successfully updated");
             return true;
         } else {
+            int recordStatuses = response.indexOf("[{");
+            if (recordStatuses != -1) { // the status of each record of a rejected batch
+                System.err.println("Batch rejected: " + response.substring(recordStatuses).trim());
+            }
             return false;
         }
     }
 
+    /**
+     * Extracts the Retry-After header (in seconds) of a response.
+     *
+     * @param response The response of the server.
+     * @return The Retry-After value in milliseconds, or -1 if the response has no valid Retry-After header.
+     */
+    static long extractRetryAfterMillis(String response) {
+        int headerIndex = response.indexOf("Retry-After:");
+        if (headerIndex == -1) {
+            return -1;
+        }
+        int valueEnd = response.indexOf("\r\n", headerIndex);
+        String value = response.substring(headerIndex + "Retry-After:".length(), valueEnd == -1 ? response.length() : valueEnd);
+        try {
+            return Math.max(0, Long.parseLong(value.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks whether the last response was a 503 Service Unavailable with a Retry-After hint.
+     *
+     * @return true if the server asked to retry later, false otherwise.
+     */
+    public static boolean isRetryAfterRequested() {
+        return retryAfterMillis >= 0;
+    }
+
+    /**
+     * Checks whether the last response was a 503 Service Unavailable without a Retry-After hint, which a backup
+     * AggregationServer sends to PUT requests: the update has to be sent to another server.
+     *
+     * @return true if the server does not accept updates, false otherwise.
+     */
+    public static boolean isServerUnavailable() {
+        return serverUnavailable;
+    }
+
+    /**
+     * Computes how long to wait before the next attempt after the server asked to retry later.
+     * The delay doubles with every attempt (capped at 60 seconds) and is randomised between half and all of it,
+     * so content servers rejected at the same time do not come back at the same time.
+     *
+     * @param retryAfterMillis The Retry-After hint of the server in milliseconds.
+     * @param attempt The number of attempts that already failed, starting at 0.
+     * @return The delay in milliseconds.
+     */
+    static long backoffDelayMillis(long retryAfterMillis, int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, Math.max(retryAfterMillis, 1) << Math.min(attempt, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Negotiates the chunked framing with the AggregationServer, so PUT requests larger than 64 KB can be sent.
+     * Keeps the legacy framing if the AggregationServer does not support it. If the server rejected the connection
+     * because it is busy, the Retry-After hint is kept, see {@link #isRetryAfterRequested()}.
+     *
+     * @param out The output stream to send the negotiation.
+     * @param in The input stream to receive the server's answer.
+     * @throws IOException If there is an error during the negotiation.
+     */
+    static void negotiateFraming(DataOutputStream out, DataInputStream in) throws IOException {
+        framingVersion = MessageFraming.LEGACY_VERSION;
+        MessageFraming.writeMessage(out, framingVersion, MessageFraming.NEGOTIATION_REQUEST);
+        String response = in.readUTF();
+        retryAfterMillis = response.startsWith("HTTP/1.1 503") ? extractRetryAfterMillis(response) : -1;
+        framingVersion = MessageFraming.negotiatedVersion(response);
+    }
+
+    /**
+     * Negotiates the framing on a new connection of a {@link FailoverConnection}, see {@link #negotiateFraming}.
+     *
+     * @param out The output stream to send the negotiation.
+     * @param in The input stream to receive the server's answer.
+     * @return The framing version to use on the connection.
+     * @throws IOException If there is an error during the negotiation.
+     */
+    static int handshake(DataOutputStream out, DataInputStream in) throws IOException {
+        negotiateFraming(out, in);
+        return framingVersion;
+    }
+
     /**
      * Attempts to send a PUT request with retries if the initial attempt fails.
+     * If the server is busy (503 with a Retry-After hint), waits for a jittered backoff delay instead of retrying
+     * immediately, and returns false because the server closes the connections it rejects.
      *
      * @param out           The output stream to send the request.
      * @param in            The input stream to receive the server's response.
@@ -69,59 +257,217 @@ public class ContentServer {
      * @return true if the PUT request is successful within the retry limit, false otherwise.
      */
     public static boolean sendPutRequestWithRetries(DataOutputStream out, DataInputStream in, String inputFilePath, int maxRetries) {
+        return sendPutRequestWithRetries(out, in, List.of(inputFilePath), maxRetries);
+    }
+
+    /**
+     * Attempts to send the data of the input files with retries, as a single PUT request for one file
+     * or as one batch PUT request for several files.
+     *
+     * @param out            The output stream to send the request.
+     * @param in             The input stream to receive the server's response.
+     * @param inputFilePaths The paths to the files that contain the data to be sent.
+     * @param maxRetries     The maximum number of retries in case of failure.
+     * @return true if the PUT request is successful within the retry limit, false otherwise.
+     */
+    public static boolean sendPutRequestWithRetries(DataOutputStream out, DataInputStream in, List<String> inputFilePaths, int maxRetries) {
         boolean successPutRequest = false;
         while (maxRetries > 0 && !successPutRequest) {
             maxRetries--;
             try {
-                sendPutRequest(out, inputFilePath);
+                if (inputFilePaths.size() == 1) {
+                    sendPutRequest(out, inputFilePaths.get(0));
+                } else {
+                    sendBatchPutRequest(out, inputFilePaths);
+                }
                 successPutRequest = readServerResponse(in);
             } catch (IOException e) {
                 System.err.println("Error during PUT request: " + e.getMessage());
             }
+            if (!successPutRequest && isRetryAfterRequested()) {
+                waitBeforeReconnecting();
+                return false;
+            }
             if (maxRetries > 0 && !successPutRequest) {
                 System.out.println("Retrying PUT request...");
             }
         }
+        if (successPutRequest) {
+            busyResponses = 0;
+        }
         return successPutRequest;
     }
 
+    /**
+     * Waits for a jittered backoff delay after the server asked to retry later.
+     */
+    private static void waitBeforeReconnecting() {
+        long delay = backoffDelayMillis(retryAfterMillis, busyResponses++);
+        System.out.println("Server is busy, retrying in " + delay + " ms on a new connection...");
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Assigns each input file to the shard that owns its station, see {@link HashRing}.
+     *
+     * @param ring The shards.
+     * @param inputFilePaths The input files, one station per file.
+     * @return The input files of each shard that owns at least one of the stations.
+     * @throws IOException if an input file is invalid or its data has no station id.
+     */
+    static Map<String, List<String>> assignInputFiles(HashRing ring, List<String> inputFilePaths) throws IOException {
+        Map<String, List<String>> filesByShard = new LinkedHashMap<>();
+        for (String inputFilePath : inputFilePaths) {
+            String stationId = JSONParser.extractId(readStationData(inputFilePath));
+            if (stationId == null) {
+                throw new IOException("No station id in " + inputFilePath);
+            }
+            filesByShard.computeIfAbsent(ring.ownerOf(stationId), shard -> new ArrayList<>()).add(inputFilePath);
+        }
+        return filesByShard;
+    }
+
+    /**
+     * Sends the data of the input files over a connection that fails over between the endpoints of a server,
+     * as a single PUT request for one file or as one batch PUT request for several files, with up to maxAttempts
+     * attempts. The connection stays open for the next call. When the connection breaks, or the server does not
+     * accept updates (a backup), the next attempt goes to the next healthy endpoint at once. When the server is
+     * busy (503 with a Retry-After hint), waits for a jittered backoff delay before the next attempt.
+     *
+     * @param connection The connection to the server.
+     * @param inputFilePaths The paths to the files that contain the data to be sent.
+     * @param maxAttempts The maximum number of attempts.
+     * @param connectTimeoutMillis How long to wait for an endpoint when none accepts connections,
+     *                             see {@link FailoverConnection#connect(long)}.
+     * @return true if the data was stored, false otherwise.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    static boolean sendWithFailover(FailoverConnection connection, List<String> inputFilePaths, int maxAttempts,
+                                    long connectTimeoutMillis) throws InterruptedException {
+        String data;
+        try {
+            data = inputFilePaths.size() == 1 ? readStationData(inputFilePaths.get(0)) : readBatchData(inputFilePaths);
+        } catch (IOException e) {
+            System.err.println("Error reading data: " + e.getMessage());
+            return false;
+        }
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (!connection.connect(connectTimeoutMillis)) {
+                System.err.println("Error: No server is reachable.");
+                return false;
+            }
+            framingVersion = connection.getFramingVersion();
+            try {
+                if (isRetryAfterRequested()) { // rejected by the handshake, the server closes the connection
+                    connection.disconnect();
+                    waitBeforeReconnecting();
+                    continue;
+                }
+                sendPut(connection.getOutput(), data);
+                if (readServerResponse(connection.getInput())) {
+                    connection.markHealthy();
+                    busyResponses = 0;
+                    return true;
+                }
+                if (isRetryAfterRequested()) {
+                    connection.disconnect();
+                    waitBeforeReconnecting();
+                } else if (isServerUnavailable()) {
+                    System.err.println("Server " + connection.getHost() + ":" + connection.getPort() +
+                            " does not accept updates, failing over.");
+                    connection.markFailed();
+                }
+            } catch (IOException e) {
+                System.err.println("Error during PUT request: " + e.getMessage());
+                connection.markFailed();
+            }
+            if (attempt < maxAttempts) {
+                System.out.println("Retrying PUT request...");
+            }
+        }
+        return false;
+    }
+
     /**
      * Main method that starts the ContentServer. Sends a PUT request to the server
      * and retries up to 3 times if the request fails. Continues to send requests at
-     * regular intervals (20 seconds).
+     * regular intervals (20 seconds) on the same connection. If the connection fails, fails over to the next
+     * endpoint or reconnects as soon as the server is back, see {@link FailoverConnection}. If the server rejected
+     * the connection because it is busy, reconnects once the jittered backoff delay is over.
      *
-     * @param args Command line arguments containing the server URL and input file path.
+     * @param args Command line arguments containing the server URL and one or more input file paths.
+     *             The URL can list several endpoints of the same data, such as a primary and its backups,
+     *             separated by commas: "host1:4567,host2:4567".
+     *             The data of several input files is sent as one batch PUT request.
+     *             "--source-id=NAME" sets the identity of this content server, see {@link #defaultSourceId}.
+     *             "--shards=HOST:PORT,HOST:PORT..." replaces the server URL to send the data of each station to
+     *             the AggregationServer that owns it in a sharded cluster, see {@link HashRing}. The endpoints
+     *             of one shard are separated by "|".
      * @throws InterruptedException If the thread is interrupted during sleep.
      */
     public static void main(String[] args) throws InterruptedException {
-        if (args.length < 2) {
-            System.err.println("Usage: java ContentServer <servername:portnumber> <inputFilePath>");
+        String usage = "Usage: java ContentServer <servername:portnumber[,servername:portnumber...] | " +
+                "--shards=HOST:PORT[|HOST:PORT...],HOST:PORT...> <inputFilePath> [inputFilePath...] [--source-id=NAME]";
+        List<String> inputFilePaths = new ArrayList<>();
+        String sourceIdOption = null;
+        HashRing ring = null;
+        for (String arg : args) {
+            if (arg.startsWith("--source-id=")) {
+                sourceIdOption = arg.substring("--source-id=".length());
+            } else if (arg.startsWith("--shards=")) {
+                ring = new HashRing(List.of(arg.substring("--shards=".length()).split(",")));
+            } else if (!arg.startsWith("--")) {
+                inputFilePaths.add(arg);
+            }
+        }
+        String url = ring == null && !inputFilePaths.isEmpty() ? inputFilePaths.remove(0) : null;
+        if (inputFilePaths.isEmpty()) {
+            System.err.println(usage);
             System.exit(1);
         }
+        setSourceId(sourceIdOption != null ? sourceIdOption : defaultSourceId(inputFilePaths));
+        int maxRetries = 3;
 
-        String url = args[0];
-        String inputFilePath = args[1];
-
-        String serverName = url.split(":")[0];
-        int portNumber = Integer.parseInt(url.split(":")[1]);
+        Map<String, FailoverConnection> connections = new LinkedHashMap<>();
+        try {
+            for (String server : ring != null ? ring.getNodes() : List.of(url)) {
+                connections.put(server, new FailoverConnection(FailoverConnection.split(server), ContentServer::handshake));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + "\n" + usage);
+            System.exit(1);
+        }
 
-        //initialize a new socket
-        try (Socket clientSocket = new Socket(serverName, portNumber);
-             DataInputStream in = new DataInputStream(clientSocket.getInputStream());
-             DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream())) {
-            boolean successPutRequest;
-            int maxRetries = 3;
+        if (ring != null) {
             while (true) {
-                successPutRequest = sendPutRequestWithRetries(out, in, inputFilePath, maxRetries);
-                if (successPutRequest) {
-                    System.out.println("PUT request successful.");
-                } else {
-                    System.err.println("Failed to send PUT request after " + maxRetries + " attempts.");
+                try {
+                    for (Map.Entry<String, List<String>> shard : assignInputFiles(ring, inputFilePaths).entrySet()) {
+                        // a shard that stays down is retried in the next round, the other shards do not wait for it
+                        if (sendWithFailover(connections.get(shard.getKey()), shard.getValue(), maxRetries,
+                                SHARD_CONNECT_WAIT_MILLIS)) {
+                            System.out.println("PUT request to shard " + shard.getKey() + " successful.");
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error reading the input files: " + e.getMessage());
                 }
-                Thread.sleep(20000);
+                Thread.sleep(SEND_INTERVAL_MILLIS);
             }
-        } catch (IOException e) {
-            System.err.println("Error: Unable to connect to " + serverName + " on port " + portNumber);
+        }
+
+        FailoverConnection connection = connections.get(url);
+        while (true) {
+            // waits for a server as long as it takes, and sends as soon as one is back
+            if (sendWithFailover(connection, inputFilePaths, maxRetries, Long.MAX_VALUE)) {
+                System.out.println("PUT request successful.");
+            } else {
+                System.err.println("Failed to send PUT request after " + maxRetries + " attempts.");
+            }
+            Thread.sleep(SEND_INTERVAL_MILLIS);
         }
     }
 }
@@ -9,6 +9,11 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -126,6 +131,166 @@ class ContentServerTest {
         assertTrue(actualRequest.contains("Content-Type: text/Json"));
         assertTrue(actualRequest.contains("Content-Length: " + expectedData.length() + "\r\n"));
         assertTrue(actualRequest.contains(expectedData));
+        assertFalse(actualRequest.contains("Source-Id:"), "No identity is sent unless one is set");
     }
 
+    @Test
+    void testPutRequestSendsSourceId() throws IOException {
+        ContentServer.setSourceId(ContentServer.defaultSourceId(List.of("data/inputForPutRequestFormat.txt")));
+        try {
+            ContentServer.sendPutRequest(mockOutputStream, "data/inputForPutRequestFormat.txt");
+        } finally {
+            ContentServer.setSourceId(null);
+        }
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(mockOutputStream).writeUTF(captor.capture());
+        String sourceHeader = captor.getValue().split("\r\n\r\n", 2)[0];
+        assertTrue(sourceHeader.contains("\r\nSource-Id: "));
+        assertTrue(sourceHeader.endsWith("inputForPutRequestFormat.txt"), "The default identity names the input file");
+    }
+
+    @Test
+    void testBusyResponseRequestsRetryAfter() throws IOException {
+        when(mockInputStream.readUTF()).thenReturn("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 5\r\nThe server is busy.\n");
+        assertFalse(ContentServer.readServerResponse(mockInputStream), "PUT request should fail when the server is busy");
+        assertTrue(ContentServer.isRetryAfterRequested());
+
+        when(mockInputStream.readUTF()).thenReturn("HTTP/1.1 200 OK");
+        assertTrue(ContentServer.readServerResponse(mockInputStream));
+        assertFalse(ContentServer.isRetryAfterRequested(), "The hint should be cleared by the next response");
+    }
+
+    @Test
+    void testExtractRetryAfterMillis() {
+        assertEquals(5000, ContentServer.extractRetryAfterMillis("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 5\r\n"));
+        assertEquals(-1, ContentServer.extractRetryAfterMillis("HTTP/1.1 503 Service Unavailable\r\n"));
+        assertEquals(-1, ContentServer.extractRetryAfterMillis("HTTP/1.1 503 Service Unavailable\r\nRetry-After: soon\r\n"));
+    }
+
+    @Test
+    void testBackoffDelayIsJitteredAndCapped() {
+        for (int attempt = 0; attempt < 5; attempt++) {
+            long maxDelay = 1000L << attempt;
+            long delay = ContentServer.backoffDelayMillis(1000, attempt);
+            assertTrue(delay >= maxDelay / 2 && delay <= maxDelay, "Delay " + delay + " out of range for attempt " + attempt);
+        }
+        assertTrue(ContentServer.backoffDelayMillis(5000, 30) <= 60000, "Delay should be capped at 60 seconds");
+    }
+
+    @Test
+    void testNoImmediateRetryWhenServerIsBusy() throws IOException {
+        when(mockInputStream.readUTF()).thenReturn("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 0\r\n");
+        boolean result = ContentServer.sendPutRequestWithRetries(mockOutputStream, mockInputStream, "data/inputData.txt", 3);
+
+        assertFalse(result);
+        verify(mockOutputStream, times(1)).writeUTF(anyString()); // no retry on the rejected connection
+    }
+
+    @Test
+    void testBatchPutRequestFormat() throws IOException {
+        ContentServer.sendBatchPutRequest(mockOutputStream, List.of("data/inputData.txt", "data/inputData2.txt"));
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(mockOutputStream).writeUTF(captor.capture());
+        String body = captor.getValue().substring(captor.getValue().indexOf("\r\n\r\n") + 4).trim();
+
+        List<String> records = JSONParser.splitJsonArray(body);
+        assertNotNull(records, "The body should be a JSON array");
+        assertEquals(2, records.size());
+        assertTrue(records.get(0).contains("IDS60901"));
+    }
+
+    @Test
+    void testAssignInputFilesToTheShardOfTheirStation() throws IOException {
+        HashRing ring = new HashRing(List.of("a:4567", "b:4567", "c:4567"));
+        Map<String, List<String>> filesByShard =
+                ContentServer.assignInputFiles(ring, List.of("data/inputData.txt", "data/inputData2.txt"));
+
+        int files = 0;
+        for (Map.Entry<String, List<String>> shard : filesByShard.entrySet()) {
+            for (String inputFilePath : shard.getValue()) {
+                String stationId = JSONParser.extractId(JSONParser.convertFileToJson(inputFilePath));
+                assertEquals(ring.ownerOf(stationId), shard.getKey(), "A station is sent to the shard that owns it");
+                files++;
+            }
+        }
+        assertEquals(2, files);
+        assertEquals(List.of("data/inputData.txt", "data/inputData2.txt"),
+                ContentServer.assignInputFiles(new HashRing(List.of("a:4567")), List.of("data/inputData.txt", "data/inputData2.txt")).get("a:4567"));
+        assertThrows(IOException.class, () -> ContentServer.assignInputFiles(ring, List.of("data/emptyFile.txt")));
+    }
+
+    /**
+     * Starts a server that declines the framing negotiation and answers every PUT with the given response.
+     */
+    private static ServerSocket startFakeServer(String response, AtomicInteger connections, AtomicInteger puts) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread handler = new Thread(() -> {
+                        try (socket; DataInputStream in = new DataInputStream(socket.getInputStream());
+                             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                            in.readUTF();
+                            out.writeUTF("HTTP/1.1 400 Bad Request\r\n\r\n");
+                            while (true) {
+                                in.readUTF();
+                                puts.incrementAndGet();
+                                out.writeUTF(response);
+                            }
+                        } catch (IOException e) {
+                            // closed by the client or the test
+                        }
+                    });
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    @Test
+    void testSendWithFailoverSkipsABackupAndReusesTheConnection() throws IOException, InterruptedException {
+        AtomicInteger backupPuts = new AtomicInteger();
+        AtomicInteger primaryConnections = new AtomicInteger();
+        AtomicInteger primaryPuts = new AtomicInteger();
+        try (ServerSocket backup = startFakeServer("HTTP/1.1 503 Service Unavailable\r\n\r\nThis server is a backup.\n",
+                new AtomicInteger(), backupPuts);
+             ServerSocket primary = startFakeServer("HTTP/1.1 200 OK\r\n\r\n", primaryConnections, primaryPuts);
+             FailoverConnection connection = new FailoverConnection(
+                     List.of("localhost:" + backup.getLocalPort(), "localhost:" + primary.getLocalPort()),
+                     ContentServer::handshake)) {
+            assertTrue(ContentServer.sendWithFailover(connection, List.of("data/inputData.txt"), 3, 1000));
+            assertEquals(1, backupPuts.get(), "The backup rejects the update");
+            assertEquals(1, primaryPuts.get(), "The update is sent again to the next endpoint");
+
+            assertTrue(ContentServer.sendWithFailover(connection, List.of("data/inputData.txt"), 3, 1000));
+            assertEquals(2, primaryPuts.get());
+            assertEquals(1, primaryConnections.get(), "The connection is kept open between updates");
+        }
+    }
+
+    @Test
+    void testSendWithFailoverReconnectsAfterTheConnectionBreaks() throws IOException, InterruptedException {
+        AtomicInteger connections = new AtomicInteger();
+        AtomicInteger puts = new AtomicInteger();
+        try (ServerSocket server = startFakeServer("HTTP/1.1 200 OK\r\n\r\n", connections, puts);
+             FailoverConnection connection = new FailoverConnection(List.of("localhost:" + server.getLocalPort()),
+                     ContentServer::handshake)) {
+            assertTrue(ContentServer.sendWithFailover(connection, List.of("data/inputData.txt"), 3, 1000));
+            connection.getInput().close(); // the connection breaks between two updates
+
+            assertTrue(ContentServer.sendWithFailover(connection, List.of("data/inputData.txt"), 3, 1000));
+            assertEquals(2, connections.get());
+            assertEquals(2, puts.get());
+        }
+    }
 }
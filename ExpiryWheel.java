@@ -0,0 +1,138 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * ExpiryWheel, a hashed timing wheel that finds the connections that have been inactive for longer than a timeout.
+ * Touching a connection only records the time of its last message, so it costs O(1) and never moves the timer.
+ * The wheel has one slot per tick; advancing it only visits the slots whose tick has passed, and a timer found there
+ * either expires or, if its connection was touched in the meantime, is moved to the slot of its new deadline.
+ * A cleanup therefore costs O(expired + touched) instead of a scan of every connection.
+ * Connections expire at most one tick after their deadline.
+ */
+public class ExpiryWheel {
+    private final long timeoutMillis;
+    private final long tickMillis;
+    private final ArrayDeque<Timer>[] slots;
+    private final int mask;
+    private final Map<Long, Timer> timers = new ConcurrentHashMap<>();
+    private final Queue<Timer> pendingTimers = new ConcurrentLinkedQueue<>();
+    private long currentTick; // only used by advance
+
+    /**
+     * ExpiryWheel Constructor.
+     *
+     * @param timeoutMillis The inactivity after which a connection expires.
+     * @param tickMillis The duration of one slot of the wheel, the precision of the expiry.
+     * @param startMillis The current time.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ExpiryWheel(long timeoutMillis, long tickMillis, long startMillis) {
+        if (timeoutMillis <= 0 || tickMillis <= 0) {
+            throw new IllegalArgumentException("Timeout and tick must be positive: " + timeoutMillis + ", " + tickMillis);
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+        // Enough slots for every deadline to land within one turn of the wheel
+        int slotCount = Integer.highestOneBit((int) Math.min(1 << 20, timeoutMillis / tickMillis + 2)) << 1;
+        this.slots = new ArrayDeque[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.mask = slotCount - 1;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Records activity on a connection, registering it if it is not known yet.
+     *
+     * @param key The ID of the connection.
+     * @param nowMillis The current time.
+     */
+    public void touch(long key, long nowMillis) {
+        Timer timer = timers.get(key);
+        while (true) {
+            if (timer == null) {
+                Timer created = new Timer(key, nowMillis);
+                timer = timers.putIfAbsent(key, created);
+                if (timer == null) {
+                    pendingTimers.add(created); // placed in its slot by the next advance
+                    return;
+                }
+            }
+            synchronized (timer) {
+                if (!timer.expired) {
+                    timer.lastTouchMillis = Math.max(timer.lastTouchMillis, nowMillis);
+                    return;
+                }
+            }
+            // The connection expired just before this message, start a new timer for it
+            timers.remove(key, timer);
+            timer = null;
+        }
+    }
+
+    /**
+     * Advances the wheel to the given time and removes the connections whose timeout has passed.
+     *
+     * @param nowMillis The current time.
+     * @return The IDs of the expired connections.
+     */
+    public synchronized List<Long> advance(long nowMillis) {
+        List<Long> expired = new ArrayList<>();
+        Timer timer;
+        while ((timer = pendingTimers.poll()) != null) {
+            schedule(timer, currentTick);
+        }
+        long targetTick = nowMillis / tickMillis;
+        for (; currentTick <= targetTick; currentTick++) {
+            ArrayDeque<Timer> slot = slots[(int) (currentTick & mask)];
+            // Timers moved back into this slot are appended behind the ones due now
+            for (int due = slot.size(); due > 0; due--) {
+                timer = slot.poll();
+                synchronized (timer) {
+                    timer.expired = nowMillis - timer.lastTouchMillis > timeoutMillis;
+                }
+                if (timer.expired) {
+                    timers.remove(timer.key, timer);
+                    expired.add(timer.key);
+                } else {
+                    schedule(timer, currentTick + 1);
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Gets the number of connections being tracked.
+     *
+     * @return The number of connections.
+     */
+    public int size() {
+        return timers.size();
+    }
+
+    private void schedule(Timer timer, long earliestTick) {
+        long deadlineTick = (timer.lastTouchMillis + timeoutMillis + 1) / tickMillis;
+        slots[(int) (Math.max(deadlineTick, earliestTick) & mask)].add(timer);
+    }
+
+    /**
+     * Timer, the last activity of one connection.
+     */
+    private static final class Timer {
+        final long key;
+        volatile long lastTouchMillis;
+        boolean expired; // guarded by the timer's monitor
+
+        Timer(long key, long lastTouchMillis) {
+            this.key = key;
+            this.lastTouchMillis = lastTouchMillis;
+        }
+    }
+}
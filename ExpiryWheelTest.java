@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryWheelTest {
+
+    @Test
+    void testExpiresAfterTimeout() {
+        ExpiryWheel wheel = new ExpiryWheel(30_000, 1_000, 0);
+        wheel.touch(1, 0);
+        wheel.touch(2, 10_000);
+
+        assertEquals(List.of(), wheel.advance(30_000), "The timeout has not passed yet");
+        assertEquals(List.of(1L), wheel.advance(31_500));
+        assertEquals(List.of(), wheel.advance(35_000));
+        assertEquals(List.of(2L), wheel.advance(41_500));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testTouchPostponesExpiry() {
+        ExpiryWheel wheel = new ExpiryWheel(30_000, 1_000, 0);
+        wheel.touch(1, 0);
+        wheel.advance(5_000);
+        wheel.touch(1, 20_000);
+
+        assertEquals(List.of(), wheel.advance(31_500), "A touched connection should be moved to its new deadline");
+        assertEquals(List.of(1L), wheel.advance(51_500));
+    }
+
+    @Test
+    void testTouchAfterExpiryRegistersAgain() {
+        ExpiryWheel wheel = new ExpiryWheel(30_000, 1_000, 0);
+        wheel.touch(1, 0);
+        assertEquals(List.of(1L), wheel.advance(40_000));
+
+        wheel.touch(1, 40_000);
+        assertEquals(1, wheel.size());
+        assertEquals(List.of(1L), wheel.advance(71_500));
+    }
+
+    @Test
+    void testDeadlinesBeyondOneTurnOfTheWheel() {
+        ExpiryWheel wheel = new ExpiryWheel(30_000, 1_000, 0);
+        wheel.touch(1, 0);
+        for (long now = 1_000; now <= 200_000; now += 1_000) {
+            wheel.touch(1, now - 500); // stays active across several turns
+            assertEquals(List.of(), wheel.advance(now));
+        }
+        assertEquals(List.of(1L), wheel.advance(231_000));
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * FailoverConnection, a connection to one of several endpoints serving the same data, such as a primary
+ * AggregationServer and its backups, which is kept open between requests and replaced when it fails.
+ * Each endpoint tracks its own health: after a failure it is not tried again before an exponential backoff
+ * delay (50 ms doubling up to 5 seconds, jittered), and a successful request clears it. When the connection
+ * fails, the endpoints that are not backing off are tried at once in the order of the list, so a client
+ * fails over within milliseconds and comes back to a restarted server as soon as it accepts connections.
+ *
+ * The connection is used by one thread; {@link #getOutput()} may be read by another one, such as a heartbeat.
+ */
+public class FailoverConnection implements Closeable {
+    static final long INITIAL_BACKOFF_MILLIS = 50;
+    static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final Handshake handshake;
+    private Endpoint current;
+    private Socket socket;
+    private DataInputStream in;
+    private volatile DataOutputStream out;
+    private int framingVersion = MessageFraming.LEGACY_VERSION;
+
+    /**
+     * Handshake, what a client sends on every new connection before its requests, such as the framing negotiation.
+     */
+    interface Handshake {
+        /**
+         * Performs the handshake on a new connection.
+         *
+         * @param out The stream to the server.
+         * @param in The stream from the server.
+         * @return The framing version to use on the connection.
+         * @throws IOException if the handshake fails, the endpoint is then treated as failed.
+         */
+        int perform(DataOutputStream out, DataInputStream in) throws IOException;
+    }
+
+    /**
+     * FailoverConnection Constructor. Does not connect yet, see {@link #connect(long)}.
+     *
+     * @param endpoints The endpoints as "hostname:port", in order of preference.
+     * @param handshake The handshake performed on every new connection.
+     * @throws IllegalArgumentException if the list is empty or an endpoint has no valid port.
+     */
+    public FailoverConnection(List<String> endpoints, Handshake handshake) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No endpoint given");
+        }
+        for (String endpoint : endpoints) {
+            this.endpoints.add(new Endpoint(endpoint));
+        }
+        this.handshake = handshake;
+    }
+
+    /**
+     * Splits a list of endpoints such as "host1:4567,host2:4567". The endpoints of a shard are separated
+     * by "|" instead, since "," separates the shards, such as "host1:4567|host2:4567,host3:4567".
+     *
+     * @param list The endpoints.
+     * @return The endpoints as "hostname:port".
+     */
+    static List<String> split(String list) {
+        List<String> endpoints = new ArrayList<>();
+        for (String endpoint : list.split("[,|]")) {
+            if (!endpoint.isBlank()) {
+                endpoints.add(endpoint.trim());
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * Computes how long an endpoint is not tried again after failing.
+     * The delay doubles with every failure (capped at 5 seconds) and is randomised between half and all of it,
+     * so clients that lost the same server do not all come back at the same time.
+     *
+     * @param failures The number of failures in a row, at least 1.
+     * @return The delay in milliseconds.
+     */
+    static long backoffDelayMillis(int failures) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(Math.max(failures - 1, 0), 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Makes sure the connection is open, connecting to the first endpoint that is not backing off and accepts it.
+     * Does nothing if the connection is already open.
+     *
+     * @param timeoutMillis How long to wait for an endpoint to come back when every endpoint fails;
+     *                      0 tries the endpoints that are not backing off once.
+     * @return true if the connection is open.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean connect(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Math.min(timeoutMillis, Long.MAX_VALUE / 2);
+        while (socket == null) {
+            long nextAttempt = Long.MAX_VALUE;
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.retryAt <= System.currentTimeMillis() && open(endpoint)) {
+                    return true;
+                }
+                nextAttempt = Math.min(nextAttempt, endpoint.retryAt);
+            }
+            if (nextAttempt > deadline) {
+                return false;
+            }
+            Thread.sleep(Math.max(1, nextAttempt - System.currentTimeMillis()));
+        }
+        return true;
+    }
+
+    private boolean open(Endpoint endpoint) {
+        Socket candidate = new Socket();
+        try {
+            candidate.connect(new InetSocketAddress(endpoint.host, endpoint.port), CONNECT_TIMEOUT_MILLIS);
+            candidate.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream candidateIn = new DataInputStream(new BufferedInputStream(candidate.getInputStream()));
+            DataOutputStream candidateOut = new DataOutputStream(new BufferedOutputStream(candidate.getOutputStream()));
+            framingVersion = handshake.perform(candidateOut, candidateIn);
+            socket = candidate;
+            in = candidateIn;
+            out = candidateOut;
+            current = endpoint;
+            System.out.println("Connected to " + endpoint);
+            return true;
+        } catch (IOException e) {
+            closeQuietly(candidate);
+            long delay = endpoint.failed();
+            System.err.println("Error: Unable to connect to " + endpoint + " - " + e.getMessage() +
+                    ", not retrying it for " + delay + " ms");
+            return false;
+        }
+    }
+
+    /**
+     * Closes the connection after it failed and holds its endpoint back, so the next {@link #connect}
+     * fails over to another endpoint.
+     */
+    public void markFailed() {
+        if (current != null) {
+            long delay = current.failed();
+            System.err.println("Connection to " + current + " failed, not retrying it for " + delay + " ms");
+        }
+        disconnect();
+    }
+
+    /**
+     * Records a successful request, which clears the failures of the endpoint.
+     */
+    public void markHealthy() {
+        if (current != null) {
+            current.failures = 0;
+            current.retryAt = 0;
+        }
+    }
+
+    /**
+     * Closes the connection without holding its endpoint back, such as after the server asked to come back later.
+     */
+    public void disconnect() {
+        out = null;
+        in = null;
+        current = null;
+        if (socket != null) {
+            closeQuietly(socket);
+            socket = null;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * Closes the connection.
+     */
+    @Override
+    public void close() {
+        disconnect();
+    }
+
+    /**
+     * Gets the stream from the server.
+     *
+     * @return The stream, or null if the connection is not open.
+     */
+    public DataInputStream getInput() {
+        return in;
+    }
+
+    /**
+     * Gets the stream to the server.
+     *
+     * @return The stream, or null if the connection is not open.
+     */
+    public DataOutputStream getOutput() {
+        return out;
+    }
+
+    /**
+     * Gets the framing version negotiated by the handshake of the open connection.
+     *
+     * @return The framing version.
+     */
+    public int getFramingVersion() {
+        return framingVersion;
+    }
+
+    /**
+     * Gets the host name of the endpoint the connection is open to.
+     *
+     * @return The host name, or null if the connection is not open.
+     */
+    public String getHost() {
+        return current == null ? null : current.host;
+    }
+
+    /**
+     * Gets the port of the endpoint the connection is open to.
+     *
+     * @return The port, or -1 if the connection is not open.
+     */
+    public int getPort() {
+        return current == null ? -1 : current.port;
+    }
+
+    /**
+     * Endpoint, an address and its recent failures.
+     */
+    static final class Endpoint {
+        final String host;
+        final int port;
+        int failures;
+        long retryAt; // epoch milliseconds before which the endpoint is not tried
+
+        Endpoint(String endpoint) {
+            int colon = endpoint.lastIndexOf(':');
+            try {
+                this.host = endpoint.substring(0, colon);
+                this.port = Integer.parseInt(endpoint.substring(colon + 1));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid endpoint, expected hostname:port: " + endpoint);
+            }
+        }
+
+        long failed() {
+            long delay = backoffDelayMillis(++failures);
+            retryAt = System.currentTimeMillis() + delay;
+            return delay;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FailoverConnectionTest {
+    // Connections are accepted by the backlog of a listening socket, the handshake sends nothing
+    private static final FailoverConnection.Handshake NO_HANDSHAKE = (out, in) -> MessageFraming.LEGACY_VERSION;
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    void testSplitEndpoints() {
+        assertEquals(List.of("a:4567", "b:4568"), FailoverConnection.split("a:4567, b:4568"));
+        assertEquals(List.of("a:4567", "b:4567", "c:4567"), FailoverConnection.split("a:4567|b:4567,c:4567"));
+        assertThrows(IllegalArgumentException.class, () -> new FailoverConnection(List.of("localhost"), NO_HANDSHAKE));
+        assertThrows(IllegalArgumentException.class, () -> new FailoverConnection(List.of(), NO_HANDSHAKE));
+    }
+
+    @Test
+    void testBackoffDelayDoublesAndIsCapped() {
+        for (int i = 0; i < 100; i++) {
+            long first = FailoverConnection.backoffDelayMillis(1);
+            assertTrue(first >= 25 && first <= 50, "The first delay is jittered between 25 and 50 ms: " + first);
+            long third = FailoverConnection.backoffDelayMillis(3);
+            assertTrue(third >= 100 && third <= 200, "The delay doubles with each failure: " + third);
+            long capped = FailoverConnection.backoffDelayMillis(40);
+            assertTrue(capped >= FailoverConnection.MAX_BACKOFF_MILLIS / 2 && capped <= FailoverConnection.MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    @Test
+    void testFailsOverToTheNextEndpoint() throws IOException, InterruptedException {
+        int down = closedPort();
+        try (ServerSocket up = new ServerSocket(0);
+             FailoverConnection connection = new FailoverConnection(
+                     List.of("localhost:" + down, "localhost:" + up.getLocalPort()), NO_HANDSHAKE)) {
+            long start = System.nanoTime();
+            assertTrue(connection.connect(0));
+            assertTrue(System.nanoTime() - start < 1_000_000_000L, "A refused endpoint is skipped at once");
+            assertEquals(up.getLocalPort(), connection.getPort());
+            assertNotNull(connection.getOutput());
+
+            connection.markFailed();
+            assertNull(connection.getOutput());
+            assertEquals(-1, connection.getPort());
+            assertFalse(connection.connect(0), "Both endpoints are backing off");
+            assertTrue(connection.connect(FailoverConnection.MAX_BACKOFF_MILLIS));
+            assertEquals(up.getLocalPort(), connection.getPort());
+        }
+    }
+
+    @Test
+    void testReconnectsAsSoonAsTheServerIsBack() throws IOException, InterruptedException {
+        ServerSocket server = new ServerSocket(0);
+        int port = server.getLocalPort();
+        try (FailoverConnection connection = new FailoverConnection(List.of("localhost:" + port), NO_HANDSHAKE)) {
+            assertTrue(connection.connect(0));
+            connection.markHealthy();
+
+            server.close(); // the server restarts
+            connection.markFailed();
+            assertFalse(connection.connect(0));
+            server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(port));
+
+            long start = System.nanoTime();
+            assertTrue(connection.connect(10000));
+            assertTrue(System.nanoTime() - start < 1_000_000_000L, "Two failures only hold the endpoint back briefly");
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void testFailedHandshakeHoldsTheEndpointBack() throws IOException, InterruptedException {
+        try (ServerSocket server = new ServerSocket(0);
+             FailoverConnection connection = new FailoverConnection(List.of("localhost:" + server.getLocalPort()),
+                     (out, in) -> {
+                         throw new IOException("Rejected");
+                     })) {
+            assertFalse(connection.connect(0));
+            assertNull(connection.getInput());
+        }
+    }
+}
@@ -1,13 +1,27 @@
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * GETClient, connect to AggregationServer and get data.
  */
 public class GETClient {
+    private static final int SHARD_TIMEOUT_MILLIS = 5000;
     private static final LamportClock lamportClock = new LamportClock();
     private static String sentRequest;
     private static boolean heartBeating;
+    private static int framingVersion = MessageFraming.LEGACY_VERSION;
 
     /**
      * Sends a GET request to the AggregationServer for weather data.
@@ -18,16 +32,55 @@ public class GETClient {
      * @throws IOException if an I/O error occurs during communication.
      */
     public static void sendGetRequest(DataOutputStream out, String host, int port) throws IOException {
-        String request = "GET /weather HTTP/1.1\r\n" +
+        sendGetRequest(out, host, port, "/weather");
+    }
+
+    /**
+     * Sends a GET request for the given path to the AggregationServer, "/weather" for the latest weather data
+     * or "/weather/all" for the data of every station.
+     *
+     * @param out   The DataOutputStream object used to send data to the AggregationServer.
+     * @param host  The hostname or IP address of the AggregationServer.
+     * @param port  The port number on which the AggregationServer is listening.
+     * @param path  The path of the request.
+     * @throws IOException if an I/O error occurs during communication.
+     */
+    public static void sendGetRequest(DataOutputStream out, String host, int port, String path) throws IOException {
+        String request = "GET " + path + " HTTP/1.1\r\n" +
                 "Host: " + host + ":" + port + "\r\n" +
                 "Lamport-Clock: " + lamportClock.getValue() + "\r\n";
 
         sentRequest = request;
-        out.writeUTF(request);
-        out.flush();
+        MessageFraming.writeMessage(out, framingVersion, request);
         lamportClock.increment();
     }
 
+    /**
+     * Gets the Lamport clock value the next GET request is sent with.
+     *
+     * @return The current value of the Lamport clock of the client.
+     */
+    static long getLamportClock() {
+        return lamportClock.getValue();
+    }
+
+    /**
+     * Builds the path of a GET request for given stations, such as "/weather?id=IDS60901,IDS60902".
+     *
+     * @param stationIds The ids of the stations, at least one.
+     * @return The path of the request, with URL-encoded ids.
+     */
+    static String stationsPath(List<String> stationIds) {
+        StringBuilder path = new StringBuilder("/weather?id=");
+        for (int i = 0; i < stationIds.size(); i++) {
+            if (i > 0) {
+                path.append(',');
+            }
+            path.append(URLEncoder.encode(stationIds.get(i), StandardCharsets.UTF_8));
+        }
+        return path.toString();
+    }
+
     /**
      * Returns the last sent GET request as a string.
      *
@@ -42,24 +95,153 @@ public class GETClient {
      *
      * @param in The DataInputStream object used to receive data from the AggregationServer.
      * @return The JSON data from the AggregationServer's response, or null if no valid data is found.
+     *         The response to GET /weather/all is a JSON array with one object per station.
      * @throws IOException if an I/O error occurs during reading.
      */
     public static String readServerResponse(DataInputStream in) throws IOException {
-        String response = in.readUTF();
+        String response = MessageFraming.readMessage(in, framingVersion);
         String jsonResponse = extractJsonData(response);
 
         if (jsonResponse == null || jsonResponse.isEmpty()) {
             System.err.println("Error: No JSON data found in the response.");
             return null;
         }
+        printWeatherData(jsonResponse);
+        return jsonResponse;
+    }
 
+    /**
+     * Prints the data of each station of a JSON object or array to standard output, one field per line.
+     *
+     * @param jsonResponse The JSON data received.
+     */
+    static void printWeatherData(String jsonResponse) {
         System.out.println("Received weather data:\n");
-        String data = jsonResponse.substring(1, jsonResponse.length() - 1);
-        String[] pairs = data.split(",");
-        for (String pair : pairs) { //print the data to standard output
-            System.out.println(pair.trim().replaceAll("\"", ""));
+        int objectStart = jsonResponse.indexOf('{');
+        while (objectStart != -1) { //print the data of each station to standard output
+            int objectEnd = jsonResponse.indexOf('}', objectStart);
+            if (objectEnd == -1) {
+                objectEnd = jsonResponse.length();
+            }
+            String data = jsonResponse.substring(objectStart + 1, objectEnd);
+            String[] pairs = data.split(",");
+            for (String pair : pairs) {
+                System.out.println(pair.trim().replaceAll("\"", ""));
+            }
+            objectStart = jsonResponse.indexOf('{', objectEnd);
+            if (objectStart != -1) {
+                System.out.println();
+            }
+        }
+    }
+
+    /**
+     * Gets weather data from a cluster of AggregationServers that each hold the stations a {@link HashRing} assigns
+     * to them. Requests for given stations are only sent to the shards that own them, other requests are sent to
+     * every shard; the shards are queried in parallel and their stations merged. A station is only taken from the
+     * shard that owns it, since a shard that owned it before the shards changed can still hold an old copy.
+     * Without station ids, "/weather" gets the latest station of each shard, since the clocks of the shards
+     * cannot order updates across shards, and "/weather/all" gets the stations of each shard in turn.
+     *
+     * @param ring The shards.
+     * @param path "/weather" or "/weather/all", used when no station ids are given.
+     * @param stationIds The ids of the stations to get, or an empty list.
+     * @return A JSON object if a single station was requested, otherwise a JSON array of the stations found,
+     *         or null if no shard has any of them. Shards that do not answer are reported and skipped.
+     * @throws InterruptedException if the thread is interrupted while waiting for the shards.
+     */
+    static String scatterGather(HashRing ring, String path, List<String> stationIds) throws InterruptedException {
+        Map<String, String> requests = new LinkedHashMap<>(); // the path requested from each shard
+        if (stationIds.isEmpty()) {
+            for (String shard : ring.getNodes()) {
+                requests.put(shard, path);
+            }
+        } else {
+            ring.partition(stationIds).forEach((shard, ids) -> requests.put(shard, stationsPath(ids)));
+        }
+        if (requests.isEmpty()) {
+            return null;
+        }
+        Map<String, String> stations = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(requests.size());
+        try {
+            Map<String, Future<String>> responses = new LinkedHashMap<>();
+            requests.forEach((shard, shardPath) -> responses.put(shard, executor.submit(() -> fetch(shard, shardPath))));
+            for (Map.Entry<String, Future<String>> response : responses.entrySet()) {
+                String json;
+                try {
+                    json = response.getValue().get();
+                } catch (ExecutionException e) {
+                    System.err.println("Error: No response from shard " + response.getKey() + " - " + e.getCause().getMessage());
+                    continue;
+                }
+                List<String> objects = json == null ? null : json.startsWith("[") ? JSONParser.splitJsonArray(json) : List.of(json);
+                if (objects == null) {
+                    continue;
+                }
+                for (String object : objects) {
+                    String stationId = JSONParser.extractId(object);
+                    if (stationId != null && response.getKey().equals(ring.ownerOf(stationId))) {
+                        stations.putIfAbsent(stationId, object.trim());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        List<String> merged = new ArrayList<>(stations.size());
+        if (stationIds.isEmpty()) {
+            merged.addAll(stations.values());
+        } else {
+            for (String stationId : stationIds) { // in the order they were requested
+                if (stations.containsKey(stationId)) {
+                    merged.add(stations.get(stationId));
+                }
+            }
+            if (stationIds.size() == 1 && merged.size() == 1) {
+                return merged.get(0);
+            }
+        }
+        return merged.isEmpty() ? null : "[" + String.join(",", merged) + "]";
+    }
+
+    /**
+     * Sends one GET request to a shard on a new connection, trying the endpoints of the shard in turn.
+     *
+     * @param shard The endpoints of the shard as "hostname:port", separated by "|".
+     * @param path The path of the request.
+     * @return The JSON data of the response, or null if it has none, such as a 404.
+     * @throws IOException if no endpoint of the shard can be reached or answers in time.
+     */
+    static String fetch(String shard, String path) throws IOException {
+        IOException failure = null;
+        for (String endpoint : FailoverConnection.split(shard)) {
+            try {
+                return fetchFrom(endpoint, path);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new IOException("No endpoint for shard " + shard);
+    }
+
+    /**
+     * Sends one GET request to an endpoint on a new connection, with the framing negotiated for that connection.
+     */
+    private static String fetchFrom(String endpoint, String path) throws IOException {
+        String host = endpoint.substring(0, endpoint.lastIndexOf(':'));
+        int port = Integer.parseInt(endpoint.substring(endpoint.lastIndexOf(':') + 1));
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), SHARD_TIMEOUT_MILLIS);
+            socket.setSoTimeout(SHARD_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            int version = MessageFraming.negotiate(out, in);
+            MessageFraming.writeMessage(out, version, "GET " + path + " HTTP/1.1\r\n" +
+                    "Host: " + host + ":" + port + "\r\n" +
+                    "Lamport-Clock: " + lamportClock.tickAndGet() + "\r\n");
+            return extractJsonData(MessageFraming.readMessage(in, version));
         }
-        return jsonResponse;
     }
 
     /**
@@ -69,23 +251,64 @@ public class GETClient {
      * @return The JSON data as a string, or null if no JSON is found.
      */
     private static String extractJsonData(String response) {
-        int jsonStartIndex = response.indexOf("{");
+        int arrayStartIndex = response.indexOf("[{");
+        int jsonStartIndex = arrayStartIndex != -1 ? arrayStartIndex : response.indexOf("{");
         if (jsonStartIndex == -1) {
             return null;
         }
         return response.substring(jsonStartIndex).trim(); // Return the JSON part
     }
 
+    /**
+     * Negotiates the chunked framing with the AggregationServer, so responses larger than 64 KB can be received.
+     * Keeps the legacy framing if the AggregationServer does not support it.
+     *
+     * @param out The DataOutputStream object used to send data to the AggregationServer.
+     * @param in The DataInputStream object used to receive data from the AggregationServer.
+     * @throws IOException if an I/O error occurs during the negotiation.
+     */
+    static void negotiateFraming(DataOutputStream out, DataInputStream in) throws IOException {
+        framingVersion = MessageFraming.negotiate(out, in);
+    }
+
+    /**
+     * Negotiates the framing on a new connection of a {@link FailoverConnection}, see {@link #negotiateFraming}.
+     *
+     * @param out The DataOutputStream object used to send data to the AggregationServer.
+     * @param in The DataInputStream object used to receive data from the AggregationServer.
+     * @return The framing version to use on the connection.
+     * @throws IOException if an I/O error occurs during the negotiation.
+     */
+    static int handshake(DataOutputStream out, DataInputStream in) throws IOException {
+        negotiateFraming(out, in);
+        return framingVersion;
+    }
+
     /**
      * Starts a heartbeat thread that sends a periodic "HEARTBEAT" every 10 seconds to the AggregationServer.
      *
      * @param out The DataOutputStream object used to send data to the AggregationServer.
      */
     static void startHeartbeat(DataOutputStream out) {
+        startHeartbeat(() -> out);
+    }
+
+    /**
+     * Starts a heartbeat thread that sends a periodic "HEARTBEAT" every 10 seconds on the current connection
+     * to the AggregationServer, which changes when the client reconnects.
+     *
+     * @param output Gets the DataOutputStream of the current connection, null while the client is not connected.
+     */
+    static void startHeartbeat(Supplier<DataOutputStream> output) {
         Thread heartbeat = new Thread(() -> {
             try {
                 while (true) {
-                    sendHeartbeat(out);
+                    DataOutputStream out = output.get();
+                    if (out != null) {
+                        sendHeartbeat(out);
+                    } else {
+                        heartBeating = false;
+                    }
                     Thread.sleep(10000);
                 }
             } catch (InterruptedException e) {
@@ -103,8 +326,7 @@ public class GETClient {
     private static void sendHeartbeat(DataOutputStream out) {
         try {
             String heartbeatMessage = "HEARTBEAT";
-            out.writeUTF(heartbeatMessage);
-            out.flush();
+            MessageFraming.writeMessage(out, framingVersion, heartbeatMessage);
             heartBeating = true;
         } catch (Exception e) {
             heartBeating = false;
@@ -124,33 +346,85 @@ public class GETClient {
     /**
      * The main method that connects to the AggregationServer, sends GET requests, and handles the AggregationServer's response.
      *
-     * @param args Command-line arguments containing the AggregationServer URL in the format "hostname:port".
+     * @param args Command-line arguments containing the AggregationServer URL in the format "hostname:port",
+     *             optionally followed by "--all" to get the data of every station instead of the latest data,
+     *             or by the ids of the stations to get. "--shards=HOST:PORT,HOST:PORT..." replaces the URL
+     *             to get the data from a cluster of sharded AggregationServers, see {@link #scatterGather}.
+     *             The URL can list several endpoints of the same data, such as a primary and its backups,
+     *             separated by commas; the endpoints of one shard are separated by "|". The client keeps its
+     *             connection open and fails over to the next endpoint when it breaks, see {@link FailoverConnection}.
      * @throws IOException if an I/O error occurs during communication.
      */
     public static void main(String[] args) throws IOException {
-        if (args.length < 1) {
-            System.err.println("Usage: java GETClient <servername:portnumber>");
+        List<String> arguments = new ArrayList<>();
+        HashRing ring = null;
+        for (String arg : args) {
+            if (arg.startsWith("--shards=")) {
+                ring = new HashRing(List.of(arg.substring("--shards=".length()).split(",")));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        if (arguments.isEmpty() && ring == null) {
+            System.err.println("Usage: java GETClient <servername:portnumber[,servername:portnumber...] | " +
+                    "--shards=HOST:PORT[|HOST:PORT...],HOST:PORT...> [--all | <station id>...]");
             System.exit(1);
         }
-        String url = args[0];
-        String serverName = url.split(":")[0];
-        int portNumber = Integer.parseInt(url.split(":")[1]);
-
-        //initialize a socket act as GETClient
-        try (Socket clientSocket = new Socket(serverName, portNumber);
-             DataInputStream in = new DataInputStream(clientSocket.getInputStream());
-             DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream())) {
-
-            startHeartbeat(out);
-
+        String url = ring == null ? arguments.remove(0) : null;
+        String path = "/weather";
+        List<String> stationIds = List.of();
+        if (!arguments.isEmpty()) {
+            if (arguments.get(0).equals("--all")) {
+                path = "/weather/all";
+            } else {
+                stationIds = arguments;
+                path = stationsPath(stationIds);
+            }
+        }
+        if (ring != null) {
+            try {
+                while (true) {
+                    String jsonResponse = scatterGather(ring, path, stationIds);
+                    if (jsonResponse == null) {
+                        System.err.println("Error: No JSON data found in the responses of the shards.");
+                    } else {
+                        printWeatherData(jsonResponse);
+                    }
+                    Thread.sleep(10000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        FailoverConnection connection;
+        try {
+            connection = new FailoverConnection(FailoverConnection.split(url), GETClient::handshake);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        startHeartbeat(connection::getOutput);
+        try {
             // Keep the connection open and send GET requests periodically
             while (true) {
-                sendGetRequest(out, serverName, portNumber);
-                readServerResponse(in);
+                connection.connect(Long.MAX_VALUE); // waits for a server as long as it takes
+                framingVersion = connection.getFramingVersion();
+                try {
+                    sendGetRequest(connection.getOutput(), connection.getHost(), connection.getPort(), path);
+                    readServerResponse(connection.getInput());
+                    connection.markHealthy();
+                } catch (IOException e) {
+                    System.err.println("Error: Lost the connection to " + connection.getHost() + " on port " +
+                            connection.getPort() + " - " + e.getMessage());
+                    connection.markFailed();
+                    continue; // fail over and send the request again at once
+                }
                 Thread.sleep(10000);
             }
-        } catch (IOException | InterruptedException e) {
-            System.err.println("Error: Unable to connect to " + serverName + " on port " + portNumber + " - " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
@@ -1,5 +1,11 @@
 import org.junit.jupiter.api.*;
 import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -34,18 +40,25 @@ class GETClientTest {
 
     @Test
     void testSendGetRequest() throws IOException {
+        long lamport = GETClient.getLamportClock(); // earlier tests may have sent requests already
         GETClient.sendGetRequest(mockOutput, "localhost", 4567);
 
         String actualRequest = client.getRequest();
         String expectedRequest = "GET /weather HTTP/1.1\r\n" +
                 "Host: localhost:4567\r\n" +
-                "Lamport-Clock: 0\r\n";
+                "Lamport-Clock: " + lamport + "\r\n";
 
         assertEquals(expectedRequest, actualRequest);
         verify(mockOutput).writeUTF(expectedRequest);
         verify(mockOutput).flush();
     }
 
+    @Test
+    void testStationsPath() {
+        assertEquals("/weather?id=IDS60901", GETClient.stationsPath(java.util.List.of("IDS60901")));
+        assertEquals("/weather?id=A%2CB,C+D", GETClient.stationsPath(java.util.List.of("A,B", "C D")));
+    }
+
     @Test
     void testReadServerResponse() throws IOException {
         String mockResponse = "2024-10-03 16:01:03 [Thread ID: 27] { \"id\": \"IDS60901\", \"name\": \"Atlantic\", \"state\": \"SEA\", \"time_zone\": \"CST\" }";
@@ -93,4 +106,76 @@ class GETClientTest {
 
         assertFalse(client.isHeartBeating(), "Heartbeat should be false after a connection error");
     }
+
+    /**
+     * Starts a shard that answers every GET with the body of its path, with the legacy framing, and records the paths.
+     */
+    private static ServerSocket startFakeShard(Map<String, String> bodies, List<String> paths) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept();
+                     DataInputStream in = new DataInputStream(socket.getInputStream());
+                     DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                    in.readUTF(); // framing negotiation, declined
+                    out.writeUTF("HTTP/1.1 400 Bad Request\r\n\r\n");
+                    String request = in.readUTF();
+                    String path = request.substring(4, request.indexOf(' ', 4));
+                    paths.add(path);
+                    String body = bodies.get(path);
+                    out.writeUTF(body == null ? "HTTP/1.1 404 Not Found\r\n\r\nNo weather data available.\n"
+                            : "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n\r\n" + body);
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    @Test
+    void testScatterGatherMergesTheStationsOfTheirOwners() throws IOException, InterruptedException {
+        List<String> pathsA = new CopyOnWriteArrayList<>();
+        List<String> pathsB = new CopyOnWriteArrayList<>();
+        Map<String, String> bodiesA = new ConcurrentHashMap<>();
+        Map<String, String> bodiesB = new ConcurrentHashMap<>();
+        try (ServerSocket shardA = startFakeShard(bodiesA, pathsA);
+             ServerSocket shardB = startFakeShard(bodiesB, pathsB)) {
+            String a = "localhost:" + shardA.getLocalPort();
+            String b = "localhost:" + shardB.getLocalPort();
+            HashRing ring = new HashRing(List.of(a, b));
+            String ownedByA = null;
+            String ownedByB = null;
+            for (int i = 0; ownedByA == null || ownedByB == null; i++) {
+                String stationId = "IDS" + (60900 + i);
+                if (ring.ownerOf(stationId).equals(a)) {
+                    ownedByA = ownedByA == null ? stationId : ownedByA;
+                } else {
+                    ownedByB = ownedByB == null ? stationId : ownedByB;
+                }
+            }
+            String stationA = "{\"id\":\"" + ownedByA + "\",\"air_temp\":1}";
+            String stationB = "{\"id\":\"" + ownedByB + "\",\"air_temp\":2}";
+            String staleB = "{\"id\":\"" + ownedByB + "\",\"air_temp\":-1}"; // left on A by an older ring
+            bodiesA.put("/weather/all", "[" + stationA + "," + staleB + "]");
+            bodiesB.put("/weather/all", "[" + stationB + "]");
+            bodiesA.put(GETClient.stationsPath(List.of(ownedByA)), stationA);
+            bodiesB.put(GETClient.stationsPath(List.of(ownedByB)), stationB);
+
+            String all = GETClient.scatterGather(ring, "/weather/all", List.of());
+            assertEquals(2, JSONParser.splitJsonArray(all).size(), all);
+            assertTrue(all.contains(stationA) && all.contains(stationB), all);
+            assertFalse(all.contains("-1"), "The copy of a shard that does not own the station is ignored");
+
+            pathsA.clear();
+            pathsB.clear();
+            assertEquals(stationB, GETClient.scatterGather(ring, "/weather", List.of(ownedByB)));
+            assertTrue(pathsA.isEmpty(), "A station is only requested from its owner");
+            assertEquals("[" + stationB + "," + stationA + "]",
+                    GETClient.scatterGather(ring, "/weather", List.of(ownedByB, ownedByA)));
+            assertNull(GETClient.scatterGather(ring, "/weather", List.of()), "No shard has a latest station");
+        }
+    }
 }
@@ -0,0 +1,152 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * HashRing, a consistent-hash ring that assigns each station id to one of several AggregationServer shards.
+ * Every shard is placed on the ring at a number of virtual node positions, and a station belongs to the shard
+ * of the first position at or after the hash of its id. Adding a shard only moves the stations that fall just
+ * before its positions to it, and removing one only moves its own stations, to the shards that follow them.
+ * The ring only depends on the set of shards, not on the order in which they were added, so every client given
+ * the same shards routes the same way.
+ */
+public class HashRing {
+    static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int virtualNodes;
+    private final TreeSet<String> nodes = new TreeSet<>();
+    private volatile TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * HashRing Constructor, starts without any shard.
+     *
+     * @param virtualNodes The number of positions of each shard on the ring, at least 1.
+     */
+    public HashRing(int virtualNodes) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+    }
+
+    /**
+     * HashRing Constructor, with the default number of virtual nodes per shard.
+     *
+     * @param nodes The shards, such as "localhost:4567".
+     */
+    public HashRing(Collection<String> nodes) {
+        this(DEFAULT_VIRTUAL_NODES);
+        for (String node : nodes) {
+            addNode(node);
+        }
+    }
+
+    /**
+     * Adds a shard to the ring.
+     *
+     * @param node The shard, such as "localhost:4567".
+     * @return false if the shard was already on the ring.
+     */
+    public synchronized boolean addNode(String node) {
+        if (!nodes.add(node)) {
+            return false;
+        }
+        TreeMap<Long, String> updated = new TreeMap<>(ring);
+        for (int i = 0; i < virtualNodes; i++) {
+            updated.merge(hash(node + "#" + i), node, HashRing::min);
+        }
+        ring = updated;
+        return true;
+    }
+
+    /**
+     * Removes a shard from the ring.
+     *
+     * @param node The shard.
+     * @return false if the shard was not on the ring.
+     */
+    public synchronized boolean removeNode(String node) {
+        if (!nodes.remove(node)) {
+            return false;
+        }
+        TreeMap<Long, String> updated = new TreeMap<>(ring);
+        updated.values().removeIf(node::equals);
+        for (String other : nodes) { // give back the rare positions shared with the removed shard
+            for (int i = 0; i < virtualNodes; i++) {
+                updated.merge(hash(other + "#" + i), other, HashRing::min);
+            }
+        }
+        ring = updated;
+        return true;
+    }
+
+    /**
+     * Two shards whose virtual nodes hash to the same position: the position goes to the smaller name,
+     * whatever the order in which they were added.
+     */
+    private static String min(String a, String b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    /**
+     * Gets the shard that owns a station.
+     *
+     * @param key The id of the station.
+     * @return The shard, or null if the ring is empty.
+     */
+    public String ownerOf(String key) {
+        TreeMap<Long, String> current = ring;
+        if (current.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> owner = current.ceilingEntry(hash(key));
+        return owner != null ? owner.getValue() : current.firstEntry().getValue(); // wrap around
+    }
+
+    /**
+     * Groups stations by the shard that owns them.
+     *
+     * @param keys The ids of the stations.
+     * @return The ids of each shard that owns at least one of them, in the order of the given ids.
+     */
+    public Map<String, List<String>> partition(Collection<String> keys) {
+        Map<String, List<String>> partitions = new LinkedHashMap<>();
+        for (String key : keys) {
+            partitions.computeIfAbsent(ownerOf(key), node -> new ArrayList<>()).add(key);
+        }
+        return partitions;
+    }
+
+    /**
+     * Gets the shards of the ring.
+     *
+     * @return The shards, sorted by name.
+     */
+    public synchronized List<String> getNodes() {
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * Hashes a station id or a virtual node to its position on the ring: FNV-1a over the UTF-8 bytes,
+     * followed by the finalizer of MurmurHash3 so that similar ids such as IDS60901 and IDS60902 spread
+     * over the whole ring.
+     *
+     * @param key The station id or virtual node name.
+     * @return The position.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+
+    private static List<String> stationIds(int count) {
+        List<String> stationIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stationIds.add("IDS" + (60000 + i));
+        }
+        return stationIds;
+    }
+
+    private static Map<String, String> owners(HashRing ring, List<String> stationIds) {
+        Map<String, String> owners = new HashMap<>();
+        for (String stationId : stationIds) {
+            owners.put(stationId, ring.ownerOf(stationId));
+        }
+        return owners;
+    }
+
+    @Test
+    void testEmptyRingHasNoOwner() {
+        assertNull(new HashRing(HashRing.DEFAULT_VIRTUAL_NODES).ownerOf("IDS60901"));
+    }
+
+    @Test
+    void testStationsSpreadOverEveryShard() {
+        HashRing ring = new HashRing(List.of("a:4567", "b:4567", "c:4567", "d:4567"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (String owner : owners(ring, stationIds(10000)).values()) {
+            counts.merge(owner, 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > 1800 && count < 3200, "Each shard should own about a quarter of the stations: " + counts);
+        }
+    }
+
+    @Test
+    void testOwnersDoNotDependOnTheOrderOfTheShards() {
+        HashRing ring = new HashRing(List.of("a:4567", "b:4567", "c:4567"));
+        HashRing reversed = new HashRing(List.of("c:4567", "b:4567", "a:4567"));
+        assertEquals(owners(ring, stationIds(1000)), owners(reversed, stationIds(1000)));
+        assertEquals(List.of("a:4567", "b:4567", "c:4567"), reversed.getNodes());
+    }
+
+    @Test
+    void testAddingAShardOnlyMovesStationsToIt() {
+        List<String> stationIds = stationIds(10000);
+        HashRing ring = new HashRing(List.of("a:4567", "b:4567", "c:4567"));
+        Map<String, String> before = owners(ring, stationIds);
+        assertTrue(ring.addNode("d:4567"));
+        assertFalse(ring.addNode("d:4567"));
+        Map<String, String> after = owners(ring, stationIds);
+
+        int moved = 0;
+        for (String stationId : stationIds) {
+            if (!before.get(stationId).equals(after.get(stationId))) {
+                assertEquals("d:4567", after.get(stationId), "A station may only move to the new shard");
+                moved++;
+            }
+        }
+        assertTrue(moved > 1800 && moved < 3200, "About a quarter of the stations should move: " + moved);
+    }
+
+    @Test
+    void testRemovingAShardOnlyMovesItsStations() {
+        List<String> stationIds = stationIds(10000);
+        HashRing ring = new HashRing(List.of("a:4567", "b:4567", "c:4567", "d:4567"));
+        Map<String, String> before = owners(ring, stationIds);
+        assertTrue(ring.removeNode("b:4567"));
+        assertFalse(ring.removeNode("b:4567"));
+        Map<String, String> after = owners(ring, stationIds);
+
+        for (String stationId : stationIds) {
+            if (!before.get(stationId).equals("b:4567")) {
+                assertEquals(before.get(stationId), after.get(stationId), "Only the stations of the removed shard move");
+            } else {
+                assertNotEquals("b:4567", after.get(stationId));
+            }
+        }
+        assertEquals(owners(new HashRing(List.of("a:4567", "c:4567", "d:4567")), stationIds), after);
+    }
+
+    @Test
+    void testPartitionGroupsStationsByOwner() {
+        HashRing ring = new HashRing(List.of("a:4567", "b:4567"));
+        List<String> stationIds = stationIds(20);
+        Map<String, List<String>> partitions = ring.partition(stationIds);
+
+        int total = 0;
+        for (Map.Entry<String, List<String>> partition : partitions.entrySet()) {
+            for (String stationId : partition.getValue()) {
+                assertEquals(partition.getKey(), ring.ownerOf(stationId));
+            }
+            total += partition.getValue().size();
+        }
+        assertEquals(stationIds.size(), total);
+    }
+}
@@ -0,0 +1,456 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * HttpAggregationServer, an HTTP/1.1 listener of the AggregationServer, so standard HTTP clients, load balancers
+ * and load tools can be used in front of it. It serves the same requests as the message-framed protocol:
+ * GET /weather, GET /weather/all and PUT with the JSON data as body. The Lamport clock is sent in a
+ * Lamport-Clock header.
+ *
+ * Connections are persistent unless the client asks otherwise, and pipelined requests are answered in order.
+ * Responses are buffered and only flushed once no further pipelined request is waiting, so a batch of requests
+ * sent in one round trip is answered in one write.
+ */
+public class HttpAggregationServer {
+    static final int MAX_LINE_LENGTH = 8192;
+    static final int MAX_HEADERS = 100;
+    static final int MAX_BODY_BYTES = MessageFraming.MAX_MESSAGE_BYTES;
+    static final int KEEP_ALIVE_TIMEOUT_MILLIS = 60000;
+
+    private final ServerSocket serverSocket;
+    private final Executor connectionExecutor;
+
+    /**
+     * HttpAggregationServer Constructor. Binds the server to the given port.
+     *
+     * @param port The port number on which the server listens, 0 to use any free port.
+     * @param connectionExecutor The executor that runs the handler of each connection.
+     * @throws IOException if the server cannot listen on the port.
+     */
+    public HttpAggregationServer(int port, Executor connectionExecutor) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    /**
+     * Gets the port number the server is bound to.
+     *
+     * @return The local port number.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections on the calling thread until the server is closed. Connections that the executor rejects
+     * are answered with 503 Service Unavailable.
+     */
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    connectionExecutor.execute(new HttpConnection(socket));
+                } catch (RejectedExecutionException e) {
+                    rejectConnection(socket);
+                }
+            } catch (SocketException e) {
+                break; // closed
+            } catch (IOException e) {
+                System.err.println("Error accepting HTTP connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing HTTP server socket: " + e.getMessage());
+        }
+    }
+
+    private static void rejectConnection(Socket socket) {
+        try (socket) {
+            OutputStream out = socket.getOutputStream();
+            writeResponse(out, 503, "Service Unavailable", null,
+                    "The server is busy, please retry later.\n", false,
+                    "Retry-After: " + AggregationServer.RETRY_AFTER_SECONDS + "\r\n");
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error rejecting HTTP connection: " + e.getMessage());
+        }
+        System.err.println("Rejected an HTTP connection, the worker pool is saturated.");
+    }
+
+    /**
+     * Writes an HTTP/1.1 response.
+     *
+     * @param out The stream to write to.
+     * @param status The status code.
+     * @param reason The reason phrase, "OK" is used when it is empty.
+     * @param contentType The content type of the body, null for plain text.
+     * @param body The body of the response.
+     * @param keepAlive Whether the connection stays open after the response.
+     * @param extraHeaders Further header lines, each ending with CRLF.
+     * @throws IOException if the response cannot be written.
+     */
+    static void writeResponse(OutputStream out, int status, String reason, String contentType, String body,
+                              boolean keepAlive, String extraHeaders) throws IOException {
+        out.write(encodeResponse(status, reason, contentType, body, keepAlive, extraHeaders));
+    }
+
+    /**
+     * Encodes an HTTP/1.1 response, the bytes {@link #writeResponse} writes.
+     *
+     * @return The status line, the headers and the body.
+     */
+    static byte[] encodeResponse(int status, String reason, String contentType, String body,
+                                 boolean keepAlive, String extraHeaders) {
+        // 204 and 304 responses must not have a body
+        byte[] bodyBytes = status == 204 || status == 304 ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason.isEmpty() ? "OK" : reason).append("\r\n");
+        if (bodyBytes.length > 0) {
+            head.append("Content-Type: ").append(contentType == null ? "text/plain; charset=utf-8" : contentType).append("\r\n");
+        }
+        head.append("Content-Length: ").append(bodyBytes.length).append("\r\n");
+        if (!keepAlive) {
+            head.append("Connection: close\r\n");
+        }
+        head.append(extraHeaders).append("\r\n");
+        byte[] response = Arrays.copyOf(head.toString().getBytes(StandardCharsets.ISO_8859_1), head.length() + bodyBytes.length);
+        System.arraycopy(bodyBytes, 0, response, head.length(), bodyBytes.length);
+        return response;
+    }
+
+    /**
+     * HttpConnection, serves the requests of one persistent connection in order.
+     */
+    static final class HttpConnection implements Runnable {
+        private final Socket socket;
+        private final long connectionId = AggregationServer.nextConnectionId();
+
+        HttpConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            ServerMetrics metrics = AggregationServer.metrics();
+            metrics.connectionOpened();
+            try (socket) {
+                socket.setSoTimeout(KEEP_ALIVE_TIMEOUT_MILLIS);
+                InputStream in = new BufferedInputStream(metrics.countingInput(socket.getInputStream()));
+                OutputStream out = new BufferedOutputStream(metrics.countingOutput(socket.getOutputStream()));
+                HttpRequestReader reader = new HttpRequestReader();
+                boolean keepAlive = true;
+                while (keepAlive) {
+                    try {
+                        if (!reader.read(in)) {
+                            break; // the client closed the connection
+                        }
+                    } catch (HttpException e) {
+                        writeResponse(out, e.status, e.getMessage(), null, e.getMessage() + "\n", false, "");
+                        out.flush();
+                        break;
+                    }
+                    keepAlive = reader.keepAlive;
+                    if (reader.method.equals("GET") || reader.method.equals("PUT")) {
+                        AggregationServer.Response response = AggregationServer.handleRequest(reader.method, reader.target,
+                                reader.lamportClock, reader.sourceId, reader.body, connectionId);
+                        out.write(response.encodeHttp(keepAlive));
+                    } else {
+                        writeResponse(out, 405, "Method Not Allowed", null, "Method Not Allowed\n", keepAlive, "Allow: GET, PUT\r\n");
+                    }
+                    // Only flush when no further pipelined request is already waiting
+                    if (!keepAlive || in.available() == 0) {
+                        out.flush();
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // idle keep-alive connection, close it
+            } catch (IOException e) {
+                System.err.println("Error handling HTTP request in socket ID: " + connectionId + " - " + e.getMessage());
+            } finally {
+                metrics.connectionClosed();
+            }
+        }
+    }
+
+    /**
+     * HttpException, a request that cannot be served, answered with the given status before the connection is closed.
+     */
+    static final class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpException(int status, String reason) {
+            super(reason);
+            this.status = status;
+        }
+    }
+
+    /**
+     * HttpRequestReader, parses HTTP/1.1 requests from a stream. The request line and headers are read into one
+     * reusable byte buffer and headers are matched byte by byte, so only the method, the target and the body
+     * become objects. The reader is reused for every request of a connection.
+     */
+    static final class HttpRequestReader {
+        private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.ISO_8859_1);
+        private static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.ISO_8859_1);
+        private static final byte[] LAMPORT_CLOCK = "lamport-clock".getBytes(StandardCharsets.ISO_8859_1);
+        private static final byte[] SOURCE_ID = "source-id".getBytes(StandardCharsets.ISO_8859_1);
+        private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.ISO_8859_1);
+        private static final byte[] CLOSE = "close".getBytes(StandardCharsets.ISO_8859_1);
+        private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.ISO_8859_1);
+
+        private final byte[] line = new byte[MAX_LINE_LENGTH];
+        private int lineLength;
+
+        String method;
+        String target;
+        long lamportClock;
+        String sourceId;
+        boolean keepAlive;
+        String body;
+
+        /**
+         * Reads the next request.
+         *
+         * @param in The stream of the connection.
+         * @return true if a request was read, false if the stream ended before a new request.
+         * @throws HttpException if the request is malformed or not supported.
+         * @throws IOException if the stream fails or ends in the middle of a request.
+         */
+        boolean read(InputStream in) throws IOException {
+            // Empty lines before a request line are ignored (RFC 9112 section 2.2)
+            do {
+                if (!readLine(in)) {
+                    return false;
+                }
+            } while (lineLength == 0);
+            parseRequestLine();
+
+            int contentLength = 0;
+            lamportClock = -1;
+            sourceId = null;
+            for (int headers = 0; ; headers++) {
+                if (!readLine(in)) {
+                    throw new IOException("Connection closed in the middle of the headers");
+                }
+                if (lineLength == 0) {
+                    break;
+                }
+                if (headers == MAX_HEADERS) {
+                    throw new HttpException(431, "Request Header Fields Too Large");
+                }
+                int colon = indexOf((byte) ':', 0);
+                if (colon <= 0) {
+                    throw new HttpException(400, "Bad Request");
+                }
+                int valueStart = skipSpaces(colon + 1);
+                if (nameEquals(colon, CONTENT_LENGTH)) {
+                    long length = parseNumber(valueStart);
+                    if (length > MAX_BODY_BYTES) {
+                        throw new HttpException(413, "Payload Too Large");
+                    }
+                    contentLength = (int) length;
+                } else if (nameEquals(colon, LAMPORT_CLOCK)) {
+                    lamportClock = parseNumber(valueStart);
+                } else if (nameEquals(colon, SOURCE_ID)) {
+                    sourceId = headerValue(valueStart);
+                } else if (nameEquals(colon, CONNECTION)) {
+                    if (containsToken(valueStart, CLOSE)) {
+                        keepAlive = false;
+                    } else if (containsToken(valueStart, KEEP_ALIVE)) {
+                        keepAlive = true;
+                    }
+                } else if (nameEquals(colon, TRANSFER_ENCODING)) {
+                    throw new HttpException(501, "Not Implemented");
+                }
+            }
+
+            if (contentLength > 0) {
+                byte[] bodyBytes = in.readNBytes(contentLength);
+                if (bodyBytes.length < contentLength) {
+                    throw new IOException("Connection closed in the middle of the body");
+                }
+                body = new String(bodyBytes, StandardCharsets.UTF_8);
+            } else {
+                body = "";
+            }
+            return true;
+        }
+
+        /**
+         * Parses "METHOD SP target SP HTTP/1.x". HTTP/1.1 connections are persistent by default, HTTP/1.0 ones are not.
+         */
+        private void parseRequestLine() throws HttpException {
+            int methodEnd = indexOf((byte) ' ', 0);
+            int targetEnd = methodEnd == -1 ? -1 : indexOf((byte) ' ', methodEnd + 1);
+            if (methodEnd <= 0 || targetEnd == -1 || lineLength - targetEnd - 1 != 8
+                    || !regionEquals(targetEnd + 1, "HTTP/1.")) {
+                throw new HttpException(400, "Bad Request");
+            }
+            method = method(methodEnd);
+            target = new String(line, methodEnd + 1, targetEnd - methodEnd - 1, StandardCharsets.ISO_8859_1);
+            keepAlive = line[lineLength - 1] != '0';
+        }
+
+        /**
+         * Gets the method of the request line, without allocating for the supported methods.
+         */
+        private String method(int methodEnd) {
+            if (methodEnd == 3 && regionEquals(0, "GET")) {
+                return "GET";
+            }
+            if (methodEnd == 3 && regionEquals(0, "PUT")) {
+                return "PUT";
+            }
+            return new String(line, 0, methodEnd, StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * Reads one line ending with LF (an optional CR before it is dropped) into the line buffer.
+         *
+         * @return false if the stream ended before any byte of the line.
+         */
+        private boolean readLine(InputStream in) throws IOException {
+            lineLength = 0;
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    if (lineLength == 0) {
+                        return false;
+                    }
+                    throw new IOException("Connection closed in the middle of a line");
+                }
+                if (lineLength == line.length) {
+                    throw new HttpException(431, "Request Header Fields Too Large");
+                }
+                line[lineLength++] = (byte) b;
+            }
+            if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                lineLength--;
+            }
+            return true;
+        }
+
+        private int indexOf(byte b, int from) {
+            for (int i = from; i < lineLength; i++) {
+                if (line[i] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int skipSpaces(int from) {
+            while (from < lineLength && (line[from] == ' ' || line[from] == '\t')) {
+                from++;
+            }
+            return from;
+        }
+
+        private boolean regionEquals(int from, String expected) {
+            for (int i = 0; i < expected.length(); i++) {
+                if (line[from + i] != expected.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Compares the header name before the colon with a lower-case name, ignoring case.
+         */
+        private boolean nameEquals(int colon, byte[] lowerCaseName) {
+            if (colon != lowerCaseName.length) {
+                return false;
+            }
+            for (int i = 0; i < colon; i++) {
+                if ((line[i] | 0x20) != lowerCaseName[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether a comma-separated header value contains a token, ignoring case.
+         */
+        private boolean containsToken(int from, byte[] lowerCaseToken) {
+            int tokenStart = from;
+            for (int i = from; i <= lineLength; i++) {
+                if (i == lineLength || line[i] == ',') {
+                    int start = tokenStart;
+                    int end = i;
+                    while (start < end && line[start] == ' ') {
+                        start++;
+                    }
+                    while (end > start && line[end - 1] == ' ') {
+                        end--;
+                    }
+                    if (end - start == lowerCaseToken.length) {
+                        boolean matches = true;
+                        for (int j = 0; j < lowerCaseToken.length && matches; j++) {
+                            matches = (line[start + j] | 0x20) == lowerCaseToken[j];
+                        }
+                        if (matches) {
+                            return true;
+                        }
+                    }
+                    tokenStart = i + 1;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Gets a header value as a string, without the trailing spaces.
+         */
+        private String headerValue(int from) {
+            int end = lineLength;
+            while (end > from && (line[end - 1] == ' ' || line[end - 1] == '\t')) {
+                end--;
+            }
+            return new String(line, from, end - from, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Parses a non-negative decimal header value.
+         */
+        private long parseNumber(int from) throws HttpException {
+            int end = lineLength;
+            while (end > from && line[end - 1] == ' ') {
+                end--;
+            }
+            if (from == end || end - from > 18) {
+                throw new HttpException(400, "Bad Request");
+            }
+            long value = 0;
+            for (int i = from; i < end; i++) {
+                if (line[i] < '0' || line[i] > '9') {
+                    throw new HttpException(400, "Bad Request");
+                }
+                value = value * 10 + (line[i] - '0');
+            }
+            return value;
+        }
+    }
+}
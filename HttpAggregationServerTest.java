@@ -0,0 +1,201 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpAggregationServerTest {
+    private static final String JSON = "{\"id\":\"HTTP0001\",\"name\":\"Http\",\"air_temp\":13.3}";
+
+    private HttpAggregationServer server;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        executor = Executors.newFixedThreadPool(4);
+        server = new HttpAggregationServer(0, executor);
+        Thread acceptor = new Thread(server::run);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private static String put(String json, String extraHeaders) {
+        return "PUT /weather_data.txt HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n" +
+                "Content-Length: " + json.getBytes(StandardCharsets.UTF_8).length + "\r\nLamport-Clock: 3\r\n" +
+                extraHeaders + "\r\n" + json;
+    }
+
+    private static String get(String path, String extraHeaders) {
+        return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" + extraHeaders + "\r\n";
+    }
+
+    /**
+     * Reads one response, returning the status line, the headers and the body separated by a blank line.
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int contentLength = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            head.append(line).append("\n");
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        return head + "\n" + new String(in.readNBytes(contentLength), StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Connection closed");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    @Test
+    void testPutThenGetOnPersistentConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            out.write(put(JSON, "").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 20"));
+
+            out.write(get("/weather/all", "").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String response = readResponse(in);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response.contains("Content-Type: application/json"));
+            assertTrue(response.contains(JSON));
+        }
+    }
+
+    @Test
+    void testPipelinedRequestsAreAnsweredInOrder() throws IOException {
+        String otherJson = "{\"id\":\"HTTP0002\",\"name\":\"Pipelined\"}";
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            // Three requests in a single write, answered in the order they were sent
+            out.write((put(JSON, "") + get("/weather", "") + put(otherJson, "") + get("/weather", ""))
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 20"));
+            assertTrue(readResponse(in).endsWith(JSON));
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 20"));
+            assertTrue(readResponse(in).endsWith(otherJson));
+        }
+    }
+
+    @Test
+    void testConnectionCloseIsHonoured() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            socket.getOutputStream().write(get("/weather", "Connection: close\r\n").getBytes(StandardCharsets.UTF_8));
+            String response = readResponse(in);
+            assertTrue(response.contains("Connection: close"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testHttp10ClosesByDefault() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            socket.getOutputStream().write("GET /weather HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            readResponse(in);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testMalformedRequestIsRejected() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            socket.getOutputStream().write("HELLO\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 400 Bad Request"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testUnsupportedMethod() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            socket.getOutputStream().write("DELETE /weather HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            String response = readResponse(in);
+            assertTrue(response.startsWith("HTTP/1.1 405 Method Not Allowed"));
+            assertTrue(response.contains("Allow: GET, PUT"));
+        }
+    }
+
+    @Test
+    void testRequestReaderParsesHeaders() throws IOException {
+        String requests = "\r\nPUT /weather_data.txt HTTP/1.1\r\ncontent-LENGTH: 2\r\nLAMPORT-Clock:  42 \r\n" +
+                "Source-Id: station-feed-1 \r\nConnection: Upgrade, Close\r\n\r\n{}" +
+                "GET /weather/all HTTP/1.1\n\n";
+        InputStream in = new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8));
+        HttpAggregationServer.HttpRequestReader reader = new HttpAggregationServer.HttpRequestReader();
+
+        assertTrue(reader.read(in));
+        assertEquals("PUT", reader.method);
+        assertEquals("/weather_data.txt", reader.target);
+        assertEquals(42, reader.lamportClock);
+        assertEquals("station-feed-1", reader.sourceId);
+        assertEquals("{}", reader.body);
+        assertFalse(reader.keepAlive);
+
+        assertTrue(reader.read(in));
+        assertEquals("GET", reader.method);
+        assertEquals("/weather/all", reader.target);
+        assertEquals(-1, reader.lamportClock);
+        assertNull(reader.sourceId, "Headers of the previous request must not leak into the next one");
+        assertEquals("", reader.body);
+        assertTrue(reader.keepAlive);
+
+        assertFalse(reader.read(in));
+    }
+
+    @Test
+    void testRequestReaderRejectsChunkedBodies() {
+        String request = "PUT /weather_data.txt HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n";
+        HttpAggregationServer.HttpRequestReader reader = new HttpAggregationServer.HttpRequestReader();
+        HttpAggregationServer.HttpException e = assertThrows(HttpAggregationServer.HttpException.class,
+                () -> reader.read(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(501, e.status);
+    }
+
+    @Test
+    void testRequestReaderRejectsInvalidContentLength() {
+        String request = "PUT /weather_data.txt HTTP/1.1\r\nContent-Length: -5\r\n\r\n";
+        HttpAggregationServer.HttpRequestReader reader = new HttpAggregationServer.HttpRequestReader();
+        HttpAggregationServer.HttpException e = assertThrows(HttpAggregationServer.HttpException.class,
+                () -> reader.read(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(400, e.status);
+    }
+}
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Custom JSONParser to handle some JSON data.
@@ -12,7 +14,7 @@ import java.nio.file.Paths;
 public class JSONParser {
 
     /**
-     * Converts a plain text file into JSON format. Reject JSON object with no ID field.
+     * Converts a plain text file into JSON format. Reject JSON object with no ID field or an empty ID.
      *
      * @param filePath The path of the file to be converted to JSON.
      * @return A string containing the formatted JSON data, or null if the file does not exist or is invalid.
@@ -36,7 +38,8 @@ public class JSONParser {
                 if (parts.length == 2) {
                     String key = parts[0].trim();
                     String value = parts[1].trim();
-                    if (key.equalsIgnoreCase("id")) {
+                    if (key.equalsIgnoreCase("id") && !value.isEmpty()) { //the server indexes stations by "id"
+                        key = "id";
                         hasID = true;
                     }
 
@@ -67,57 +70,112 @@ public class JSONParser {
     }
 
     /**
-     * Validates if the given string is a well-formed JSON.
+     * Validates if the given string is a well-formed JSON object, in a single pass over its characters.
      *
      * @param stringCheck The string to be validated as JSON.
      * @return True if the string is valid JSON, false otherwise.
      */
     public static boolean isValidJson(String stringCheck) {
-        if (!stringCheck.startsWith("{") || !stringCheck.endsWith("}")) {
-            return false;
+        return JSONTokenizer.isValidObject(stringCheck);
+    }
+
+    /**
+     * Splits a JSON array of objects into its objects, keeping each object's text as it is.
+     * Braces and brackets inside string values are ignored.
+     *
+     * @param json The JSON array, such as "[{...}, {...}]".
+     * @return The objects of the array, or null if the text is not an array of objects.
+     */
+    public static List<String> splitJsonArray(String json) {
+        String array = json.trim();
+        if (!array.startsWith("[") || !array.endsWith("]")) {
+            return null;
         }
-        // Remove the outer braces
-        stringCheck = stringCheck.substring(1, stringCheck.length() - 1).trim();
-        // Split the JSON string by commas to separate key-value pairs
-        String[] pairs = stringCheck.split(",");
-        for (String pair : pairs) {
-            pair = pair.trim();
-            if (!pair.contains(":")) { // Check if there's a valid key-value pair with a colon
-                return false;
-            }
-            String[] keyValue = pair.split(":", 2);
-            if (keyValue.length != 2) { // Invalid key-value pair
-                return false;
-            }
-            String key = keyValue[0].trim();
-            String value = keyValue[1].trim();
-            if (!key.startsWith("\"") || !key.endsWith("\"")) { // Check if the key is valid (wrapped in double quotes)
-                return false;
-            }
-            // Check if the value is valid (string, number, object, boolean, null)
-            if (!(isNumber(value) || value.startsWith("\"") && value.endsWith("\"") ||
-                    value.equals("true") || value.equals("false") || value.equals("null") ||
-                    (value.startsWith("{") && value.endsWith("}")) ||
-                    (value.startsWith("[") && value.endsWith("]")))) {
-                return false;
+        List<String> objects = new ArrayList<>();
+        int depth = 0;
+        int objectStart = -1;
+        boolean inString = false;
+        for (int i = 1; i < array.length() - 1; i++) {
+            char c = array.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++; // skip the escaped character
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                if (depth++ == 0) {
+                    objectStart = i;
+                }
+            } else if (c == '}') {
+                if (--depth == 0) {
+                    objects.add(array.substring(objectStart, i + 1));
+                } else if (depth < 0) {
+                    return null;
+                }
+            } else if (depth == 0 && c != ',' && !Character.isWhitespace(c)) {
+                return null; // only objects are allowed between the commas
             }
         }
-        return true;
+        return depth == 0 && !inString ? objects : null;
+    }
+
+    /**
+     * Extracts the value of the "id" field from a JSON string.
+     * Valid objects are tokenized, so an "id" key inside a nested object or a string value is never taken for it.
+     *
+     * @param json The JSON string to look for the id field.
+     * @return The id value without quotes, or null if the JSON has no id field.
+     */
+    public static String extractId(String json) {
+        JSONTokenizer.FieldOffsets fields = new JSONTokenizer.FieldOffsets();
+        if (JSONTokenizer.tokenize(json, fields)) {
+            return extractId(fields);
+        }
+        return scanId(json); // best effort for invalid JSON, such as the rejected records of a batch
+    }
+
+    /**
+     * Extracts the value of the "id" field from a JSON object that is tokenized already.
+     *
+     * @param fields The offsets of the fields of a valid JSON object, see {@link JSONTokenizer#tokenize}.
+     * @return The id value without quotes, or null if the JSON has no id field.
+     */
+    public static String extractId(JSONTokenizer.FieldOffsets fields) {
+        String value = fields.value("id");
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static String scanId(String json) {
+        int keyIndex = json.indexOf("\"id\"");
+        if (keyIndex == -1) {
+            return null;
+        }
+        int colonIndex = json.indexOf(':', keyIndex + 4);
+        if (colonIndex == -1) {
+            return null;
+        }
+        int valueEnd = colonIndex + 1;
+        while (valueEnd < json.length() && json.charAt(valueEnd) != ',' && json.charAt(valueEnd) != '}') {
+            valueEnd++;
+        }
+        String value = json.substring(colonIndex + 1, valueEnd).trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return value.isEmpty() ? null : value;
     }
 
     /**
-     * Method to check if a string is numeric.
+     * Method to check if a string is a JSON number.
      *
      * @param value The string to be checked.
      * @return True if the string is a valid number, false otherwise.
      */
     private static boolean isNumber(String value) {
-        try {
-            Double.parseDouble(value);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+        return JSONTokenizer.isNumber(value);
     }
 
     /**
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -46,6 +47,16 @@ class JSONParserTest {
         assertTrue(jsonString.contains("\"humidity\": 60"), "JSON should contain the humidity field.");
     }
 
+    @Test
+    void testConvertFileToJson_InvalidFile_EmptyID() throws IOException {
+        setupDatabase("ID:\n" +
+                "temperature: 25.0\n");
+        assertNull(JSONParser.convertFileToJson(testFilePath), "An empty id cannot be looked up by the server.");
+
+        setupDatabase("ID: IDS60901\n");
+        assertTrue(JSONParser.convertFileToJson(testFilePath).contains("\"id\": \"IDS60901\""));
+    }
+
     @Test
     void testConvertFileToJson_InvalidFile_NoIDField() throws IOException {
         setupDatabase("temperature: 25.0\n" +
@@ -71,6 +82,29 @@ class JSONParserTest {
         assertFalse(isValid, "The JSON string should be invalid due to missing braces.");
     }
 
+    @Test
+    void testIsValidJson_CommasInsideStrings() {
+        assertTrue(JSONParser.isValidJson("{ \"id\": \"123\", \"name\": \"Adelaide, SA: West Terrace\" }"));
+        assertFalse(JSONParser.isValidJson("{ \"id\": \"123\", \"temperature\": 25. }"));
+    }
+
+    @Test
+    void testExtractIdIgnoresNestedFields() {
+        assertEquals("A", JSONParser.extractId("{ \"station\": { \"id\": \"X\" }, \"id\": \"A\" }"));
+        assertEquals("123", JSONParser.extractId("{ \"id\": 123 }"));
+        assertEquals("B", JSONParser.extractId("{ \"id\": \"B\", \"temperature\": }"), "Invalid JSON falls back to a scan");
+        assertNull(JSONParser.extractId("{ \"temperature\": 100 }"));
+    }
+
+    @Test
+    void testExtractIdFromFieldOffsets() {
+        JSONTokenizer.FieldOffsets fields = new JSONTokenizer.FieldOffsets();
+        assertTrue(JSONTokenizer.tokenize("{ \"station\": { \"id\": \"X\" }, \"id\": \"A\" }", fields));
+        assertEquals("A", JSONParser.extractId(fields));
+        assertTrue(JSONTokenizer.tokenize("{ \"id\": \"\" }", fields), "The offsets are reused for the next object");
+        assertNull(JSONParser.extractId(fields), "An empty id is no id");
+    }
+
     @Test
     void testConvertToSingleLineJson() {
         String prettyJson = "{\n  \"id\": \"123\",\n  \"temperature\": 25.0,\n  \"humidity\": 60\n}";
@@ -87,6 +121,24 @@ class JSONParserTest {
         assertNull(jsonString, "The JSON string should be null because the file does not exist.");
     }
 
+    @Test
+    void testSplitJsonArray() {
+        List<String> objects = JSONParser.splitJsonArray("[\n{ \"id\": \"A\", \"name\": \"a } [ b\" },\n{ \"id\": \"B\" }\n]");
+
+        assertNotNull(objects);
+        assertEquals(2, objects.size());
+        assertEquals("{ \"id\": \"A\", \"name\": \"a } [ b\" }", objects.get(0), "Braces inside strings should be ignored");
+        assertEquals("{ \"id\": \"B\" }", objects.get(1));
+        assertTrue(JSONParser.splitJsonArray("[]").isEmpty());
+    }
+
+    @Test
+    void testSplitJsonArray_Invalid() {
+        assertNull(JSONParser.splitJsonArray("{ \"id\": \"A\" }"), "An object is not an array");
+        assertNull(JSONParser.splitJsonArray("[{ \"id\": \"A\" }, 5]"), "Only objects are allowed in the array");
+        assertNull(JSONParser.splitJsonArray("[{ \"id\": \"A\" ]"), "Unbalanced braces should be rejected");
+    }
+
     private void setupDatabase(String content) throws IOException {
         File file = new File(testFilePath);
         try (FileWriter writer = new FileWriter(file)) {
@@ -0,0 +1,379 @@
+import java.util.Arrays;
+
+/**
+ * JSONTokenizer, validates JSON text in a single pass over its characters without allocating.
+ * Numbers are checked against the JSON number grammar instead of being parsed, and commas, colons and braces
+ * inside string values are handled correctly. While validating an object, the tokenizer can record the offsets
+ * of its top-level fields in a reusable {@link FieldOffsets}, so callers can read fields without parsing again.
+ */
+public final class JSONTokenizer {
+    static final int MAX_DEPTH = 64;
+
+    private JSONTokenizer() {
+    }
+
+    /**
+     * Checks whether the text is a well-formed JSON object. The text must start with '{' and end with '}'.
+     *
+     * @param json The text to be validated.
+     * @return True if the text is a valid JSON object, false otherwise.
+     */
+    public static boolean isValidObject(CharSequence json) {
+        return tokenize(json, null);
+    }
+
+    /**
+     * Validates a JSON object and records the offsets of its top-level fields.
+     *
+     * @param json The text to be validated. The text must start with '{' and end with '}'.
+     * @param fields The offsets to be filled, or null to only validate the text.
+     * @return True if the text is a valid JSON object, false otherwise. The offsets are empty if it is not.
+     */
+    public static boolean tokenize(CharSequence json, FieldOffsets fields) {
+        if (fields != null) {
+            fields.reset(json);
+        }
+        int length = json.length();
+        if (length < 2 || json.charAt(0) != '{' || json.charAt(length - 1) != '}') {
+            return false;
+        }
+        if (scanObject(json, 0, 0, fields) == length) {
+            return true;
+        }
+        if (fields != null) {
+            fields.reset(json);
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the text is a JSON number, such as "-12", "0.5" or "1e-3".
+     *
+     * @param value The text to be checked.
+     * @return True if the whole text is a JSON number, false otherwise.
+     */
+    public static boolean isNumber(CharSequence value) {
+        return value.length() > 0 && scanNumber(value, 0) == value.length();
+    }
+
+    /**
+     * Scans an object starting at the '{' at index i.
+     *
+     * @return The index after the closing '}', or -1 if the object is not valid.
+     */
+    private static int scanObject(CharSequence json, int i, int depth, FieldOffsets fields) {
+        if (depth >= MAX_DEPTH) {
+            return -1;
+        }
+        i = skipWhitespace(json, i + 1);
+        if (i < json.length() && json.charAt(i) == '}') {
+            return i + 1;
+        }
+        while (i < json.length()) {
+            int keyStart = i;
+            if (json.charAt(i) != '"' || (i = scanString(json, i)) < 0) {
+                return -1;
+            }
+            int keyEnd = i;
+            i = skipWhitespace(json, i);
+            if (i >= json.length() || json.charAt(i) != ':') {
+                return -1;
+            }
+            int valueStart = skipWhitespace(json, i + 1);
+            if ((i = scanValue(json, valueStart, depth + 1)) < 0) {
+                return -1;
+            }
+            if (fields != null) {
+                fields.add(keyStart + 1, keyEnd - 1, valueStart, i);
+            }
+            i = skipWhitespace(json, i);
+            if (i >= json.length()) {
+                return -1;
+            }
+            char c = json.charAt(i);
+            if (c == '}') {
+                return i + 1;
+            }
+            if (c != ',') {
+                return -1;
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Scans an array starting at the '[' at index i.
+     *
+     * @return The index after the closing ']', or -1 if the array is not valid.
+     */
+    private static int scanArray(CharSequence json, int i, int depth) {
+        if (depth >= MAX_DEPTH) {
+            return -1;
+        }
+        i = skipWhitespace(json, i + 1);
+        if (i < json.length() && json.charAt(i) == ']') {
+            return i + 1;
+        }
+        while (i < json.length()) {
+            if ((i = scanValue(json, i, depth + 1)) < 0) {
+                return -1;
+            }
+            i = skipWhitespace(json, i);
+            if (i >= json.length()) {
+                return -1;
+            }
+            char c = json.charAt(i);
+            if (c == ']') {
+                return i + 1;
+            }
+            if (c != ',') {
+                return -1;
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Scans any value starting at index i.
+     *
+     * @return The index after the value, or -1 if the value is not valid.
+     */
+    private static int scanValue(CharSequence json, int i, int depth) {
+        if (i >= json.length()) {
+            return -1;
+        }
+        switch (json.charAt(i)) {
+            case '{':
+                return scanObject(json, i, depth, null);
+            case '[':
+                return scanArray(json, i, depth);
+            case '"':
+                return scanString(json, i);
+            case 't':
+                return scanLiteral(json, i, "true");
+            case 'f':
+                return scanLiteral(json, i, "false");
+            case 'n':
+                return scanLiteral(json, i, "null");
+            default:
+                return scanNumber(json, i);
+        }
+    }
+
+    /**
+     * Scans a string starting at the '"' at index i.
+     *
+     * @return The index after the closing '"', or -1 if the string is not valid.
+     */
+    private static int scanString(CharSequence json, int i) {
+        int length = json.length();
+        i++;
+        while (i < length) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            if (c == '\\') {
+                if (++i >= length) {
+                    return -1;
+                }
+                char escaped = json.charAt(i);
+                if (escaped == 'u') {
+                    if (i + 4 >= length) {
+                        return -1;
+                    }
+                    for (int j = i + 1; j <= i + 4; j++) {
+                        if (!isHexDigit(json.charAt(j))) {
+                            return -1;
+                        }
+                    }
+                    i += 4;
+                } else if ("\"\\/bfnrt".indexOf(escaped) < 0) {
+                    return -1;
+                }
+            } else if (c < 0x20) { // control characters must be escaped
+                return -1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Scans a number starting at index i: an optional minus sign, an integer part without leading zeros,
+     * an optional fraction and an optional exponent.
+     *
+     * @return The index after the number, or -1 if there is no valid number at index i.
+     */
+    private static int scanNumber(CharSequence json, int i) {
+        int length = json.length();
+        if (i < length && json.charAt(i) == '-') {
+            i++;
+        }
+        if (i >= length || !isDigit(json.charAt(i))) {
+            return -1;
+        }
+        if (json.charAt(i) == '0') {
+            i++;
+        } else {
+            i = skipDigits(json, i);
+        }
+        if (i < length && json.charAt(i) == '.') {
+            if (i + 1 >= length || !isDigit(json.charAt(i + 1))) {
+                return -1;
+            }
+            i = skipDigits(json, i + 1);
+        }
+        if (i < length && (json.charAt(i) == 'e' || json.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (json.charAt(i) == '+' || json.charAt(i) == '-')) {
+                i++;
+            }
+            if (i >= length || !isDigit(json.charAt(i))) {
+                return -1;
+            }
+            i = skipDigits(json, i);
+        }
+        return i;
+    }
+
+    private static int scanLiteral(CharSequence json, int i, String literal) {
+        if (i + literal.length() > json.length()) {
+            return -1;
+        }
+        for (int j = 0; j < literal.length(); j++) {
+            if (json.charAt(i + j) != literal.charAt(j)) {
+                return -1;
+            }
+        }
+        return i + literal.length();
+    }
+
+    private static int skipDigits(CharSequence json, int i) {
+        while (i < json.length() && isDigit(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(CharSequence json, int i) {
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * FieldOffsets, the positions of the keys and values of the top-level fields of a tokenized object.
+     * Keys are stored without their quotes, values as they appear in the text. An instance can be reused
+     * for many objects, so reading fields costs no allocation besides the returned strings.
+     */
+    public static final class FieldOffsets {
+        private CharSequence json;
+        private int[] offsets = new int[4 * 8]; // key start, key end, value start, value end of each field
+        private int count;
+
+        private void reset(CharSequence json) {
+            this.json = json;
+            this.count = 0;
+        }
+
+        private void add(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+            if (4 * count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            int base = 4 * count++;
+            offsets[base] = keyStart;
+            offsets[base + 1] = keyEnd;
+            offsets[base + 2] = valueStart;
+            offsets[base + 3] = valueEnd;
+        }
+
+        /**
+         * Gets the number of top-level fields.
+         *
+         * @return The number of fields.
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Finds a field by its key, comparing the raw key text without unescaping it.
+         *
+         * @param key The key to look for.
+         * @return The index of the first field with that key, or -1 if there is none.
+         */
+        public int indexOf(String key) {
+            for (int field = 0; field < count; field++) {
+                int start = offsets[4 * field];
+                int end = offsets[4 * field + 1];
+                if (end - start != key.length()) {
+                    continue;
+                }
+                int j = 0;
+                while (j < key.length() && json.charAt(start + j) == key.charAt(j)) {
+                    j++;
+                }
+                if (j == key.length()) {
+                    return field;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Gets the key of a field.
+         *
+         * @param field The index of the field.
+         * @return The key without its quotes.
+         */
+        public String key(int field) {
+            return json.subSequence(offsets[4 * field], offsets[4 * field + 1]).toString();
+        }
+
+        /**
+         * Gets the value of a field as it appears in the text, such as "\"Adelaide\"", "13.3" or "{...}".
+         *
+         * @param field The index of the field.
+         * @return The raw value.
+         */
+        public String rawValue(int field) {
+            return json.subSequence(offsets[4 * field + 2], offsets[4 * field + 3]).toString();
+        }
+
+        /**
+         * Gets the value of a field, without its quotes if it is a string. Escape sequences are kept as they are.
+         *
+         * @param key The key of the field.
+         * @return The value, or null if there is no field with that key.
+         */
+        public String value(String key) {
+            int field = indexOf(key);
+            if (field == -1) {
+                return null;
+            }
+            int start = offsets[4 * field + 2];
+            int end = offsets[4 * field + 3];
+            if (json.charAt(start) == '"') {
+                start++;
+                end--;
+            }
+            return json.subSequence(start, end).toString();
+        }
+    }
+}
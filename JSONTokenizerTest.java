@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JSONTokenizerTest {
+
+    @Test
+    void testValidObjects() {
+        assertTrue(JSONTokenizer.isValidObject("{}"));
+        assertTrue(JSONTokenizer.isValidObject("{ \"id\": \"IDS60901\", \"air_temp\": -13.5e2, \"ok\": true }"));
+        assertTrue(JSONTokenizer.isValidObject("{\"name\":\"a, b: {c}\",\"nested\":{\"x\":[1,2,{\"y\":null}]}}"),
+                "Commas, colons and braces inside strings and nested values should be accepted");
+        assertTrue(JSONTokenizer.isValidObject("{\"escaped\":\"\\\"quoted\\\" \\u00e9\\n\"}"));
+    }
+
+    @Test
+    void testInvalidObjects() {
+        assertFalse(JSONTokenizer.isValidObject("{ \"temperature\": }"));
+        assertFalse(JSONTokenizer.isValidObject("{ temperature: 1 }"), "Keys must be quoted");
+        assertFalse(JSONTokenizer.isValidObject("{ \"a\": 1, }"), "Trailing commas are not allowed");
+        assertFalse(JSONTokenizer.isValidObject("{ \"a\": 1 \"b\": 2 }"));
+        assertFalse(JSONTokenizer.isValidObject("{ \"a\": [1, 2 }"));
+        assertFalse(JSONTokenizer.isValidObject("{ \"a\": \"unterminated }"));
+        assertFalse(JSONTokenizer.isValidObject("{ \"a\": \"\\x\" }"), "Unknown escape sequences are rejected");
+        assertFalse(JSONTokenizer.isValidObject("{ \"a\": 1 } { \"b\": 2 }"));
+        assertFalse(JSONTokenizer.isValidObject("[{ \"a\": 1 }]"));
+        assertFalse(JSONTokenizer.isValidObject("{" + "\"a\":[".repeat(100) + "]".repeat(100) + "}"),
+                "Nesting deeper than the limit is rejected");
+    }
+
+    @Test
+    void testNumbers() {
+        assertTrue(JSONTokenizer.isNumber("0"));
+        assertTrue(JSONTokenizer.isNumber("-12.50"));
+        assertTrue(JSONTokenizer.isNumber("1E+3"));
+        assertFalse(JSONTokenizer.isNumber(""));
+        assertFalse(JSONTokenizer.isNumber("01"));
+        assertFalse(JSONTokenizer.isNumber("1."));
+        assertFalse(JSONTokenizer.isNumber("+1"));
+        assertFalse(JSONTokenizer.isNumber("NaN"));
+        assertFalse(JSONTokenizer.isNumber("1e"));
+    }
+
+    @Test
+    void testFieldOffsets() {
+        JSONTokenizer.FieldOffsets fields = new JSONTokenizer.FieldOffsets();
+        String json = "{ \"name\": \"Adelaide, SA\", \"inner\": { \"id\": \"X\" }, \"id\" : \"IDS60901\", \"air_temp\": 13.3 }";
+
+        assertTrue(JSONTokenizer.tokenize(json, fields));
+        assertEquals(4, fields.size());
+        assertEquals("inner", fields.key(1));
+        assertEquals("{ \"id\": \"X\" }", fields.rawValue(1));
+        assertEquals("IDS60901", fields.value("id"), "Only top-level fields should be matched");
+        assertEquals("13.3", fields.value("air_temp"));
+        assertNull(fields.value("missing"));
+
+        assertFalse(JSONTokenizer.tokenize("{ \"id\": \"A\", }", fields));
+        assertEquals(0, fields.size(), "The offsets of an invalid object should be cleared");
+    }
+}
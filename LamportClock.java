@@ -1,15 +1,30 @@
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * This class implements a simple Lamport clock.
+ * The clock is lock-free, so threads (including virtual threads) never block on it. Its value is a long,
+ * so it does not overflow during the lifetime of a server. {@link #tickAndGet()} and {@link #updateAndGet(long)}
+ * return the value they assigned, so the value sent with a message is never read apart from its increment.
  */
 public class LamportClock {
-    private int value = 0;
+    private final AtomicLong value = new AtomicLong();
 
     /**
      * Increments the Lamport clock value by 1.
      * This is typically done when an internal event occurs within a process.
      */
-    public synchronized void increment() {
-        value++;
+    public void increment() {
+        tickAndGet();
+    }
+
+    /**
+     * Increments the Lamport clock value by 1 and returns the new value, as one atomic step.
+     * Used to timestamp a send or a local event: no other thread can get the same value.
+     *
+     * @return The value assigned to the event.
+     */
+    public long tickAndGet() {
+        return value.incrementAndGet();
     }
 
     /**
@@ -19,8 +34,24 @@ public class LamportClock {
      *
      * @param receivedValue The value of the Lamport clock from the message received from another process.
      */
-    public synchronized void update(int receivedValue) {
-        value = Math.max(value, receivedValue) + 1;
+    public void update(long receivedValue) {
+        updateAndGet(receivedValue);
+    }
+
+    /**
+     * Updates the Lamport clock value based on a received value and returns the new value, as one atomic step.
+     *
+     * @param receivedValue The value of the Lamport clock from the message received from another process.
+     * @return The value assigned to the receive event.
+     */
+    public long updateAndGet(long receivedValue) {
+        while (true) {
+            long current = value.get();
+            long next = Math.max(current, receivedValue) + 1;
+            if (value.compareAndSet(current, next)) {
+                return next;
+            }
+        }
     }
 
     /**
@@ -28,7 +59,7 @@ public class LamportClock {
      *
      * @return The current value of the Lamport clock.
      */
-    public synchronized int getValue() {
-        return value;
+    public long getValue() {
+        return value.get();
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,9 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class LamportClockTest {
@@ -52,4 +55,37 @@ public class LamportClockTest {
         lamportClock.increment();
         assertEquals(4, lamportClock.getValue(), "Clock value should be 4 after incrementing");
     }
+
+    @Test
+    void testTickAndGetReturnsAssignedValue() {
+        assertEquals(1, lamportClock.tickAndGet());
+        assertEquals(6, lamportClock.updateAndGet(5), "The received value 5 is larger than 1");
+        assertEquals(7, lamportClock.updateAndGet(2), "The own value 6 is larger than 2");
+        assertEquals(7, lamportClock.getValue());
+    }
+
+    @Test
+    void testValuesBeyondIntRange() {
+        lamportClock.update(Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE + 2L, lamportClock.tickAndGet(), "The clock should not overflow");
+    }
+
+    @Test
+    void testConcurrentTicksAreUnique() throws InterruptedException {
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    values.add(i % 2 == 0 ? lamportClock.tickAndGet() : lamportClock.updateAndGet(i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, values.size(), "No two events should get the same value");
+        assertEquals(40000, lamportClock.getValue());
+    }
 }
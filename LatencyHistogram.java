@@ -0,0 +1,178 @@
+/**
+ * LatencyHistogram, records latencies in nanoseconds into log-linear buckets, so recording costs O(1) and
+ * no allocation and the memory stays fixed whatever the number of samples. Each power of two is split into
+ * 64 linear sub-buckets, so every reported value is within 1/64 (about 1.6%) of a recorded value; values
+ * below 128 are exact. This class is not thread-safe: each thread records into its own histogram and the
+ * histograms are added up for the report.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // values below this are exact
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = 64 - SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = BUCKETS * HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue;
+    private double sum;
+
+    /**
+     * Records one value.
+     *
+     * @param value The value, such as a latency in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        minValue = Math.min(minValue, value);
+        maxValue = Math.max(maxValue, value);
+    }
+
+    /**
+     * Records one value measured by a client that waits for each response before sending the next request
+     * at a fixed interval. The requests that could not be sent while this one was delayed are recorded too,
+     * with the latencies they would have seen, so a stalled server is not hidden by the waiting client.
+     *
+     * @param value The measured value.
+     * @param expectedInterval The interval between two requests, 0 to record only the value.
+     */
+    public void recordWithExpectedInterval(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+            record(missed);
+        }
+    }
+
+    /**
+     * Adds the values of another histogram to this one.
+     *
+     * @param other The histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Adds values counted into one bucket by another recorder, such as the histograms of {@link ServerMetrics}.
+     * Only the bucket of the values is known, so they are taken as the highest value of the bucket.
+     *
+     * @param index The bucket, see {@link #indexOf(long)}.
+     * @param count The number of values in the bucket.
+     */
+    void addToBucket(int index, long count) {
+        if (count <= 0) {
+            return;
+        }
+        long value = highestValueOf(index);
+        counts[index] += count;
+        totalCount += count;
+        sum += (double) value * count;
+        minValue = Math.min(minValue, value);
+        maxValue = Math.max(maxValue, value);
+    }
+
+    /**
+     * Gets the value below or at which the given percentage of the recorded values are.
+     *
+     * @param percentile The percentile, between 0 and 100, such as 99.9.
+     * @return The highest value of the bucket holding the percentile, at most the largest recorded value,
+     *         or 0 if nothing was recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(maxValue, highestValueOf(i));
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Gets the number of recorded values at or below a value, within the precision of the buckets: the values
+     * sharing the bucket of the given value are counted too.
+     *
+     * @param value The value, such as a latency in nanoseconds.
+     * @return The number of values.
+     */
+    public long countAtOrBelow(long value) {
+        int last = indexOf(Math.max(0, value));
+        long count = 0;
+        for (int i = 0; i <= last; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return The number of values.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Gets the smallest recorded value.
+     *
+     * @return The smallest value, or 0 if nothing was recorded.
+     */
+    public long getMin() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return The largest value, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return maxValue;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return The mean, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * Gets the bucket of a value: the power of two selects a range of 64 buckets (128 for the exact values
+     * below 128), and the next 6 bits of the value select the bucket within it.
+     */
+    static int indexOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1));
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the highest value that falls in a bucket.
+     */
+    static long highestValueOf(int index) {
+        int shift = Math.max(0, index / HALF_SUB_BUCKETS - 1);
+        long lowest = (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
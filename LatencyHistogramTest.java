@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.valueAtPercentile(99));
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(50, histogram.valueAtPercentile(50));
+        assertEquals(99, histogram.valueAtPercentile(99));
+        assertEquals(100, histogram.valueAtPercentile(100));
+        assertEquals(1, histogram.valueAtPercentile(0));
+        assertEquals(50.5, histogram.getMean());
+    }
+
+    @Test
+    void testLargeValuesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1_000; value <= 1_000_000; value += 1_000) {
+            histogram.record(value * 1_000); // 1 ms to 1 s in nanoseconds
+        }
+        assertWithinPrecision(500_000_000L, histogram.valueAtPercentile(50));
+        assertWithinPrecision(990_000_000L, histogram.valueAtPercentile(99));
+        assertWithinPrecision(999_000_000L, histogram.valueAtPercentile(99.9));
+        assertEquals(1_000_000_000L, histogram.getMax());
+    }
+
+    @Test
+    void testBucketsCoverEveryValue() {
+        for (long value : new long[]{0, 1, 127, 128, 129, 255, 256, 1L << 40, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.highestValueOf(index) >= value, "Bucket of " + value);
+            assertTrue(index == 0 || LatencyHistogram.highestValueOf(index - 1) < value, "Bucket before " + value);
+        }
+    }
+
+    @Test
+    void testAddMergesHistograms() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(20);
+        second.record(30);
+
+        first.add(second);
+        assertEquals(3, first.getTotalCount());
+        assertEquals(10, first.getMin());
+        assertEquals(30, first.getMax());
+        assertEquals(20, first.valueAtPercentile(50));
+    }
+
+    @Test
+    void testExpectedIntervalRecordsMissedRequests() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordWithExpectedInterval(100, 10);
+
+        assertEquals(10, histogram.getTotalCount(), "A 100 ns stall hides 9 requests sent every 10 ns");
+        assertEquals(10, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    void testCountAtOrBelow() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value * 1_000L);
+        }
+        assertEquals(0, histogram.countAtOrBelow(500));
+        assertEquals(50, histogram.countAtOrBelow(50_000));
+        assertEquals(100, histogram.countAtOrBelow(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testAddToBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.addToBucket(LatencyHistogram.indexOf(50), 3);
+        histogram.addToBucket(LatencyHistogram.indexOf(1_000_000), 1);
+
+        assertEquals(4, histogram.getTotalCount());
+        assertEquals(50, histogram.valueAtPercentile(75));
+        assertWithinPrecision(1_000_000, histogram.getMax());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 64, "Expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadGenerator, simulates many ContentServers and GETClients in one JVM against a running AggregationServer,
+ * with the same wire protocol as ContentServer and GETClient. Every simulated client has its own connection and
+ * thread, sends requests at a fixed rate and waits for each response. At the end it reports the latency
+ * percentiles, the throughput, the errors and the number of open connections.
+ *
+ * By default latencies are measured from sending a request (closed loop): when the server stalls, the requests
+ * a client could not send are never measured, which hides the stall (coordinated omission). With --open-loop each
+ * client follows a fixed schedule and latencies are measured from the time a request was due, so the time spent
+ * waiting to send it counts as well.
+ */
+public class LoadGenerator {
+    private final String host;
+    private final int port;
+    private final boolean openLoop;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger peakConnections = new AtomicInteger();
+    private final LongAdder connectionFailures = new LongAdder();
+
+    /**
+     * LoadGenerator Constructor.
+     *
+     * @param host The host name of the AggregationServer.
+     * @param port The port number of the AggregationServer.
+     * @param openLoop Whether latencies are measured from the scheduled send time instead of the actual one.
+     */
+    public LoadGenerator(String host, int port, boolean openLoop) {
+        this.host = host;
+        this.port = port;
+        this.openLoop = openLoop;
+    }
+
+    /**
+     * Main method that runs the load and prints the report.
+     *
+     * @param args Command line arguments: the server as "servername:portnumber", followed by the options
+     *             "--content-servers=N" (default 10), "--put-rate=R" PUTs per second of each content server
+     *             (default 1), "--get-clients=M" (default 10), "--get-rate=R" GETs per second of each client
+     *             (default 10), "--duration=S" in seconds (default 10), "--get-path=PATH" (default /weather)
+     *             and "--open-loop".
+     * @throws InterruptedException if the thread is interrupted while waiting for the clients.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1 || !args[0].contains(":")) {
+            System.err.println("Usage: java LoadGenerator <servername:portnumber> [--content-servers=N] [--put-rate=R] " +
+                    "[--get-clients=M] [--get-rate=R] [--duration=S] [--get-path=PATH] [--open-loop]");
+            System.exit(1);
+        }
+        String host = args[0].split(":")[0];
+        int port = Integer.parseInt(args[0].split(":")[1]);
+        int contentServers = Integer.parseInt(getOption(args, "content-servers", "10"));
+        double putRate = Double.parseDouble(getOption(args, "put-rate", "1"));
+        int getClients = Integer.parseInt(getOption(args, "get-clients", "10"));
+        double getRate = Double.parseDouble(getOption(args, "get-rate", "10"));
+        int seconds = Integer.parseInt(getOption(args, "duration", "10"));
+        String getPath = getOption(args, "get-path", "/weather");
+        boolean openLoop = List.of(args).contains("--open-loop");
+
+        LoadGenerator generator = new LoadGenerator(host, port, openLoop);
+        System.out.println("Running " + contentServers + " content servers at " + putRate + " PUT/s and " + getClients +
+                " GET clients at " + getRate + " GET/s for " + seconds + " s (" + (openLoop ? "open" : "closed") + " loop)");
+        List<Stats> results = generator.run(contentServers, putRate, getClients, getRate, getPath,
+                TimeUnit.SECONDS.toNanos(seconds));
+        generator.printReport(results, seconds);
+    }
+
+    /**
+     * Runs the simulated clients until the duration is over.
+     *
+     * @param contentServers The number of simulated content servers.
+     * @param putRate The PUT requests per second of each content server.
+     * @param getClients The number of simulated GET clients.
+     * @param getRate The GET requests per second of each GET client.
+     * @param getPath The path requested by the GET clients.
+     * @param durationNanos The duration of the run.
+     * @return The statistics of the PUT and of the GET requests.
+     * @throws InterruptedException if the thread is interrupted while waiting for the clients.
+     */
+    public List<Stats> run(int contentServers, double putRate, int getClients, double getRate, String getPath,
+                           long durationNanos) throws InterruptedException {
+        Stats putStats = new Stats("PUT");
+        Stats getStats = new Stats("GET");
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < contentServers; i++) {
+            int index = i;
+            clients.add(startClient("content-server-" + i, () -> runClient(putStats, putRate, start, end,
+                    lamport -> putRequest(index, lamport))));
+        }
+        for (int i = 0; i < getClients; i++) {
+            String request = "GET " + getPath + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\nLamport-Clock: ";
+            clients.add(startClient("get-client-" + i, () -> runClient(getStats, getRate, start, end,
+                    lamport -> request + lamport + "\r\n")));
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return List.of(putStats, getStats);
+    }
+
+    private static Thread startClient(String name, Runnable client) {
+        Thread thread = new Thread(client, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Builds the PUT request of a simulated content server, which owns one station.
+     */
+    static String putRequest(int contentServer, long lamport) {
+        String data = "{\n    \"id\": \"LOAD" + contentServer + "\",\n    \"air_temp\": " +
+                ThreadLocalRandom.current().nextInt(-10, 40) + ",\n    \"rel_hum\": " +
+                ThreadLocalRandom.current().nextInt(0, 100) + "\n}";
+        return "PUT /weather_data.txt HTTP/1.1\r\nUser-Agent: ATOMClient/1/0\r\nContent-Type: text/Json\r\nContent-Length: "
+                + data.length() + "\r\nLamport-Clock: " + lamport + "\r\nSource-Id: load-generator-" + contentServer
+                + "\r\n\r\n" + data + "\r\n";
+    }
+
+    /**
+     * Sends requests on one connection at the given rate until the end of the run, reconnecting after an error.
+     */
+    private void runClient(Stats stats, double rate, long start, long end, RequestBuilder requests) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LamportClock lamportClock = new LamportClock();
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        // Spread the first requests of the clients over one interval
+        long due = start + (interval > 0 ? ThreadLocalRandom.current().nextLong(interval) : 0);
+        while (System.nanoTime() < end) {
+            try (Socket socket = new Socket(host, port);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                peakConnections.accumulateAndGet(openConnections.incrementAndGet(), Math::max);
+                try {
+                    while (true) {
+                        long now = System.nanoTime();
+                        if (interval == 0) {
+                            due = now;
+                        } else if (now < due) {
+                            LockSupport.parkNanos(due - now);
+                        } else if (!openLoop) {
+                            due = now; // a closed-loop client does not catch up on the requests it missed
+                        }
+                        if (due >= end) {
+                            break;
+                        }
+                        long sent = System.nanoTime();
+                        MessageFraming.writeMessage(out, MessageFraming.LEGACY_VERSION, requests.build(lamportClock.tickAndGet()));
+                        out.flush();
+                        String response = MessageFraming.readMessage(in, MessageFraming.LEGACY_VERSION);
+                        long received = System.nanoTime();
+                        histogram.record(received - (openLoop ? due : sent));
+                        stats.countStatus(statusOf(response));
+                        due += interval;
+                    }
+                } finally {
+                    openConnections.decrementAndGet();
+                }
+                break;
+            } catch (IOException e) {
+                connectionFailures.increment();
+                stats.errors.increment();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+        stats.add(histogram);
+    }
+
+    /**
+     * Gets the status code of a response, such as 200 for "HTTP/1.1 200 OK".
+     *
+     * @param response The response.
+     * @return The status code, or -1 if the response has no status line.
+     */
+    static int statusOf(String response) {
+        if (response == null || !response.startsWith("HTTP/1.") || response.length() < 12) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(response.substring(9, 12));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Prints the latency percentiles, the throughput, the errors and the connection counts.
+     */
+    private void printReport(List<Stats> results, int seconds) {
+        System.out.printf("%-4s %10s %8s %12s %10s %10s %10s %10s%n",
+                "", "responses", "errors", "throughput/s", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (Stats stats : results) {
+            LatencyHistogram histogram = stats.histogram;
+            System.out.printf("%-4s %10d %8d %12.1f %10.1f %10.1f %10.1f %10.1f%n", stats.name, histogram.getTotalCount(),
+                    stats.errors.sum(), histogram.getTotalCount() / (double) seconds,
+                    histogram.valueAtPercentile(50) / 1000.0, histogram.valueAtPercentile(99) / 1000.0,
+                    histogram.valueAtPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0);
+            System.out.println("     status codes: " + stats.statusCounts());
+        }
+        System.out.println("Open connections: " + openConnections.get() + " at the end, " + peakConnections.get() +
+                " at peak, " + connectionFailures.sum() + " failed or broken");
+    }
+
+    private static String getOption(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * RequestBuilder, builds the next request of a simulated client given its Lamport clock value.
+     */
+    private interface RequestBuilder {
+        String build(long lamport);
+    }
+
+    /**
+     * Stats, the latencies and status codes of one kind of request, added up from every client.
+     */
+    static final class Stats {
+        final String name;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void countStatus(int status) {
+            statuses.computeIfAbsent(status, code -> new LongAdder()).increment();
+            if (status < 200 || status >= 300) {
+                errors.increment();
+            }
+        }
+
+        synchronized void add(LatencyHistogram clientHistogram) {
+            histogram.add(clientHistogram);
+        }
+
+        Map<Integer, Long> statusCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            statuses.forEach((status, count) -> counts.put(status, count.sum()));
+            return counts;
+        }
+    }
+}
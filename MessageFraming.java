@@ -0,0 +1,234 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MessageFraming, reads and writes messages between the AggregationServer and its clients.
+ *
+ * Version 1 (legacy) frames every message with {@link DataOutputStream#writeUTF(String)}, which limits a message
+ * to 65535 encoded bytes. Version 2 sends a message as a sequence of chunks, each one a 32-bit length followed by
+ * that many UTF-8 bytes, and ends the message with a chunk of length 0. Large messages are written chunk by chunk
+ * from a byte buffer.
+ *
+ * A connection always starts with version 1. A client switches to version 2 by sending the negotiation request
+ * {@link #NEGOTIATION_REQUEST} as a version 1 message; a server that supports it answers with 200 OK and a
+ * Framing-Version header, after which both sides use version 2. Older servers answer 400 Bad Request, in which case
+ * the client keeps using version 1.
+ */
+public class MessageFraming {
+    static final int LEGACY_VERSION = 1;
+    static final int CHUNKED_VERSION = 2;
+    static final int CHUNK_SIZE = 16 * 1024;
+    static final int MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+    static final int MAX_LEGACY_MESSAGE_BYTES = 65535;
+    static final String FRAMING_HEADER = "Framing-Version:";
+    static final String NEGOTIATION_REQUEST = "OPTIONS /framing HTTP/1.1\r\n" + FRAMING_HEADER + " " + CHUNKED_VERSION + "\r\n";
+
+    /**
+     * Writes a message with the given framing version. Writes are synchronized on the stream,
+     * so a heartbeat thread and a request thread can share it.
+     *
+     * @param out The stream to write to.
+     * @param version The framing version of the connection.
+     * @param message The message to write.
+     * @throws IOException if the message cannot be written, or is too long for the legacy framing.
+     */
+    public static void writeMessage(DataOutputStream out, int version, String message) throws IOException {
+        synchronized (out) {
+            if (version == LEGACY_VERSION) {
+                out.writeUTF(message);
+            } else {
+                writeChunks(out, message.getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads a message with the given framing version.
+     *
+     * @param in The stream to read from.
+     * @param version The framing version of the connection.
+     * @return The message read.
+     * @throws IOException if the message cannot be read or is longer than {@link #MAX_MESSAGE_BYTES}.
+     */
+    public static String readMessage(DataInputStream in, int version) throws IOException {
+        if (version == LEGACY_VERSION) {
+            return in.readUTF();
+        }
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int chunkLength;
+        while ((chunkLength = in.readInt()) != 0) {
+            checkChunkLength(message.size(), chunkLength);
+            while (chunkLength > 0) {
+                int length = Math.min(chunkLength, chunk.length);
+                in.readFully(chunk, 0, length);
+                message.write(chunk, 0, length);
+                chunkLength -= length;
+            }
+        }
+        return message.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks the length of a received chunk before it is read.
+     *
+     * @param receivedBytes The number of bytes of the message received so far.
+     * @param chunkLength The length of the next chunk.
+     * @throws IOException if the length is negative or the message would exceed {@link #MAX_MESSAGE_BYTES}.
+     */
+    static void checkChunkLength(long receivedBytes, int chunkLength) throws IOException {
+        if (chunkLength < 0 || receivedBytes + chunkLength > MAX_MESSAGE_BYTES) {
+            throw new IOException("Message exceeds " + MAX_MESSAGE_BYTES + " bytes");
+        }
+    }
+
+    /**
+     * Encodes a message as a complete frame of the given framing version, the bytes {@link #writeMessage} writes.
+     *
+     * @param message The message to encode.
+     * @param version The framing version of the connection.
+     * @return The frame.
+     * @throws IOException if the message is too long for the legacy framing.
+     */
+    static byte[] encodeMessage(String message, int version) throws IOException {
+        if (version == LEGACY_VERSION) {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(message.length() + 2);
+            new DataOutputStream(frame).writeUTF(message);
+            return frame.toByteArray();
+        }
+        ByteBuffer chunks = encodeChunks(message);
+        return chunks.array(); // encodeChunks fills its whole array
+    }
+
+    /**
+     * Encodes a message as version 2 chunks followed by the end chunk.
+     *
+     * @param message The message to encode.
+     * @return A buffer holding the whole frame, ready to be written.
+     */
+    static ByteBuffer encodeChunks(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int chunks = (bytes.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        ByteBuffer frame = ByteBuffer.allocate(bytes.length + 4 * (chunks + 1));
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, bytes.length - offset);
+            frame.putInt(length).put(bytes, offset, length);
+        }
+        frame.putInt(0);
+        return frame.flip();
+    }
+
+    /**
+     * Writes the bytes of a message as version 2 chunks followed by the end chunk, without flushing.
+     *
+     * @param out The stream to write to.
+     * @param bytes The UTF-8 bytes of the message.
+     * @throws IOException if the chunks cannot be written.
+     */
+    static void writeChunks(DataOutputStream out, byte[] bytes) throws IOException {
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, bytes.length - offset);
+            out.writeInt(length);
+            out.write(bytes, offset, length);
+        }
+        out.writeInt(0);
+    }
+
+    /**
+     * Checks whether a message can be written with the legacy framing, whose length field holds at most
+     * 65535 bytes of modified UTF-8.
+     *
+     * @param message The message to check.
+     * @return true if the encoded message fits in a writeUTF frame, false otherwise.
+     */
+    static boolean fitsLegacyFraming(String message) {
+        if (message.length() * 3L <= MAX_LEGACY_MESSAGE_BYTES) {
+            return true;
+        }
+        long encodedLength = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            encodedLength += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        return encodedLength <= MAX_LEGACY_MESSAGE_BYTES;
+    }
+
+    /**
+     * Checks whether a message is a framing negotiation request and returns the version it asks for.
+     *
+     * @param message The message received.
+     * @return The requested framing version, or -1 if the message is not a negotiation request.
+     */
+    static int requestedVersion(String message) {
+        if (!message.startsWith("OPTIONS /framing")) {
+            return -1;
+        }
+        int version = extractVersion(message);
+        return version == -1 ? LEGACY_VERSION : version;
+    }
+
+    /**
+     * Builds the server's answer to a negotiation request.
+     *
+     * @param requestedVersion The version asked for by the client.
+     * @return The response, announcing the version both sides use from now on.
+     */
+    static String negotiationResponse(int requestedVersion) {
+        return "HTTP/1.1 200 OK\r\n" + FRAMING_HEADER + " " + acceptedVersion(requestedVersion) + "\r\n";
+    }
+
+    /**
+     * Gets the version the server uses after a negotiation request.
+     *
+     * @param requestedVersion The version asked for by the client.
+     * @return The highest version supported by both sides.
+     */
+    static int acceptedVersion(int requestedVersion) {
+        return Math.max(LEGACY_VERSION, Math.min(requestedVersion, CHUNKED_VERSION));
+    }
+
+    /**
+     * Asks the server to switch to the chunked framing. Must be called before any other message is sent.
+     *
+     * @param out The stream to the server.
+     * @param in The stream from the server.
+     * @return The framing version to use with this server, {@link #LEGACY_VERSION} if it does not support version 2.
+     * @throws IOException if the negotiation cannot be sent or its answer cannot be read.
+     */
+    public static int negotiate(DataOutputStream out, DataInputStream in) throws IOException {
+        writeMessage(out, LEGACY_VERSION, NEGOTIATION_REQUEST);
+        return negotiatedVersion(in.readUTF());
+    }
+
+    /**
+     * Gets the framing version announced by the server's answer to a negotiation request.
+     *
+     * @param response The answer of the server.
+     * @return {@link #CHUNKED_VERSION} if the server accepted it, {@link #LEGACY_VERSION} otherwise.
+     */
+    static int negotiatedVersion(String response) {
+        if (!response.startsWith("HTTP/1.1 200")) {
+            return LEGACY_VERSION;
+        }
+        return extractVersion(response) == CHUNKED_VERSION ? CHUNKED_VERSION : LEGACY_VERSION;
+    }
+
+    private static int extractVersion(String message) {
+        int headerIndex = message.indexOf(FRAMING_HEADER);
+        if (headerIndex == -1) {
+            return -1;
+        }
+        int valueEnd = message.indexOf("\r\n", headerIndex);
+        String value = message.substring(headerIndex + FRAMING_HEADER.length(), valueEnd == -1 ? message.length() : valueEnd);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
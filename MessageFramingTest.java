@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageFramingTest {
+
+    private static String largeMessage(int length) {
+        StringBuilder message = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            message.append((char) ('a' + i % 26));
+        }
+        return message.toString();
+    }
+
+    private static String roundTrip(String message, int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageFraming.writeMessage(new DataOutputStream(bytes), version, message);
+        return MessageFraming.readMessage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), version);
+    }
+
+    @Test
+    void testLegacyRoundTrip() throws IOException {
+        assertEquals("GET /weather", roundTrip("GET /weather", MessageFraming.LEGACY_VERSION));
+    }
+
+    @Test
+    void testChunkedRoundTripLargerThanLegacyLimit() throws IOException {
+        String message = largeMessage(200_000) + "\u00e9\u4e2d";
+        assertEquals(message, roundTrip(message, MessageFraming.CHUNKED_VERSION));
+    }
+
+    @Test
+    void testChunkedEmptyMessage() throws IOException {
+        assertEquals("", roundTrip("", MessageFraming.CHUNKED_VERSION));
+    }
+
+    @Test
+    void testEncodeChunksMatchesWriteChunks() throws IOException {
+        String message = largeMessage(40_000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageFraming.writeChunks(new DataOutputStream(bytes), message.getBytes());
+        ByteBuffer frame = MessageFraming.encodeChunks(message);
+        byte[] encoded = new byte[frame.remaining()];
+        frame.get(encoded);
+        assertArrayEquals(bytes.toByteArray(), encoded);
+        // 16 KB + 16 KB + the rest, then the end chunk
+        assertEquals(40_000 + 4 * 4, encoded.length);
+    }
+
+    @Test
+    void testRejectsOversizedChunk() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> {
+            new DataOutputStream(bytes).writeInt(MessageFraming.MAX_MESSAGE_BYTES + 1);
+            MessageFraming.readMessage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                    MessageFraming.CHUNKED_VERSION);
+        });
+    }
+
+    @Test
+    void testFitsLegacyFraming() {
+        assertTrue(MessageFraming.fitsLegacyFraming(largeMessage(65535)));
+        assertFalse(MessageFraming.fitsLegacyFraming(largeMessage(65536)));
+        assertFalse(MessageFraming.fitsLegacyFraming("\u4e2d".repeat(21846)));
+    }
+
+    @Test
+    void testNegotiation() throws IOException {
+        assertEquals(-1, MessageFraming.requestedVersion("GET /weather HTTP/1.1\r\n"));
+        int requested = MessageFraming.requestedVersion(MessageFraming.NEGOTIATION_REQUEST);
+        assertEquals(MessageFraming.CHUNKED_VERSION, requested);
+        assertEquals(MessageFraming.CHUNKED_VERSION, MessageFraming.acceptedVersion(7));
+
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        new DataOutputStream(answer).writeUTF(MessageFraming.negotiationResponse(requested));
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        int version = MessageFraming.negotiate(new DataOutputStream(request),
+                new DataInputStream(new ByteArrayInputStream(answer.toByteArray())));
+        assertEquals(MessageFraming.CHUNKED_VERSION, version);
+        assertEquals(MessageFraming.NEGOTIATION_REQUEST,
+                new DataInputStream(new ByteArrayInputStream(request.toByteArray())).readUTF());
+    }
+
+    @Test
+    void testNegotiationWithLegacyServer() {
+        assertEquals(MessageFraming.LEGACY_VERSION,
+                MessageFraming.negotiatedVersion("HTTP/1.1 400 Bad Request\r\nInvalid request.\n"));
+    }
+}
@@ -0,0 +1,483 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * NioAggregationServer, an event-loop mode of the AggregationServer built on {@link Selector}.
+ * Accepted connections are spread over a small number of I/O threads, each of them reading and writing
+ * its connections without blocking. The wire format is the same as in the thread-per-connection mode:
+ * every message is a {@link DataOutputStream#writeUTF(String)} frame (2-byte length followed by modified UTF-8)
+ * until the client negotiates the chunked framing of {@link MessageFraming},
+ * so the existing GETClient and ContentServer work with both modes.
+ *
+ * GET and HEARTBEAT requests are answered from memory on the I/O thread. A PUT waits for the update log,
+ * so it runs on a worker instead: the connection stops reading until the worker hands the response back to
+ * its I/O thread, which keeps the responses of a connection in request order while the other connections
+ * of the I/O thread go on. A PUT that finds every worker busy is answered with 503 Service Unavailable.
+ */
+public class NioAggregationServer {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_FRAME_LENGTH = 2 + 65535;
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] eventLoops;
+    private final ExecutorService workers;
+    private volatile boolean running = true;
+
+    /**
+     * NioAggregationServer Constructor. Binds the server to the given port, with the default worker pool
+     * for PUT requests.
+     *
+     * @param port The port number on which the server listens, 0 to use any free port.
+     * @param ioThreads The number of I/O threads, at least 1.
+     * @throws IOException if the server cannot listen on the port.
+     */
+    public NioAggregationServer(int port, int ioThreads) throws IOException {
+        this(port, ioThreads, AggregationServer.newWorkerPool(AggregationServer.DEFAULT_MAX_WORKERS,
+                AggregationServer.DEFAULT_QUEUE_CAPACITY));
+    }
+
+    /**
+     * NioAggregationServer Constructor. Binds the server to the given port.
+     *
+     * @param port The port number on which the server listens, 0 to use any free port.
+     * @param ioThreads The number of I/O threads, at least 1.
+     * @param workers The workers that handle PUT requests, shut down with the server. It throws a
+     *                RejectedExecutionException when it is saturated.
+     * @throws IOException if the server cannot listen on the port.
+     */
+    public NioAggregationServer(int port, int ioThreads, ExecutorService workers) throws IOException {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("At least one I/O thread is required: " + ioThreads);
+        }
+        this.workers = workers;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        eventLoops = new EventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            eventLoops[i] = new EventLoop(Selector.open(), workers);
+        }
+    }
+
+    /**
+     * Gets the port number the server is bound to.
+     *
+     * @return The local port number.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Starts the I/O threads, then accepts connections on the calling thread until the server is closed.
+     * Accepted connections are assigned to the I/O threads in round-robin order.
+     */
+    public void run() {
+        for (int i = 0; i < eventLoops.length; i++) {
+            Thread ioThread = new Thread(eventLoops[i], "aggregation-io-" + i);
+            ioThread.setDaemon(true);
+            ioThread.start();
+        }
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                eventLoops[next].register(channel);
+                next = (next + 1) % eventLoops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes every connection of the I/O threads.
+     */
+    public void close() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing server channel: " + e.getMessage());
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.close();
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Encodes a message as a writeUTF frame.
+     *
+     * @param message The message to encode.
+     * @return A buffer holding the 2-byte length and the modified UTF-8 bytes of the message.
+     * @throws IOException if the encoded message is longer than 65535 bytes.
+     */
+    static ByteBuffer encodeFrame(String message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length() + 2);
+        new DataOutputStream(bytes).writeUTF(message);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * EventLoop, one I/O thread with its own selector and the connections assigned to it.
+     */
+    static final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ExecutorService workers;
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+
+        EventLoop(Selector selector, ExecutorService workers) {
+            this.selector = selector;
+            this.workers = workers;
+        }
+
+        /**
+         * Hands over an accepted connection to this I/O thread.
+         *
+         * @param channel The non-blocking channel of the connection.
+         */
+        void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Waits for ready connections and serves them until the selector is closed.
+         */
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    registerPendingChannels();
+                    runCompletions();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        serve(key);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error in I/O thread: " + e.getMessage());
+                } catch (ClosedSelectorException e) {
+                    break;
+                }
+            }
+        }
+
+        void close() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close(key);
+                }
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing I/O thread: " + e.getMessage());
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, new Connection(this));
+                    AggregationServer.metrics().connectionOpened();
+                } catch (ClosedChannelException e) {
+                    System.err.println("Connection closed before it was registered.");
+                }
+            }
+        }
+
+        /**
+         * Runs a request on a worker, then hands its response back to this I/O thread.
+         *
+         * @param key The key of the connection, which stops reading until the response is written.
+         * @param message The request.
+         * @throws RejectedExecutionException if every worker is busy.
+         */
+        void execute(SelectionKey key, String message) {
+            Connection connection = (Connection) key.attachment();
+            workers.execute(() -> {
+                AggregationServer.Response response = null;
+                IOException failure = null;
+                try {
+                    response = AggregationServer.processRequest(message, connection.id);
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new IOException(e.toString(), e);
+                }
+                AggregationServer.Response result = response;
+                IOException error = failure;
+                completions.add(() -> serve(key, () -> connection.complete(key, result, error)));
+                selector.wakeup();
+            });
+        }
+
+        private void runCompletions() {
+            Runnable completion;
+            while ((completion = completions.poll()) != null) {
+                completion.run();
+            }
+        }
+
+        private void serve(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            serve(key, () -> {
+                if (key.isValid() && key.isReadable()) {
+                    connection.read(key);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.write(key);
+                }
+            });
+        }
+
+        /**
+         * Runs an action of a connection, closing the connection if the action fails.
+         */
+        private void serve(SelectionKey key, IOAction action) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                action.run();
+            } catch (IOException e) {
+                System.err.println("Error handling request in socket ID: " + connection.id + " - " + e.getMessage());
+                connection.close(key);
+            } catch (RuntimeException e) {
+                // A request that breaks its handler only closes its own connection, not the whole I/O thread
+                System.err.println("Unexpected error in socket ID: " + connection.id + " - " + e);
+                connection.close(key);
+            }
+        }
+    }
+
+    /**
+     * IOAction, an action on a connection of the I/O thread.
+     */
+    interface IOAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Encodes a message with the given framing version.
+     *
+     * @param message The message to encode.
+     * @param framingVersion The framing version of the connection.
+     * @return A buffer holding the frame.
+     * @throws IOException if the message is too long for the legacy framing.
+     */
+    static ByteBuffer encodeFrame(String message, int framingVersion) throws IOException {
+        if (framingVersion == MessageFraming.LEGACY_VERSION) {
+            return encodeFrame(message);
+        }
+        return MessageFraming.encodeChunks(message);
+    }
+
+    /**
+     * Connection, the read buffer and the pending responses of one connection.
+     * With the chunked framing, the chunks of a message are copied out of the read buffer as they arrive,
+     * so the read buffer does not need to hold a whole chunk.
+     */
+    static final class Connection {
+        private final long id = AggregationServer.nextConnectionId();
+        private final EventLoop eventLoop;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private int framingVersion = MessageFraming.LEGACY_VERSION;
+        private final ByteArrayOutputStream chunkedMessage = new ByteArrayOutputStream();
+        private int chunkRemaining;
+        private boolean closed;
+
+        Connection(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        /**
+         * Reads the available bytes and processes every complete frame.
+         */
+        void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                close(key);
+                return;
+            }
+            AggregationServer.metrics().addBytesReceived(read);
+            processMessages(key);
+        }
+
+        /**
+         * Processes the complete frames of the read buffer, until a PUT is handed to a worker.
+         */
+        private void processMessages(SelectionKey key) throws IOException {
+            readBuffer.flip();
+            String message;
+            while ((message = framingVersion == MessageFraming.LEGACY_VERSION ? nextLegacyMessage() : nextChunkedMessage()) != null) {
+                int requestedVersion = MessageFraming.requestedVersion(message);
+                if (requestedVersion != -1) {
+                    writeQueue.add(encodeFrame(MessageFraming.negotiationResponse(requestedVersion), framingVersion));
+                    framingVersion = MessageFraming.acceptedVersion(requestedVersion);
+                    continue;
+                }
+                if (message.startsWith("PUT")) {
+                    try {
+                        eventLoop.execute(key, message);
+                        // The following requests wait in the read buffer until the PUT is answered
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                        break;
+                    } catch (RejectedExecutionException e) {
+                        writeQueue.add(encodeFrame(AggregationServer.BUSY_RESPONSE, framingVersion));
+                        continue;
+                    }
+                }
+                AggregationServer.Response response = AggregationServer.processRequest(message, id);
+                if (response != null) {
+                    // The frame of a cached GET response is shared, writing it never modifies the array
+                    writeQueue.add(ByteBuffer.wrap(response.encodeFrame(framingVersion)));
+                }
+            }
+            readBuffer.compact();
+            growReadBufferIfFull();
+            if (!writeQueue.isEmpty()) {
+                write(key);
+            }
+        }
+
+        /**
+         * Writes the response of a PUT handled by a worker, then goes on with the requests read meanwhile.
+         *
+         * @param key The key of the connection.
+         * @param response The response of the PUT.
+         * @param failure The error of the PUT, or null if it succeeded.
+         * @throws IOException if the PUT failed, the connection is then closed.
+         */
+        void complete(SelectionKey key, AggregationServer.Response response, IOException failure) throws IOException {
+            if (closed || !key.isValid()) {
+                return;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            writeQueue.add(ByteBuffer.wrap(response.encodeFrame(framingVersion)));
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            processMessages(key);
+        }
+
+        /**
+         * Writes as many pending responses as the socket accepts, and waits for OP_WRITE for the rest.
+         */
+        void write(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            ByteBuffer buffer;
+            while ((buffer = writeQueue.peek()) != null) {
+                AggregationServer.metrics().addBytesSent(channel.write(buffer));
+                if (buffer.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeQueue.poll();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+
+        void close(SelectionKey key) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            AggregationServer.metrics().connectionClosed();
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                System.err.println("Error closing socket ID: " + id + " - " + e.getMessage());
+            }
+        }
+
+        /**
+         * Takes the next complete writeUTF frame out of the read buffer.
+         *
+         * @return The message, or null if the frame is not complete yet.
+         */
+        private String nextLegacyMessage() throws IOException {
+            if (readBuffer.remaining() < 2) {
+                return null;
+            }
+            int frameLength = 2 + (readBuffer.getShort(readBuffer.position()) & 0xFFFF);
+            if (readBuffer.remaining() < frameLength) {
+                return null;
+            }
+            return decodeFrame(readBuffer, frameLength);
+        }
+
+        /**
+         * Copies the available chunk bytes out of the read buffer until the end chunk of a message is read.
+         *
+         * @return The message, or null if the end chunk has not been received yet.
+         */
+        private String nextChunkedMessage() throws IOException {
+            while (true) {
+                if (chunkRemaining > 0) {
+                    int length = Math.min(chunkRemaining, readBuffer.remaining());
+                    if (length == 0) {
+                        return null;
+                    }
+                    chunkedMessage.write(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), length);
+                    readBuffer.position(readBuffer.position() + length);
+                    chunkRemaining -= length;
+                } else if (readBuffer.remaining() >= 4) {
+                    int chunkLength = readBuffer.getInt();
+                    if (chunkLength == 0) {
+                        String message = chunkedMessage.toString(StandardCharsets.UTF_8);
+                        chunkedMessage.reset();
+                        return message;
+                    }
+                    MessageFraming.checkChunkLength(chunkedMessage.size(), chunkLength);
+                    chunkRemaining = chunkLength;
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Grows the read buffer when a frame does not fit in it, up to the largest possible writeUTF frame.
+         */
+        private void growReadBufferIfFull() {
+            if (readBuffer.hasRemaining() || readBuffer.capacity() >= MAX_FRAME_LENGTH) {
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_FRAME_LENGTH));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+
+        private static String decodeFrame(ByteBuffer buffer, int frameLength) throws IOException {
+            byte[] frame = new byte[frameLength];
+            buffer.get(frame);
+            return new DataInputStream(new ByteArrayInputStream(frame)).readUTF();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioAggregationServerTest {
+    private NioAggregationServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new NioAggregationServer(0, 2);
+        Thread acceptor = new Thread(server::run);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void testPutThenGet() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort());
+             DataInputStream in = new DataInputStream(socket.getInputStream());
+             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+            ContentServer.sendPutRequest(out, "data/inputData.txt");
+            assertTrue(ContentServer.readServerResponse(in), "PUT request should be successful");
+
+            out.writeUTF("GET /weather HTTP/1.1\r\nLamport-Clock: 0\r\n");
+            String data = in.readUTF();
+            assertTrue(data.startsWith("HTTP/1.1 200 OK"), data);
+            assertTrue(data.contains("IDS60901"));
+        }
+    }
+
+    @Test
+    void testPutRunsOnAWorker() throws IOException, InterruptedException {
+        ThreadPoolExecutor workers = AggregationServer.newWorkerPool(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        workers.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        NioAggregationServer singleLoop = new NioAggregationServer(0, 1, workers);
+        Thread acceptor = new Thread(singleLoop::run);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try (Socket putter = new Socket("localhost", singleLoop.getPort());
+             Socket getter = new Socket("localhost", singleLoop.getPort())) {
+            putter.setSoTimeout(5000);
+            getter.setSoTimeout(5000);
+            DataOutputStream putOut = new DataOutputStream(putter.getOutputStream());
+            putOut.writeUTF("PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n{\"id\":\"WORKER01\"}\r\n");
+            putOut.writeUTF("INVALID");
+
+            // The PUT waits for the busy worker, the I/O thread still answers the other connection
+            new DataOutputStream(getter.getOutputStream()).writeUTF("INVALID");
+            assertTrue(new DataInputStream(getter.getInputStream()).readUTF().startsWith("HTTP/1.1 400"));
+
+            release.countDown();
+            DataInputStream putIn = new DataInputStream(putter.getInputStream());
+            assertTrue(putIn.readUTF().startsWith("HTTP/1.1 20"), "The PUT is answered once a worker ran it");
+            assertTrue(putIn.readUTF().startsWith("HTTP/1.1 400"), "The requests after it are answered in order");
+        } finally {
+            singleLoop.close();
+        }
+    }
+
+    @Test
+    void testPutIsRejectedWhenEveryWorkerIsBusy() throws IOException, InterruptedException {
+        ThreadPoolExecutor workers = AggregationServer.newWorkerPool(1, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        workers.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        NioAggregationServer busy = new NioAggregationServer(0, 1, workers);
+        Thread acceptor = new Thread(busy::run);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try (Socket socket = new Socket("localhost", busy.getPort())) {
+            socket.setSoTimeout(5000);
+            new DataOutputStream(socket.getOutputStream())
+                    .writeUTF("PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n{\"id\":\"WORKER02\"}\r\n");
+            String response = new DataInputStream(socket.getInputStream()).readUTF();
+            assertTrue(response.startsWith("HTTP/1.1 503"), response);
+            assertTrue(response.contains("Retry-After: " + AggregationServer.RETRY_AFTER_SECONDS));
+        } finally {
+            release.countDown();
+            busy.close();
+        }
+    }
+
+    @Test
+    void testHeartbeatHasNoResponse() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort());
+             DataInputStream in = new DataInputStream(socket.getInputStream());
+             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+            out.writeUTF("HEARTBEAT");
+            out.writeUTF("INVALID");
+            out.flush();
+            // The first response belongs to the invalid request, the heartbeat is not answered
+            assertTrue(in.readUTF().startsWith("HTTP/1.1 400 Bad Request"));
+        }
+    }
+
+    @Test
+    void testMalformedLamportClockDoesNotStopTheLoop() throws IOException {
+        // Connections are assigned in round-robin order, so the first and the third share an I/O thread
+        try (Socket first = new Socket("localhost", server.getPort());
+             Socket second = new Socket("localhost", server.getPort());
+             Socket third = new Socket("localhost", server.getPort())) {
+            first.setSoTimeout(5000);
+            second.setSoTimeout(5000);
+            third.setSoTimeout(5000);
+            new DataOutputStream(first.getOutputStream()).writeUTF("GET /weather HTTP/1.1\r\nLamport-Clock: abc\r\n");
+            assertTrue(new DataInputStream(first.getInputStream()).readUTF().startsWith("HTTP/1.1 "));
+
+            new DataOutputStream(second.getOutputStream()).writeUTF("INVALID");
+            assertTrue(new DataInputStream(second.getInputStream()).readUTF().startsWith("HTTP/1.1 400"));
+
+            new DataOutputStream(third.getOutputStream()).writeUTF("INVALID");
+            assertTrue(new DataInputStream(third.getInputStream()).readUTF().startsWith("HTTP/1.1 400"));
+        }
+    }
+
+    @Test
+    void testFrameSplitAcrossWrites() throws IOException, InterruptedException {
+        ByteBuffer frame = NioAggregationServer.encodeFrame("INVALID");
+        byte[] bytes = frame.array();
+        try (Socket socket = new Socket("localhost", server.getPort());
+             DataInputStream in = new DataInputStream(socket.getInputStream())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(bytes, 0, 1);
+            out.flush();
+            Thread.sleep(100);
+            out.write(bytes, 1, bytes.length - 1);
+            out.flush();
+            assertTrue(in.readUTF().startsWith("HTTP/1.1 400 Bad Request"));
+        }
+    }
+
+    @Test
+    void testManyConnectionsOnFewThreads() throws IOException {
+        Socket[] sockets = new Socket[50];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new Socket("localhost", server.getPort());
+                new DataOutputStream(sockets[i].getOutputStream()).writeUTF("INVALID");
+            }
+            for (Socket socket : sockets) {
+                assertTrue(new DataInputStream(socket.getInputStream()).readUTF().startsWith("HTTP/1.1 400"));
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    void testEncodeFrameMatchesWriteUTF() throws IOException {
+        ByteBuffer frame = NioAggregationServer.encodeFrame("GET /weather");
+        assertEquals(2 + "GET /weather".length(), frame.remaining());
+        assertEquals("GET /weather".length(), frame.getShort(0));
+    }
+
+    @Test
+    void testChunkedFramingForLargeResponses() throws IOException {
+        String padding = "x".repeat(4000);
+        try (Socket socket = new Socket("localhost", server.getPort());
+             DataInputStream in = new DataInputStream(socket.getInputStream());
+             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+            for (int i = 0; i < RecencyIndex.DEFAULT_CAPACITY; i++) {
+                String json = "{\"id\":\"FRAMING" + i + "\",\"padding\":\"" + padding + "\"}";
+                out.writeUTF("PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 0\r\n\r\n" + json + "\r\n");
+                assertFalse(in.readUTF().startsWith("HTTP/1.1 500"));
+            }
+            // Twenty stations of 4 KB do not fit in a writeUTF frame
+            out.writeUTF("GET /weather/all HTTP/1.1\r\nLamport-Clock: 0\r\n");
+            assertTrue(in.readUTF().startsWith("HTTP/1.1 413"));
+
+            assertEquals(MessageFraming.CHUNKED_VERSION, MessageFraming.negotiate(out, in));
+            MessageFraming.writeMessage(out, MessageFraming.CHUNKED_VERSION, "GET /weather/all HTTP/1.1\r\nLamport-Clock: 0\r\n");
+            String response = MessageFraming.readMessage(in, MessageFraming.CHUNKED_VERSION);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response.length() > MessageFraming.MAX_LEGACY_MESSAGE_BYTES);
+            for (int i = 0; i < RecencyIndex.DEFAULT_CAPACITY; i++) {
+                assertTrue(response.contains("\"FRAMING" + i + "\""));
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RecencyIndex, a bounded index that keeps the N most recent entries of the WeatherDataStore.
+ * Entries are ordered by their timestamp (epoch milliseconds), then by their Lamport clock value,
+ * so updates received within the same millisecond still have a deterministic order.
+ * Insertion, removal and eviction of the oldest entry take O(log N).
+ * The index is a concurrent skip list, so threads updating different stations never lock each other out;
+ * the size is counted separately since counting the skip list visits every entry.
+ */
+public class RecencyIndex {
+    static final int DEFAULT_CAPACITY = 20;
+
+    static final Comparator<WeatherDataStore.WeatherEntry> RECENCY_ORDER =
+            Comparator.<WeatherDataStore.WeatherEntry>comparingLong(entry -> entry.timestamp)
+                    .thenComparingLong(entry -> entry.lamport)
+                    .thenComparing(entry -> entry.stationId);
+
+    private final ConcurrentSkipListSet<WeatherDataStore.WeatherEntry> entries = new ConcurrentSkipListSet<>(RECENCY_ORDER);
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile int capacity;
+
+    /**
+     * RecencyIndex Constructor.
+     *
+     * @param capacity The maximum number of entries to keep.
+     */
+    public RecencyIndex(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Adds an entry to the index. If the index holds more entries than its capacity afterwards,
+     * the oldest entry is evicted and returned.
+     *
+     * @param entry The entry to be added.
+     * @return The evicted entry, or null if no entry was evicted.
+     */
+    public WeatherDataStore.WeatherEntry add(WeatherDataStore.WeatherEntry entry) {
+        if (entries.add(entry)) {
+            size.incrementAndGet();
+        }
+        return evictOverflow();
+    }
+
+    /**
+     * Removes an entry from the index.
+     *
+     * @param entry The entry to be removed.
+     */
+    public void remove(WeatherDataStore.WeatherEntry entry) {
+        if (entries.remove(entry)) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes and returns the oldest entry if the index holds more entries than its capacity.
+     *
+     * @return The evicted entry, or null if the index is within its capacity.
+     */
+    public WeatherDataStore.WeatherEntry evictOverflow() {
+        while (size.get() > capacity) {
+            WeatherDataStore.WeatherEntry oldest = entries.pollFirst();
+            if (oldest != null) {
+                size.decrementAndGet();
+                return oldest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the most recent entry.
+     *
+     * @return The most recent entry, or null if the index is empty.
+     */
+    public WeatherDataStore.WeatherEntry newest() {
+        Iterator<WeatherDataStore.WeatherEntry> newestFirst = entries.descendingIterator();
+        return newestFirst.hasNext() ? newestFirst.next() : null;
+    }
+
+    /**
+     * Gets the number of entries in the index.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Gets the maximum number of entries kept by the index.
+     *
+     * @return The capacity of the index.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the maximum number of entries kept by the index.
+     * Call {@link #evictOverflow()} afterwards to evict the entries over a smaller capacity.
+     *
+     * @param capacity The maximum number of entries to keep, at least 1.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Removes every entry from the index.
+     */
+    public void clear() {
+        while (entries.pollFirst() != null) {
+            size.decrementAndGet();
+        }
+    }
+}
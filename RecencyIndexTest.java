@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecencyIndexTest {
+    private RecencyIndex recencyIndex;
+
+    @BeforeEach
+    void setUp() {
+        recencyIndex = new RecencyIndex(3);
+    }
+
+    private static WeatherDataStore.WeatherEntry entry(String stationId, long timestamp, long lamport) {
+        return new WeatherDataStore.WeatherEntry(stationId, "{ \"id\": \"" + stationId + "\" }", 1, timestamp, lamport);
+    }
+
+    @Test
+    void testNewestEntry() {
+        recencyIndex.add(entry("A", 2000, 1));
+        recencyIndex.add(entry("B", 3000, 2));
+        recencyIndex.add(entry("C", 1000, 3));
+
+        assertEquals("B", recencyIndex.newest().stationId);
+    }
+
+    @Test
+    void testEvictOldestOverCapacity() {
+        assertNull(recencyIndex.add(entry("A", 1000, 1)));
+        assertNull(recencyIndex.add(entry("B", 2000, 2)));
+        assertNull(recencyIndex.add(entry("C", 3000, 3)));
+        WeatherDataStore.WeatherEntry evicted = recencyIndex.add(entry("D", 4000, 4));
+
+        assertNotNull(evicted);
+        assertEquals("A", evicted.stationId, "The oldest entry should be evicted");
+        assertEquals(3, recencyIndex.size());
+    }
+
+    @Test
+    void testLamportClockBreaksTimestampTies() {
+        recencyIndex.add(entry("A", 1000, 9));
+        recencyIndex.add(entry("B", 1000, 2));
+        recencyIndex.add(entry("C", 1000, 5));
+        WeatherDataStore.WeatherEntry evicted = recencyIndex.add(entry("D", 1000, 7));
+
+        assertEquals("B", evicted.stationId, "The lowest Lamport clock should be evicted first");
+        assertEquals("A", recencyIndex.newest().stationId);
+    }
+
+    @Test
+    void testRemove() {
+        WeatherDataStore.WeatherEntry a = entry("A", 1000, 1);
+        recencyIndex.add(a);
+        recencyIndex.add(entry("B", 500, 2));
+        recencyIndex.remove(a);
+
+        assertEquals(1, recencyIndex.size());
+        assertEquals("B", recencyIndex.newest().stationId);
+    }
+
+    @Test
+    void testShrinkCapacity() {
+        recencyIndex.add(entry("A", 1000, 1));
+        recencyIndex.add(entry("B", 2000, 2));
+        recencyIndex.setCapacity(1);
+
+        assertEquals("A", recencyIndex.evictOverflow().stationId);
+        assertNull(recencyIndex.evictOverflow());
+    }
+
+    @Test
+    void testInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new RecencyIndex(0));
+    }
+}
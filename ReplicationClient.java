@@ -0,0 +1,125 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ReplicationClient, keeps a backup AggregationServer up to date with its primary, see {@link ReplicationServer}.
+ * The backup follows the first server of its list that is a primary, applying every update it receives to its
+ * own store and update log. When no server of the list has been reachable as a primary for the takeover
+ * timeout times the length of the list, the backup takes over as primary. A backup listed after another one
+ * therefore waits longer, and follows the first backup once that one has taken over instead of taking over too.
+ */
+public class ReplicationClient implements Runnable {
+    static final long DEFAULT_TAKEOVER_MILLIS = 5000;
+    private static final long RETRY_MILLIS = 500;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private final List<String> upstreams;
+    private final long takeoverMillis;
+    private final ReplicationLog replicationLog;
+    private volatile long lastContact;
+    private volatile boolean running = true;
+
+    /**
+     * ReplicationClient Constructor.
+     *
+     * @param upstreams The replication ports of the servers to follow as "host:port", in order of preference.
+     * @param takeoverMillis How long the first server of the list may be unreachable before this backup takes over.
+     * @param replicationLog The log in which the backup keeps the updates it applied, for its own backups.
+     */
+    public ReplicationClient(List<String> upstreams, long takeoverMillis, ReplicationLog replicationLog) {
+        this.upstreams = upstreams;
+        this.takeoverMillis = takeoverMillis;
+        this.replicationLog = replicationLog;
+    }
+
+    /**
+     * Follows the primary until this backup takes over or is stopped.
+     */
+    public void run() {
+        lastContact = System.currentTimeMillis();
+        while (running) {
+            for (String upstream : upstreams) {
+                if (running) {
+                    follow(upstream);
+                }
+            }
+            if (running && System.currentTimeMillis() - lastContact >= takeoverMillis * upstreams.size()) {
+                System.out.println("No primary reachable for " + (System.currentTimeMillis() - lastContact) +
+                        " ms, taking over.");
+                running = false;
+                AggregationServer.promote();
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+        }
+    }
+
+    /**
+     * Stops following the primary.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Receives and applies the updates of one server until the connection fails.
+     *
+     * @param upstream The replication port of the server as "host:port".
+     */
+    private void follow(String upstream) {
+        int colon = upstream.lastIndexOf(':');
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(upstream.substring(0, colon),
+                    Integer.parseInt(upstream.substring(colon + 1))), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout((int) (3 * ReplicationServer.HEARTBEAT_MILLIS));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            MessageFraming.writeMessage(out, MessageFraming.CHUNKED_VERSION, ReplicationServer.REPLICATE + " " +
+                    replicationLog.getHistoryId() + " " + replicationLog.getLastLamport());
+            out.flush();
+            String reply = MessageFraming.readMessage(in, MessageFraming.CHUNKED_VERSION);
+            if (reply.startsWith(ReplicationServer.NOT_PRIMARY)) {
+                return;
+            }
+            if (reply.startsWith(ReplicationServer.FULL_SYNC)) {
+                long[] header = ReplicationServer.parseHeader(reply, ReplicationServer.FULL_SYNC);
+                AggregationServer.loadReplicatedState(header[0], header[1], reply.substring(reply.indexOf('\n') + 1));
+                System.out.println("Received the full state up to update " + header[1] + " from " + upstream);
+            } else {
+                ReplicationServer.parseHeader(reply, ReplicationServer.CONTINUE);
+                System.out.println("Continuing after update " + replicationLog.getLastLamport() + " from " + upstream);
+            }
+            lastContact = System.currentTimeMillis();
+            while (running) {
+                String message = MessageFraming.readMessage(in, MessageFraming.CHUNKED_VERSION);
+                if (message.startsWith(ReplicationServer.RECORDS)) {
+                    long[] header = ReplicationServer.parseHeader(message, ReplicationServer.RECORDS);
+                    if (header[0] != replicationLog.getHistoryId()) {
+                        throw new IOException("Update of another history: " + header[0]);
+                    }
+                    AggregationServer.applyReplicated(header[1], message.substring(message.indexOf('\n') + 1));
+                }
+                lastContact = System.currentTimeMillis();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Lost the replication connection to " + upstream + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the time of the last message received from a primary.
+     *
+     * @return The time in epoch milliseconds.
+     */
+    public long getLastContact() {
+        return lastContact;
+    }
+}
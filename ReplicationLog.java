@@ -0,0 +1,206 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReplicationLog, the recent updates of the update log in Lamport clock order, kept in memory for the backups.
+ * A primary stamps every update with {@link #stamp(LamportClock)} and publishes the records it appended with
+ * {@link #publish(long, String)}. Updates are stamped before their group commit, so they can reach the update log
+ * out of order; the log holds back a published update until every update stamped before it is published, and the
+ * backups receive the updates with strictly increasing Lamport clock values. A backup that reconnects with the
+ * Lamport clock value of the last update it applied then gets exactly the updates after it.
+ *
+ * The updates of one history carry a random history ID: the primary that started it chooses it, and a backup
+ * that takes over keeps it, so the other backups can catch up from it as well. The log keeps the most recent
+ * updates up to a number of characters; a backup that is further behind needs a full state transfer.
+ */
+public class ReplicationLog {
+    static final int DEFAULT_CAPACITY_CHARS = 4 << 20;
+    private static final String PENDING = new String("pending"); // compared by identity
+
+    private final int capacityChars;
+    private final TreeMap<Long, String> unpublished = new TreeMap<>();
+    private final ArrayDeque<Update> updates = new ArrayDeque<>();
+    private long historyId;
+    private long floor; // every update with a higher Lamport clock value is in the log
+    private long last;
+    private int chars;
+
+    /**
+     * ReplicationLog Constructor, starts a new history.
+     *
+     * @param lamport The Lamport clock value of the state the history starts from.
+     * @param capacityChars The number of record characters kept for the backups.
+     */
+    public ReplicationLog(long lamport, int capacityChars) {
+        this.capacityChars = capacityChars;
+        reset(newHistoryId(), lamport);
+    }
+
+    /**
+     * Creates a random history ID, never 0 which stands for no history.
+     *
+     * @return The history ID.
+     */
+    static long newHistoryId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Takes the Lamport clock value of a new update. The update must be published afterwards, even if
+     * it fails, so the updates stamped after it are not held back forever.
+     *
+     * @param clock The Lamport clock of the server.
+     * @return The Lamport clock value of the update.
+     */
+    public synchronized long stamp(LamportClock clock) {
+        long lamport = clock.tickAndGet();
+        unpublished.put(lamport, PENDING);
+        return lamport;
+    }
+
+    /**
+     * Publishes the records of a stamped update once they are in the update log.
+     *
+     * @param lamport The value returned by {@link #stamp}.
+     * @param records The appended records, or null if the update failed or changed nothing.
+     */
+    public synchronized void publish(long lamport, String records) {
+        unpublished.put(lamport, records == null ? "" : records);
+        boolean added = false;
+        while (!unpublished.isEmpty() && unpublished.firstEntry().getValue() != PENDING) {
+            Map.Entry<Long, String> next = unpublished.pollFirstEntry();
+            if (!next.getValue().isEmpty()) {
+                add(next.getKey(), next.getValue());
+                added = true;
+            }
+        }
+        if (added) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Adds an update received from the primary, on a backup. Updates arrive in Lamport clock order.
+     *
+     * @param lamport The Lamport clock value of the update.
+     * @param records The records of the update.
+     */
+    public synchronized void append(long lamport, String records) {
+        if (lamport <= last) {
+            throw new IllegalArgumentException("Update " + lamport + " is not after " + last);
+        }
+        add(lamport, records);
+        notifyAll();
+    }
+
+    private void add(long lamport, String records) {
+        updates.add(new Update(lamport, records));
+        chars += records.length();
+        last = lamport;
+        while (chars > capacityChars && updates.size() > 1) {
+            Update evicted = updates.poll();
+            chars -= evicted.records.length();
+            floor = evicted.lamport;
+        }
+    }
+
+    /**
+     * Replaces the log by the start of a history, such as the state received with a full state transfer.
+     *
+     * @param historyId The history ID.
+     * @param lamport The Lamport clock value of the state the history continues from.
+     */
+    public synchronized void reset(long historyId, long lamport) {
+        this.historyId = historyId;
+        updates.clear();
+        unpublished.clear();
+        chars = 0;
+        floor = lamport;
+        last = lamport;
+        notifyAll();
+    }
+
+    /**
+     * Checks whether a backup can catch up from this log.
+     *
+     * @param historyId The history ID of the updates the backup applied.
+     * @param lamport The Lamport clock value of the last update the backup applied.
+     * @return true if the log holds every update after it.
+     */
+    public synchronized boolean canContinue(long historyId, long lamport) {
+        return historyId == this.historyId && lamport >= floor && lamport <= last;
+    }
+
+    /**
+     * Gets the updates after the given one, waiting for one if there are none yet.
+     *
+     * @param lamport The Lamport clock value of the last update the backup has.
+     * @param timeoutMillis How long to wait for an update.
+     * @return The updates in Lamport clock order, empty if none arrived in time,
+     *         or null if they are no longer in the log.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized List<Update> updatesAfter(long lamport, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long remaining;
+        while (last <= lamport && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (lamport < floor) {
+            return null;
+        }
+        List<Update> after = new ArrayList<>();
+        Iterator<Update> newestFirst = updates.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Update update = newestFirst.next();
+            if (update.lamport <= lamport) {
+                break;
+            }
+            after.add(update);
+        }
+        Collections.reverse(after);
+        return after;
+    }
+
+    /**
+     * Gets the history ID of the updates in the log.
+     *
+     * @return The history ID.
+     */
+    public synchronized long getHistoryId() {
+        return historyId;
+    }
+
+    /**
+     * Gets the Lamport clock value of the last update, the position a backup of this server continues from.
+     *
+     * @return The Lamport clock value.
+     */
+    public synchronized long getLastLamport() {
+        return last;
+    }
+
+    /**
+     * Update, the records of one update and its Lamport clock value.
+     */
+    static final class Update {
+        final long lamport;
+        final String records;
+
+        Update(long lamport, String records) {
+            this.lamport = lamport;
+            this.records = records;
+        }
+    }
+}
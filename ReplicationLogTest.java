@@ -0,0 +1,103 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationLogTest {
+
+    private static String lamports(List<ReplicationLog.Update> updates) {
+        StringBuilder text = new StringBuilder();
+        for (ReplicationLog.Update update : updates) {
+            text.append(update.lamport).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    @Test
+    void testUpdatesArePublishedInLamportOrder() throws InterruptedException {
+        LamportClock clock = new LamportClock();
+        ReplicationLog log = new ReplicationLog(clock.getValue(), ReplicationLog.DEFAULT_CAPACITY_CHARS);
+        long first = log.stamp(clock);
+        long second = log.stamp(clock);
+
+        log.publish(second, "PUT 2000 2 7 {\"id\":\"B\"}");
+        assertTrue(log.updatesAfter(0, 0).isEmpty(), "An update waits for the updates stamped before it");
+        assertEquals(0, log.getLastLamport());
+
+        log.publish(first, "PUT 1000 1 7 {\"id\":\"A\"}");
+        List<ReplicationLog.Update> updates = log.updatesAfter(0, 0);
+        assertEquals("1 2", lamports(updates));
+        assertEquals("PUT 1000 1 7 {\"id\":\"A\"}", updates.get(0).records);
+        assertEquals("2", lamports(log.updatesAfter(1, 0)));
+        assertEquals(2, log.getLastLamport());
+    }
+
+    @Test
+    void testFailedUpdateDoesNotHoldBackLaterOnes() throws InterruptedException {
+        LamportClock clock = new LamportClock();
+        ReplicationLog log = new ReplicationLog(clock.getValue(), ReplicationLog.DEFAULT_CAPACITY_CHARS);
+        long failed = log.stamp(clock);
+        long stored = log.stamp(clock);
+        log.publish(stored, "PUT 2000 2 7 {\"id\":\"B\"}");
+        log.publish(failed, null);
+
+        assertEquals("2", lamports(log.updatesAfter(0, 0)), "An update that logged nothing is not shipped");
+    }
+
+    @Test
+    void testUpdatesAfterWaitsForAnUpdate() throws InterruptedException {
+        LamportClock clock = new LamportClock();
+        ReplicationLog log = new ReplicationLog(clock.getValue(), ReplicationLog.DEFAULT_CAPACITY_CHARS);
+        Thread publisher = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return;
+            }
+            log.publish(log.stamp(clock), "PUT 1000 1 7 {\"id\":\"A\"}");
+        });
+        publisher.start();
+
+        assertEquals("1", lamports(log.updatesAfter(0, 5000)));
+        publisher.join();
+        assertTrue(log.updatesAfter(1, 50).isEmpty(), "No update arrived within the timeout");
+    }
+
+    @Test
+    void testOldUpdatesAreEvicted() throws InterruptedException {
+        ReplicationLog log = new ReplicationLog(0, 10);
+        log.append(1, "DEL 1 1 A");
+        log.append(2, "DEL 2 2 B");
+        log.append(3, "DEL 3 3 C");
+
+        assertNull(log.updatesAfter(0, 0), "A backup this far behind needs a full state transfer");
+        assertFalse(log.canContinue(log.getHistoryId(), 0));
+        assertTrue(log.canContinue(log.getHistoryId(), 2));
+        assertEquals("3", lamports(log.updatesAfter(2, 0)));
+        assertFalse(log.canContinue(log.getHistoryId() + 1, 2), "The updates of another history do not continue");
+        assertFalse(log.canContinue(log.getHistoryId(), 4), "A backup ahead of this server has diverged");
+    }
+
+    @Test
+    void testAppendRejectsUpdatesOutOfOrder() {
+        ReplicationLog log = new ReplicationLog(5, ReplicationLog.DEFAULT_CAPACITY_CHARS);
+        assertThrows(IllegalArgumentException.class, () -> log.append(5, "DEL 1 5 A"));
+        log.append(6, "DEL 1 6 A");
+        assertThrows(IllegalArgumentException.class, () -> log.append(6, "DEL 1 6 B"));
+    }
+
+    @Test
+    void testResetStartsFromTheReceivedState() throws InterruptedException {
+        ReplicationLog log = new ReplicationLog(0, ReplicationLog.DEFAULT_CAPACITY_CHARS);
+        log.append(1, "DEL 1 1 A");
+        log.reset(42, 17);
+
+        assertEquals(42, log.getHistoryId());
+        assertEquals(17, log.getLastLamport());
+        assertTrue(log.canContinue(42, 17));
+        assertTrue(log.updatesAfter(17, 0).isEmpty());
+        log.append(18, "DEL 1 18 A");
+        assertEquals("18", lamports(log.updatesAfter(17, 0)));
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * ReplicationServer, ships the updates of the AggregationServer to its backups over a separate port.
+ * A backup connects, sends "REPLICATE &lt;historyId&gt; &lt;lamport&gt;" with the last update it applied, and gets either
+ * "CONTINUE" followed by the updates after that one from the {@link ReplicationLog}, or "FULLSYNC" with the whole
+ * state of the store when the log does not reach back that far or the backup follows another history.
+ * Every update is then sent as "RECORDS &lt;historyId&gt; &lt;lamport&gt;" followed by its update log records, and
+ * a "HEARTBEAT" is sent every second without updates, so a backup notices a failed primary. A server that is
+ * a backup itself answers "NOTPRIMARY". Messages use the chunked framing of {@link MessageFraming}.
+ *
+ * Replication is asynchronous: a PUT is answered once it is in the update log of the primary, and a backup may
+ * miss the last updates of a primary that fails.
+ */
+public class ReplicationServer {
+    static final String REPLICATE = "REPLICATE";
+    static final String FULL_SYNC = "FULLSYNC";
+    static final String CONTINUE = "CONTINUE";
+    static final String RECORDS = "RECORDS";
+    static final String HEARTBEAT = "HEARTBEAT";
+    static final String NOT_PRIMARY = "NOTPRIMARY";
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    private final ServerSocket serverSocket;
+    private final ReplicationLog replicationLog;
+
+    /**
+     * ReplicationServer Constructor. Binds the server to the given port.
+     *
+     * @param port The port number on which backups connect, 0 to use any free port.
+     * @param replicationLog The recent updates of the server.
+     * @throws IOException if the server cannot listen on the port.
+     */
+    public ReplicationServer(int port, ReplicationLog replicationLog) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.replicationLog = replicationLog;
+    }
+
+    /**
+     * Gets the port number the server is bound to.
+     *
+     * @return The local port number.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts backups until the server is closed, serving each of them on its own thread.
+     */
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread sender = new Thread(new BackupConnection(socket, replicationLog), "replication-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Error accepting backup connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting backups.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the replication port: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Formats the whole state of the store for a backup that cannot continue from the replication log.
+     *
+     * @param historyId The history ID of the replication log.
+     * @param lamport The Lamport clock value of the last update in the state.
+     * @param entries The entries of the store.
+     * @return The FULLSYNC message: its first line, then one PUT record per entry, oldest first.
+     */
+    static String formatFullSync(long historyId, long lamport, Collection<WeatherDataStore.WeatherEntry> entries) {
+        List<WeatherDataStore.WeatherEntry> sortedEntries = new ArrayList<>(entries);
+        sortedEntries.sort(Comparator.comparingLong(entry -> entry.timestamp)); //keep the recency order on the backup
+        StringBuilder message = new StringBuilder(64 + sortedEntries.size() * 256);
+        message.append(FULL_SYNC).append(' ').append(historyId).append(' ').append(lamport).append('\n');
+        for (WeatherDataStore.WeatherEntry entry : sortedEntries) {
+            message.append(UpdateLog.formatPutRecord(entry.json, entry.timestamp, entry.lamport, entry.sourceId)).append('\n');
+        }
+        return message.toString();
+    }
+
+    /**
+     * Parses the numbers after the keyword of a replication message, such as the history ID and the Lamport
+     * clock value of "REPLICATE 42 17".
+     *
+     * @param message The message, only its first line is read.
+     * @param keyword The expected keyword.
+     * @return The numbers.
+     * @throws IOException if the message does not start with the keyword followed by two numbers.
+     */
+    static long[] parseHeader(String message, String keyword) throws IOException {
+        int lineEnd = message.indexOf('\n');
+        String[] fields = (lineEnd == -1 ? message : message.substring(0, lineEnd)).trim().split(" ");
+        if (fields.length != 3 || !fields[0].equals(keyword)) {
+            throw new IOException("Expected " + keyword + " but received: " + fields[0]);
+        }
+        try {
+            return new long[]{Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + keyword + " message: " + message);
+        }
+    }
+
+    /**
+     * BackupConnection, sends the updates to one backup until it disconnects.
+     */
+    static final class BackupConnection implements Runnable {
+        private final Socket socket;
+        private final ReplicationLog replicationLog;
+
+        BackupConnection(Socket socket, ReplicationLog replicationLog) {
+            this.socket = socket;
+            this.replicationLog = replicationLog;
+        }
+
+        public void run() {
+            String backup = socket.getRemoteSocketAddress().toString();
+            try (socket;
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                         MessageFraming.CHUNK_SIZE + 4))) {
+                socket.setSoTimeout((int) (3 * HEARTBEAT_MILLIS));
+                long[] request = parseHeader(MessageFraming.readMessage(in, MessageFraming.CHUNKED_VERSION), REPLICATE);
+                if (AggregationServer.isBackup()) {
+                    send(out, NOT_PRIMARY);
+                    return;
+                }
+                long historyId;
+                long position;
+                if (replicationLog.canContinue(request[0], request[1])) {
+                    historyId = request[0];
+                    position = request[1];
+                    send(out, CONTINUE + " " + historyId + " " + position);
+                    System.out.println("Backup " + backup + " continues after update " + position);
+                } else {
+                    String state = AggregationServer.replicationState();
+                    long[] header = parseHeader(state, FULL_SYNC);
+                    historyId = header[0];
+                    position = header[1];
+                    send(out, state);
+                    System.out.println("Sent the full state up to update " + position + " to backup " + backup);
+                }
+                while (true) {
+                    List<ReplicationLog.Update> updates = replicationLog.updatesAfter(position, HEARTBEAT_MILLIS);
+                    if (updates == null) {
+                        System.err.println("Backup " + backup + " fell behind the replication log, disconnecting it.");
+                        return;
+                    }
+                    if (updates.isEmpty()) {
+                        send(out, HEARTBEAT);
+                        continue;
+                    }
+                    for (ReplicationLog.Update update : updates) {
+                        MessageFraming.writeMessage(out, MessageFraming.CHUNKED_VERSION,
+                                RECORDS + " " + historyId + " " + update.lamport + "\n" + update.records);
+                        position = update.lamport;
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                System.err.println("Backup " + backup + " disconnected: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static void send(DataOutputStream out, String message) throws IOException {
+            MessageFraming.writeMessage(out, MessageFraming.CHUNKED_VERSION, message);
+            out.flush();
+        }
+    }
+}
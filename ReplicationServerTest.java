@@ -0,0 +1,117 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a primary and a backup AggregationServer as separate processes on localhost, each in its own
+ * working directory, and checks that the backup follows the primary and takes over when it is killed.
+ */
+class ReplicationServerTest {
+    private static final long TIMEOUT_MILLIS = 15000;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<Process> processes = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        for (Process process : processes) {
+            process.destroyForcibly();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private Process startServer(Path directory, String... options) throws IOException {
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.append(classPath.length() == 0 ? "" : File.pathSeparator).append(new File(entry).getAbsolutePath());
+        }
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", classPath.toString(), "AggregationServer"));
+        command.addAll(List.of(options));
+        Process process = new ProcessBuilder(command).directory(directory.toFile())
+                .redirectErrorStream(true).redirectOutput(directory.resolve("server.log").toFile()).start();
+        processes.add(process);
+        return process;
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> put(int httpPort, String json) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create("http://localhost:" + httpPort + "/weather_data.txt"))
+                .header("Content-Type", "application/json").header("Source-Id", "replication-test")
+                .PUT(HttpRequest.BodyPublishers.ofString(json)));
+    }
+
+    /**
+     * Sends GET requests until the body contains the expected text.
+     */
+    private String awaitGet(int httpPort, String target, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        String body = null;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                body = send(HttpRequest.newBuilder(URI.create("http://localhost:" + httpPort + target)).GET()).body();
+                if (body.contains(expected)) {
+                    return body;
+                }
+            } catch (IOException e) {
+                body = e.toString(); // not listening yet
+            }
+            Thread.sleep(100);
+        }
+        return fail("Timed out waiting for " + expected + " in GET " + target + ", last response: " + body);
+    }
+
+    @Test
+    void testBackupFollowsPrimaryAndTakesOver(@TempDir Path primaryDirectory, @TempDir Path backupDirectory)
+            throws IOException, InterruptedException {
+        int primaryHttpPort = freePort();
+        int replicationPort = freePort();
+        int backupHttpPort = freePort();
+        Process primary = startServer(primaryDirectory, String.valueOf(freePort()), "--http-port=" + primaryHttpPort,
+                "--replication-port=" + replicationPort);
+        awaitGet(primaryHttpPort, "/weather/all", ""); // listening
+        assertEquals(2, put(primaryHttpPort, "{\"id\":\"REPL0001\",\"air_temp\":11.5}").statusCode() / 100);
+
+        startServer(backupDirectory, String.valueOf(freePort()), "--http-port=" + backupHttpPort,
+                "--backup-of=localhost:" + replicationPort, "--takeover-ms=1000");
+        awaitGet(backupHttpPort, "/weather?id=REPL0001", "11.5");
+        assertEquals(200, put(primaryHttpPort, "{\"id\":\"REPL0001\",\"air_temp\":12.5}").statusCode());
+        awaitGet(backupHttpPort, "/weather?id=REPL0001", "12.5");
+        assertEquals(503, put(backupHttpPort, "{\"id\":\"REPL0002\",\"air_temp\":1}").statusCode(),
+                "A backup only serves GET requests");
+
+        primary.destroyForcibly();
+        primary.waitFor();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        int status;
+        while ((status = put(backupHttpPort, "{\"id\":\"REPL0002\",\"air_temp\":2}").statusCode()) == 503
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(200);
+        }
+        assertEquals(2, status / 100, "The backup takes over once the primary is gone: " + status);
+        String all = awaitGet(backupHttpPort, "/weather/all", "REPL0002");
+        assertTrue(all.contains("12.5"), "The replicated data survives the takeover");
+    }
+}
@@ -0,0 +1,166 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RequestTracing, Java Flight Recorder events for the stages of PUT and GET requests, so a recording taken in
+ * production shows which stage of a slow request took the time. Each stage is a {@link PutStageEvent} or
+ * {@link GetStageEvent} carrying the station id, the Lamport clock value and the payload size of its request.
+ * When no recording has the events enabled, a trace only checks that once per request and creates no event.
+ *
+ * To record: java -XX:StartFlightRecording:filename=put.jfr,settings=profile AggregationServer,
+ * then for example: jfr print --events aggregation.PutStage put.jfr
+ */
+public class RequestTracing {
+    static final String PUT_STAGE_EVENT = "aggregation.PutStage";
+    static final String GET_STAGE_EVENT = "aggregation.GetStage";
+
+    /**
+     * Starts tracing a PUT request.
+     *
+     * @return The trace, which does nothing if the PUT stage events are not enabled.
+     */
+    static Trace startPut() {
+        // The probe does not escape, so it is not even allocated once the method is compiled
+        return new PutStageEvent().isEnabled() ? new Trace(true) : Trace.DISABLED;
+    }
+
+    /**
+     * Starts tracing a GET request.
+     *
+     * @return The trace, which does nothing if the GET stage events are not enabled.
+     */
+    static Trace startGet() {
+        return new GetStageEvent().isEnabled() ? new Trace(false) : Trace.DISABLED;
+    }
+
+    /**
+     * Trace, the stage events of one request. The events are timed as the stages run and committed together
+     * once the station id and the Lamport clock value of the request are known.
+     */
+    static final class Trace {
+        static final Trace DISABLED = new Trace(false, null);
+
+        private final boolean put;
+        private final List<StageEvent> stages;
+        private StageEvent current;
+
+        private Trace(boolean put) {
+            this(put, new ArrayList<>(8));
+        }
+
+        private Trace(boolean put, List<StageEvent> stages) {
+            this.put = put;
+            this.stages = stages;
+        }
+
+        /**
+         * Gets whether the events of this trace are recorded.
+         *
+         * @return false if every call on this trace does nothing.
+         */
+        boolean isEnabled() {
+            return stages != null;
+        }
+
+        /**
+         * Starts timing a stage, ending the previous stage if it was not ended.
+         *
+         * @param stage The name of the stage, such as "validate".
+         */
+        void begin(String stage) {
+            if (stages == null) {
+                return;
+            }
+            end();
+            current = put ? new PutStageEvent() : new GetStageEvent();
+            current.stage = stage;
+            current.begin();
+        }
+
+        /**
+         * Ends timing the current stage.
+         */
+        void end() {
+            if (current != null) {
+                current.end();
+                stages.add(current);
+                current = null;
+            }
+        }
+
+        /**
+         * Ends the current stage and commits the events of every stage.
+         *
+         * @param stationId The id of the station, or of the first station of a batch; null if not known.
+         * @param lamport The Lamport clock value of the request, -1 if not known.
+         * @param payloadSize The size of the JSON data received or sent, in characters.
+         * @param records The number of stations in the payload.
+         */
+        void commit(String stationId, long lamport, int payloadSize, int records) {
+            if (stages == null) {
+                return;
+            }
+            end();
+            for (StageEvent event : stages) {
+                event.stationId = stationId;
+                event.lamport = lamport;
+                event.payloadSize = payloadSize;
+                event.records = records;
+                event.commit();
+            }
+            stages.clear();
+        }
+    }
+
+    /**
+     * StageEvent, the fields shared by the PUT and GET stage events.
+     */
+    @StackTrace(false)
+    abstract static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Station ID")
+        String stationId;
+
+        @Label("Lamport Clock")
+        long lamport;
+
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+
+        @Label("Records")
+        int records;
+    }
+
+    /**
+     * PutStageEvent, one stage of a PUT request: extract, validate, normalize, lock, store or log.
+     * A batch PUT has a parse stage covering the split, validation and normalization of all its records.
+     */
+    @Name(PUT_STAGE_EVENT)
+    @Label("PUT Stage")
+    @Category({"Aggregation Server", "PUT"})
+    @Description("A stage of a PUT request in the AggregationServer")
+    static final class PutStageEvent extends StageEvent {
+    }
+
+    /**
+     * GetStageEvent, one stage of a GET request: lookup, for the cached responses of /weather and
+     * /weather/all, or query, for the stations of /weather?id=.
+     */
+    @Name(GET_STAGE_EVENT)
+    @Label("GET Stage")
+    @Category({"Aggregation Server", "GET"})
+    @Description("A stage of a GET request in the AggregationServer")
+    static final class GetStageEvent extends StageEvent {
+    }
+}
@@ -0,0 +1,72 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestTracingTest {
+
+    @Test
+    void testTraceIsDisabledWithoutRecording() {
+        RequestTracing.Trace trace = RequestTracing.startPut();
+        assertSame(RequestTracing.Trace.DISABLED, trace);
+        trace.begin("validate");
+        trace.commit("IDS60901", 1, 10, 1);
+        assertFalse(trace.isEnabled());
+    }
+
+    @Test
+    void testPutStagesAreRecorded() throws IOException {
+        String message = "PUT /weather_data.txt HTTP/1.1\r\nLamport-Clock: 1\r\n\r\n{\"id\":\"TRACE01\",\"air_temp\":1}";
+        List<RecordedEvent> events = record(RequestTracing.PUT_STAGE_EVENT, () -> AggregationServer.buildPutResponse(message, 1));
+
+        assertEquals(List.of("extract", "validate", "normalize", "lock", "log", "store"),
+                events.stream().map(event -> event.getString("stage")).collect(Collectors.toList()));
+        for (RecordedEvent event : events) {
+            assertEquals("TRACE01", event.getString("stationId"));
+            assertTrue(event.getLong("lamport") > 0);
+            assertEquals("{\"id\":\"TRACE01\",\"air_temp\":1}".length(), event.getInt("payloadSize"));
+        }
+    }
+
+    @Test
+    void testGetStageIsRecorded() throws IOException {
+        AggregationServer.buildPutResponse("PUT /weather_data.txt HTTP/1.1\r\n\r\n{\"id\":\"TRACE02\",\"air_temp\":2}", 1);
+        List<RecordedEvent> events = record(RequestTracing.GET_STAGE_EVENT,
+                () -> AggregationServer.buildGetResponse("/weather?id=TRACE02", 7));
+
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("query", event.getString("stage"));
+        assertEquals("TRACE02", event.getString("stationId"));
+        assertEquals(7, event.getLong("lamport"));
+        assertEquals("{\"id\":\"TRACE02\",\"air_temp\":2}".length(), event.getInt("payloadSize"));
+    }
+
+    private static List<RecordedEvent> record(String eventName, Request request) throws IOException {
+        Path file = Files.createTempFile("tracing", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(eventName).withThreshold(java.time.Duration.ZERO);
+            recording.start();
+            request.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals(eventName))
+                    .collect(Collectors.toList());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private interface Request {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,357 @@
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ServerMetrics, counts the requests, bytes, connections and expiries of the AggregationServer and renders them
+ * in the Prometheus text exposition format for GET /metrics. Recording only adds to {@link LongAdder} counters
+ * and to the buckets of lock-free histograms, so request threads never wait for each other or for a scrape;
+ * the percentiles are computed when the metrics are rendered. Latencies are counted from the start of the
+ * server, so the percentiles describe its whole lifetime; the histogram buckets let Prometheus compute
+ * the percentiles of a recent window with histogram_quantile.
+ */
+public class ServerMetrics {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    static final String[] REQUEST_TYPES = {"GET", "PUT", "HEARTBEAT", "OTHER"};
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    // Upper bounds of the Prometheus histogram buckets in seconds
+    private static final String[] BUCKET_BOUNDS = {"0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01",
+            "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"};
+    private static final String PREFIX = "aggregation_";
+
+    private final ConcurrentHistogram[] latencies = new ConcurrentHistogram[REQUEST_TYPES.length];
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder expiredSources = new LongAdder();
+    private final LongAdder expiredStations = new LongAdder();
+
+    /**
+     * ServerMetrics Constructor, starts with every count at 0.
+     */
+    public ServerMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new ConcurrentHistogram();
+        }
+    }
+
+    /**
+     * Records one handled request.
+     *
+     * @param method The request method, counted as OTHER if it is not GET, PUT or HEARTBEAT.
+     * @param nanos The time it took to handle the request, in nanoseconds.
+     */
+    public void recordRequest(String method, long nanos) {
+        latencies[typeIndex(method)].record(nanos);
+    }
+
+    /**
+     * Gets the index of a request type in {@link #REQUEST_TYPES}.
+     */
+    static int typeIndex(String method) {
+        switch (method) {
+            case "GET":
+                return 0;
+            case "PUT":
+                return 1;
+            case "HEARTBEAT":
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * Counts bytes read from a connection.
+     *
+     * @param bytes The number of bytes.
+     */
+    public void addBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    /**
+     * Counts bytes written to a connection.
+     *
+     * @param bytes The number of bytes.
+     */
+    public void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * Counts a connection that starts being served.
+     */
+    public void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    /**
+     * Counts a connection that is closed.
+     */
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Counts the sources that expired in one tick of the expiry wheel and the stations removed with them.
+     *
+     * @param sources The number of expired sources.
+     * @param stations The number of removed stations.
+     */
+    public void recordExpiry(int sources, int stations) {
+        expiredSources.add(sources);
+        expiredStations.add(stations);
+    }
+
+    /**
+     * Wraps the input stream of a connection so every byte read from it is counted.
+     *
+     * @param in The stream of the socket, before any buffering.
+     * @return The counting stream.
+     */
+    public InputStream countingInput(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    bytesReceived.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = in.read(buffer, offset, length);
+                if (read > 0) {
+                    bytesReceived.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Wraps the output stream of a connection so every byte written to it is counted.
+     *
+     * @param out The stream of the socket, before any buffering.
+     * @return The counting stream.
+     */
+    public OutputStream countingOutput(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesSent.increment();
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                out.write(buffer, offset, length);
+                bytesSent.add(length);
+            }
+        };
+    }
+
+    /**
+     * Gets the number of handled requests of one type.
+     *
+     * @param method The request type, such as "GET".
+     * @return The number of requests.
+     */
+    public long getRequestCount(String method) {
+        return latencies[typeIndex(method)].getCount();
+    }
+
+    /**
+     * Gets a copy of the latencies of one request type, in nanoseconds.
+     *
+     * @param method The request type, such as "GET".
+     * @return The latencies recorded so far.
+     */
+    public LatencyHistogram getLatencies(String method) {
+        return latencies[typeIndex(method)].snapshot();
+    }
+
+    /**
+     * Gets the number of bytes read from connections.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * Gets the number of bytes written to connections.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Gets the number of connections currently open.
+     *
+     * @return The number of connections.
+     */
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    /**
+     * Gets the number of sources that expired.
+     *
+     * @return The number of sources.
+     */
+    public long getExpiredSources() {
+        return expiredSources.sum();
+    }
+
+    /**
+     * Gets the number of stations removed because their source expired.
+     *
+     * @return The number of stations.
+     */
+    public long getExpiredStations() {
+        return expiredStations.sum();
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format (version 0.0.4).
+     *
+     * @param lamport The current value of the Lamport clock of the server.
+     * @param storedStations The number of stations in the store.
+     * @return The metrics, one sample per line.
+     */
+    public String render(long lamport, int storedStations) {
+        StringBuilder text = new StringBuilder(8192);
+        LatencyHistogram[] snapshots = new LatencyHistogram[latencies.length];
+        for (int i = 0; i < latencies.length; i++) {
+            snapshots[i] = latencies[i].snapshot();
+        }
+
+        header(text, "requests_total", "counter", "Requests handled, by request type.");
+        for (int i = 0; i < snapshots.length; i++) {
+            sample(text, "requests_total", type(i), snapshots[i].getTotalCount());
+        }
+
+        header(text, "request_latency_seconds", "summary",
+                "Time to handle a request in the server since it started, by request type.");
+        for (int i = 0; i < snapshots.length; i++) {
+            for (double quantile : QUANTILES) {
+                sample(text, "request_latency_seconds", type(i) + ",quantile=\"" + quantile + "\"",
+                        seconds(snapshots[i].valueAtPercentile(quantile * 100)));
+            }
+            sample(text, "request_latency_seconds_sum", type(i), seconds(latencies[i].getSum()));
+            sample(text, "request_latency_seconds_count", type(i), snapshots[i].getTotalCount());
+        }
+
+        header(text, "request_duration_seconds", "histogram", "Time to handle a request in the server, by request type.");
+        for (int i = 0; i < snapshots.length; i++) {
+            for (String bound : BUCKET_BOUNDS) {
+                long boundNanos = (long) (Double.parseDouble(bound) * 1e9);
+                sample(text, "request_duration_seconds_bucket", type(i) + ",le=\"" + bound + "\"",
+                        snapshots[i].countAtOrBelow(boundNanos));
+            }
+            sample(text, "request_duration_seconds_bucket", type(i) + ",le=\"+Inf\"", snapshots[i].getTotalCount());
+            sample(text, "request_duration_seconds_sum", type(i), seconds(latencies[i].getSum()));
+            sample(text, "request_duration_seconds_count", type(i), snapshots[i].getTotalCount());
+        }
+
+        header(text, "received_bytes_total", "counter", "Bytes read from client connections.");
+        sample(text, "received_bytes_total", null, bytesReceived.sum());
+        header(text, "sent_bytes_total", "counter", "Bytes written to client connections.");
+        sample(text, "sent_bytes_total", null, bytesSent.sum());
+        header(text, "active_connections", "gauge", "Client connections currently open.");
+        sample(text, "active_connections", null, activeConnections.sum());
+        header(text, "lamport_clock", "gauge", "Current value of the Lamport clock of the server.");
+        sample(text, "lamport_clock", null, lamport);
+        header(text, "stored_stations", "gauge", "Stations currently held in the store.");
+        sample(text, "stored_stations", null, storedStations);
+        header(text, "expired_sources_total", "counter", "Sources whose data expired after 30 seconds without contact.");
+        sample(text, "expired_sources_total", null, expiredSources.sum());
+        header(text, "expired_stations_total", "counter", "Stations removed because their source expired.");
+        sample(text, "expired_stations_total", null, expiredStations.sum());
+        return text.toString();
+    }
+
+    private static String type(int index) {
+        return "type=\"" + REQUEST_TYPES[index] + "\"";
+    }
+
+    private static double seconds(double nanos) {
+        return nanos / 1e9;
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, long value) {
+        appendName(text, name, labels).append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, double value) {
+        appendName(text, name, labels).append(value).append('\n');
+    }
+
+    private static StringBuilder appendName(StringBuilder text, String name, String labels) {
+        text.append(PREFIX).append(name);
+        if (labels != null) {
+            text.append('{').append(labels).append('}');
+        }
+        return text.append(' ');
+    }
+
+    /**
+     * ConcurrentHistogram, the buckets of a {@link LatencyHistogram} in an {@link AtomicLongArray}, so any
+     * number of threads can record into it without a lock. A snapshot copies the buckets one by one: values
+     * recorded during the copy may be missing from it, but every value is in the next one.
+     */
+    static final class ConcurrentHistogram {
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * Records one value.
+         *
+         * @param value The value in nanoseconds. Negative values are recorded as 0.
+         */
+        void record(long value) {
+            value = Math.max(0, value);
+            counts.incrementAndGet(LatencyHistogram.indexOf(value));
+            count.increment();
+            sum.add(value);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * Copies the buckets into a histogram that can compute percentiles.
+         *
+         * @return The copy.
+         */
+        LatencyHistogram snapshot() {
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (int i = 0; i < counts.length(); i++) {
+                histogram.addToBucket(i, counts.get(i));
+            }
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerMetricsTest {
+
+    @Test
+    void testRequestsAreCountedByType() {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.recordRequest("GET", 1_000);
+        metrics.recordRequest("GET", 2_000);
+        metrics.recordRequest("PUT", 5_000);
+        metrics.recordRequest("DELETE", 10);
+
+        assertEquals(2, metrics.getRequestCount("GET"));
+        assertEquals(1, metrics.getRequestCount("PUT"));
+        assertEquals(0, metrics.getRequestCount("HEARTBEAT"));
+        assertEquals(1, metrics.getRequestCount("OTHER"), "Unknown methods are counted as OTHER");
+        assertEquals(2_000, metrics.getLatencies("GET").getMax(), 2_000 / 64);
+    }
+
+    @Test
+    void testConcurrentRecordingLosesNothing() throws InterruptedException {
+        ServerMetrics metrics = new ServerMetrics();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= 10_000; i++) {
+                    metrics.recordRequest("GET", i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram latencies = metrics.getLatencies("GET");
+        assertEquals(40_000, metrics.getRequestCount("GET"));
+        assertEquals(40_000, latencies.getTotalCount());
+        assertEquals(5_000, latencies.valueAtPercentile(50), 5_000 / 64);
+    }
+
+    @Test
+    void testCountingStreams() throws IOException {
+        ServerMetrics metrics = new ServerMetrics();
+        InputStream in = metrics.countingInput(new ByteArrayInputStream(new byte[10]));
+        in.read();
+        in.read(new byte[20]);
+        OutputStream out = metrics.countingOutput(new ByteArrayOutputStream());
+        out.write(new byte[7]);
+        out.write(1);
+
+        assertEquals(10, metrics.getBytesReceived());
+        assertEquals(8, metrics.getBytesSent());
+    }
+
+    @Test
+    void testConnectionsAndExpiries() {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.connectionOpened();
+        metrics.connectionOpened();
+        metrics.connectionClosed();
+        metrics.recordExpiry(2, 5);
+
+        assertEquals(1, metrics.getActiveConnections());
+        assertEquals(2, metrics.getExpiredSources());
+        assertEquals(5, metrics.getExpiredStations());
+    }
+
+    @Test
+    void testRenderPrometheusText() {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.recordRequest("PUT", 2_000_000); // 2 ms
+        metrics.addBytesReceived(100);
+        String text = metrics.render(42, 3);
+
+        assertTrue(text.contains("# TYPE aggregation_requests_total counter\n"));
+        assertTrue(text.contains("aggregation_requests_total{type=\"PUT\"} 1\n"));
+        assertTrue(text.contains("aggregation_request_latency_seconds_count{type=\"PUT\"} 1\n"));
+        assertTrue(text.contains("aggregation_request_duration_seconds_bucket{type=\"PUT\",le=\"0.001\"} 0\n"));
+        assertTrue(text.contains("aggregation_request_duration_seconds_bucket{type=\"PUT\",le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains("aggregation_request_duration_seconds_bucket{type=\"PUT\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("aggregation_request_duration_seconds_sum{type=\"PUT\"} 0.002\n"));
+        assertTrue(text.contains("aggregation_received_bytes_total 100\n"));
+        assertTrue(text.contains("aggregation_lamport_clock 42\n"));
+        assertTrue(text.contains("aggregation_stored_stations 3\n"));
+        for (String line : text.split("\n")) {
+            assertTrue(line.startsWith("# ") || line.matches("aggregation_[a-z_]+(\\{[^}]*\\})? \\S+"), line);
+        }
+    }
+}
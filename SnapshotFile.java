@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * SnapshotFile, a binary snapshot of the WeatherDataStore, written and read through a memory-mapped file.
+ * Restoring a snapshot costs no text parsing or JSON validation, so restart time only depends on the number of
+ * stored stations and on the short update log tail written after the snapshot.
+ *
+ * Layout (big-endian): a 32-byte header holding the magic number, the format version, the Lamport high-water mark
+ * (the Lamport clock of the AggregationServer when the snapshot was taken), the number of entries, the payload length
+ * and the CRC32 of the payload; then one record per entry: timestamp, Lamport clock and source ID (8 bytes each),
+ * the length of the station id (4 bytes) and the UTF-8 station id, the length of the JSON data (4 bytes) and the
+ * UTF-8 JSON data. The station id is stored so that restoring an entry does not read it from the JSON data.
+ * Snapshots of version 1, whose records have no station id, are still restored.
+ *
+ * The previous snapshot is kept next to the current one (".prev") until a newer snapshot replaces it, so a
+ * snapshot that turns out to be unreadable at startup can be replaced by the previous one, see {@link #loadPrevious}.
+ */
+public class SnapshotFile {
+    static final int MAGIC = 0x57534E50; // "WSNP"
+    static final int VERSION = 2;
+    static final int VERSION_WITHOUT_STATION_ID = 1; // still restored, reading the station id from the JSON data
+    static final int HEADER_SIZE = 32;
+
+    private final Path path;
+    private Boolean valid; // whether the current snapshot is valid, null until it is loaded, written or checked
+
+    /**
+     * SnapshotFile Constructor.
+     *
+     * @param snapshotFilePath The path of the snapshot file.
+     */
+    public SnapshotFile(String snapshotFilePath) {
+        this.path = Paths.get(snapshotFilePath);
+    }
+
+    /**
+     * Writes a snapshot of the given entries. The snapshot is written to a temporary file, forced to the disk and
+     * read back to verify its checksum. Only then is the current snapshot, if it is valid, kept as the previous one
+     * and the new snapshot moved in its place. The directory is forced after each move, so a crash never leaves
+     * a partial snapshot behind nor loses the previous one. Whether the current snapshot is valid is known from
+     * its last load or write, it is only read again if this SnapshotFile has neither loaded nor written it.
+     *
+     * @param entries The entries of the store.
+     * @param lamportHighWaterMark The Lamport clock value when the entries were read. Every update appended to the
+     *                             log after the snapshot has a Lamport value of at least this mark.
+     * @return true if the current snapshot was kept as the previous one, false if there was no valid snapshot,
+     *         in which case the previous snapshot is left as it is.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public boolean write(Collection<WeatherDataStore.WeatherEntry> entries, long lamportHighWaterMark)
+            throws IOException {
+        List<byte[]> stationIds = new ArrayList<>(entries.size());
+        List<byte[]> jsons = new ArrayList<>(entries.size());
+        long payloadLength = 0;
+        for (WeatherDataStore.WeatherEntry entry : entries) {
+            byte[] stationId = entry.stationId.getBytes(StandardCharsets.UTF_8);
+            byte[] json = entry.json.getBytes(StandardCharsets.UTF_8);
+            stationIds.add(stationId);
+            jsons.add(json);
+            payloadLength += 3 * Long.BYTES + 2 * Integer.BYTES + stationId.length + json.length;
+        }
+        if (HEADER_SIZE + payloadLength > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot exceeds 2 GB");
+        }
+        Path parent = path.getParent();
+        if (parent != null && !Files.exists(parent)) {
+            Files.createDirectories(parent);
+        }
+        Path tmpPath = Paths.get(path + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + payloadLength);
+            buffer.position(HEADER_SIZE);
+            int i = 0;
+            for (WeatherDataStore.WeatherEntry entry : entries) {
+                byte[] stationId = stationIds.get(i);
+                byte[] json = jsons.get(i++);
+                buffer.putLong(entry.timestamp).putLong(entry.lamport).putLong(entry.sourceId)
+                        .putInt(stationId.length).put(stationId).putInt(json.length).put(json);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().position(HEADER_SIZE).limit(buffer.position()));
+            buffer.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, lamportHighWaterMark)
+                    .putInt(16, jsons.size()).putLong(20, payloadLength).putInt(28, (int) crc.getValue());
+            buffer.force();
+        }
+        if (!isValid(tmpPath)) {
+            throw new IOException("Snapshot could not be verified");
+        }
+        if (valid == null) {
+            valid = isValid(path);
+        }
+        boolean rotated = valid;
+        if (rotated) {
+            Files.move(path, previousPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            valid = false;
+            UpdateLog.forceDirectory(path);
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        valid = true;
+        UpdateLog.forceDirectory(path);
+        return rotated;
+    }
+
+    private Path previousPath() {
+        return Paths.get(path + ".prev");
+    }
+
+    /**
+     * Checks the header and the checksum of a snapshot file without restoring it.
+     */
+    private static boolean isValid(Path file) {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return checkedPayload(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())) != null;
+        } catch (IOException e) {
+            System.err.println("Ignoring snapshot: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks the header of a snapshot and the checksum of its payload.
+     *
+     * @return The payload, or null if the snapshot is not valid.
+     */
+    private static ByteBuffer checkedPayload(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            System.err.println("Ignoring snapshot: file is too short.");
+            return null;
+        }
+        int version = buffer.getInt(4);
+        if (buffer.getInt(0) != MAGIC || (version != VERSION && version != VERSION_WITHOUT_STATION_ID)) {
+            System.err.println("Ignoring snapshot: unknown format.");
+            return null;
+        }
+        if (buffer.getLong(20) != channel.size() - HEADER_SIZE) {
+            System.err.println("Ignoring snapshot: truncated file.");
+            return null;
+        }
+        ByteBuffer payload = buffer.position(HEADER_SIZE).slice();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(28)) {
+            System.err.println("Ignoring snapshot: checksum mismatch.");
+            return null;
+        }
+        return payload;
+    }
+
+    /**
+     * Restores the entries of the snapshot into the store.
+     *
+     * @param store The store to be restored, which should be empty.
+     * @return The Lamport high-water mark of the snapshot, or -1 if there is no valid snapshot.
+     */
+    public long load(WeatherDataStore store) {
+        long lamportHighWaterMark = load(path, store);
+        valid = lamportHighWaterMark != -1;
+        return lamportHighWaterMark;
+    }
+
+    /**
+     * Restores the entries of the previous snapshot into the store, for when the current snapshot is not valid.
+     * The update log keeps the records written between the previous and the current snapshot, see
+     * {@link UpdateLog#checkpoint}.
+     *
+     * @param store The store to be restored, which should be empty.
+     * @return The Lamport high-water mark of the previous snapshot, or -1 if there is no valid previous snapshot.
+     */
+    public long loadPrevious(WeatherDataStore store) {
+        return load(previousPath(), store);
+    }
+
+    private static long load(Path file, WeatherDataStore store) {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer payload = checkedPayload(channel, buffer);
+            if (payload == null) {
+                return -1;
+            }
+            boolean hasStationIds = buffer.getInt(4) == VERSION;
+            long lamportHighWaterMark = buffer.getLong(8);
+            int entryCount = buffer.getInt(16);
+            for (int i = 0; i < entryCount; i++) {
+                long timestamp = payload.getLong();
+                long lamport = payload.getLong();
+                long sourceId = payload.getLong();
+                byte[] stationId = hasStationIds ? new byte[payload.getInt()] : null;
+                if (stationId != null) {
+                    payload.get(stationId);
+                }
+                byte[] json = new byte[payload.getInt()];
+                payload.get(json);
+                String jsonData = new String(json, StandardCharsets.UTF_8);
+                store.put(stationId != null ? new String(stationId, StandardCharsets.UTF_8)
+                        : JSONParser.extractId(jsonData), jsonData, sourceId, timestamp, lamport);
+            }
+            return lamportHighWaterMark;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            System.err.println("Ignoring snapshot: " + e);
+            store.clear();
+            return -1;
+        }
+    }
+}
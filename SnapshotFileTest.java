@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotFileTest {
+    private static final String testFilePath = "data/testSnapshot.snapshot";
+    private SnapshotFile snapshot;
+    private WeatherDataStore store;
+
+    @BeforeEach
+    void setUp() {
+        snapshot = new SnapshotFile(testFilePath);
+        store = new WeatherDataStore();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(Paths.get(testFilePath));
+        Files.deleteIfExists(Paths.get(testFilePath + ".prev"));
+    }
+
+    @Test
+    void testWriteThenLoad() throws IOException {
+        store.put("{\"id\":\"A\",\"name\":\"Adelaide\"}", 3, 1000, 5);
+        store.put("{\"id\":\"B\",\"name\":\"H\u00e0 N\u1ed9i\"}", 4, 2000, 6);
+        snapshot.write(store.entries(), 7);
+
+        WeatherDataStore restored = new WeatherDataStore();
+        assertEquals(7, snapshot.load(restored));
+        assertEquals(2, restored.size());
+        assertEquals("{\"id\":\"B\",\"name\":\"H\u00e0 N\u1ed9i\"}", restored.getLatestJson());
+        WeatherDataStore.WeatherEntry entry = restored.get("A");
+        assertEquals(3, entry.sourceId);
+        assertEquals(1000, entry.timestamp);
+        assertEquals(5, entry.lamport);
+    }
+
+    @Test
+    void testLoadKeepsTheStationIdOfEachEntry() throws IOException {
+        store.put("{\"name\":\"No id\"}", 3, 1000, 5);
+        snapshot.write(store.entries(), 6);
+
+        WeatherDataStore restored = new WeatherDataStore();
+        assertEquals(6, snapshot.load(restored));
+        WeatherDataStore.WeatherEntry entry = restored.entries().iterator().next();
+        assertEquals(store.entries().iterator().next().stationId, entry.stationId);
+        assertEquals("{\"name\":\"No id\"}", entry.json);
+    }
+
+    @Test
+    void testLoadSnapshotWithoutStationIds() throws IOException {
+        byte[] json = "{\"id\":\"A\"}".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(3 * Long.BYTES + Integer.BYTES + json.length);
+        payload.putLong(1000).putLong(5).putLong(3).putInt(json.length).put(json).flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer file = ByteBuffer.allocate(SnapshotFile.HEADER_SIZE + payload.remaining());
+        file.putInt(SnapshotFile.MAGIC).putInt(SnapshotFile.VERSION_WITHOUT_STATION_ID).putLong(6).putInt(1)
+                .putLong(payload.remaining()).putInt((int) crc.getValue()).put(payload);
+        Files.createDirectories(Paths.get(testFilePath).getParent());
+        Files.write(Paths.get(testFilePath), file.array());
+
+        WeatherDataStore restored = new WeatherDataStore();
+        assertEquals(6, snapshot.load(restored), "A snapshot of the previous version is still restored");
+        assertEquals(5, restored.get("A").lamport);
+    }
+
+    @Test
+    void testLoadMissingSnapshot() {
+        assertEquals(-1, snapshot.load(store));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void testLoadRejectsCorruptedSnapshot() throws IOException {
+        store.put("{\"id\":\"A\",\"name\":\"Adelaide\"}", 3, 1000, 5);
+        snapshot.write(store.entries(), 7);
+        try (RandomAccessFile file = new RandomAccessFile(testFilePath, "rw")) {
+            file.seek(SnapshotFile.HEADER_SIZE + 30);
+            file.write('X');
+        }
+
+        WeatherDataStore restored = new WeatherDataStore();
+        assertEquals(-1, snapshot.load(restored), "A checksum mismatch should invalidate the snapshot");
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    void testLoadRejectsTruncatedSnapshot() throws IOException {
+        store.put("{\"id\":\"A\",\"name\":\"Adelaide\"}", 3, 1000, 5);
+        snapshot.write(store.entries(), 7);
+        try (RandomAccessFile file = new RandomAccessFile(testFilePath, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertEquals(-1, snapshot.load(new WeatherDataStore()));
+    }
+
+    @Test
+    void testWriteKeepsThePreviousSnapshot() throws IOException {
+        store.put("{\"id\":\"A\"}", 3, 1000, 5);
+        assertFalse(snapshot.write(store.entries(), 6), "There is no snapshot to keep yet");
+        store.put("{\"id\":\"B\"}", 3, 2000, 7);
+        assertTrue(snapshot.write(store.entries(), 8));
+
+        WeatherDataStore previous = new WeatherDataStore();
+        assertEquals(6, snapshot.loadPrevious(previous));
+        assertEquals(1, previous.size());
+        assertEquals(8, snapshot.load(new WeatherDataStore()));
+    }
+
+    @Test
+    void testWriteDoesNotKeepACorruptedSnapshot() throws IOException {
+        store.put("{\"id\":\"A\"}", 3, 1000, 5);
+        snapshot.write(store.entries(), 6);
+        snapshot.write(store.entries(), 7);
+        try (RandomAccessFile file = new RandomAccessFile(testFilePath, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        SnapshotFile restarted = new SnapshotFile(testFilePath);
+        assertEquals(-1, restarted.load(new WeatherDataStore()));
+
+        assertFalse(restarted.write(store.entries(), 8), "A corrupted snapshot should not replace the previous one");
+        assertEquals(6, restarted.loadPrevious(new WeatherDataStore()));
+        assertEquals(8, restarted.load(new WeatherDataStore()));
+    }
+}
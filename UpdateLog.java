@@ -0,0 +1,733 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * UpdateLog, an append-only log of the updates applied to the WeatherDataStore.
+ * Every PUT costs one sequential append of a single line with the format
+ * "PUT &lt;timestamp&gt; &lt;lamport&gt; &lt;sourceId&gt; {json}". A batch PUT is appended with one write
+ * as a "BATCH &lt;n&gt;" line followed by its n PUT records, and is only replayed if all n records are in the log.
+ * An expired entry is logged as a tombstone "DEL &lt;timestamp&gt; &lt;lamport&gt; &lt;sourceId&gt; &lt;stationId&gt;",
+ * so expiry never rewrites the log.
+ * The log is replayed at startup to rebuild the store and compacted once it holds too many superseded records.
+ * A checkpoint moves the log to a previous segment (".prev") instead of emptying it, so the previous snapshot and
+ * the records written after it stay recoverable until the next checkpoint.
+ * With the group commit stage started, concurrent appends share one write and one fsync, see {@link #startGroupCommit(long)}.
+ */
+public class UpdateLog {
+    private static final String PUT_RECORD = "PUT";
+    private static final String BATCH_RECORD = "BATCH";
+    private static final String DELETE_RECORD = "DEL";
+    private static final int MIN_COMPACTION_RECORDS = 1000;
+
+    private final Path path;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong forceCount = new AtomicLong();
+    private int recordCount = 0;
+    private volatile GroupCommit groupCommit;
+
+    /**
+     * UpdateLog Constructor.
+     *
+     * @param dataFilePath The path of the log file.
+     */
+    public UpdateLog(String dataFilePath) {
+        this.path = Paths.get(dataFilePath);
+    }
+
+    /**
+     * Appends a PUT record to the end of the log. The log file is created if it does not exist.
+     *
+     * @param json The single-line JSON data that was stored.
+     * @param timestamp The time (epoch milliseconds) at which the data was received.
+     * @param lamport The Lamport clock value of the AggregationServer when the data was stored.
+     * @param sourceId The ID of the connection the data was received from.
+     * @return The appended record, which a primary also ships to its backups.
+     * @throws IOException if the record cannot be written.
+     */
+    public String appendPut(String json, long timestamp, long lamport, long sourceId) throws IOException {
+        String record = formatPutRecord(json, timestamp, lamport, sourceId) + "\n";
+        append(record.getBytes(StandardCharsets.UTF_8), 1);
+        return record;
+    }
+
+    /**
+     * Appends the PUT records of a batch to the end of the log with a single write. The log file is created
+     * if it does not exist.
+     *
+     * @param jsons The single-line JSON data that was stored, in the order it was applied.
+     * @param timestamp The time (epoch milliseconds) at which the data was received.
+     * @param lamport The Lamport clock value of the AggregationServer when the data was stored.
+     * @param sourceId The ID of the connection the data was received from.
+     * @return The appended records, which a primary also ships to its backups.
+     * @throws IOException if the records cannot be written.
+     */
+    public String appendPuts(List<String> jsons, long timestamp, long lamport, long sourceId) throws IOException {
+        StringBuilder batch = new StringBuilder(BATCH_RECORD).append(' ').append(jsons.size()).append('\n');
+        for (String json : jsons) {
+            batch.append(formatPutRecord(json, timestamp, lamport, sourceId)).append('\n');
+        }
+        String records = batch.toString();
+        append(records.getBytes(StandardCharsets.UTF_8), jsons.size());
+        return records;
+    }
+
+    /**
+     * Appends a tombstone for each expired entry to the end of the log with a single write.
+     *
+     * @param expiredEntries The entries removed from the store.
+     * @param timestamp The time (epoch milliseconds) at which the entries expired.
+     * @param lamport The Lamport clock value of the AggregationServer when the entries expired.
+     * @return The appended records, which a primary also ships to its backups.
+     * @throws IOException if the records cannot be written.
+     */
+    public String appendDeletes(List<WeatherDataStore.WeatherEntry> expiredEntries, long timestamp, long lamport) throws IOException {
+        StringBuilder tombstones = new StringBuilder(expiredEntries.size() * 48);
+        for (WeatherDataStore.WeatherEntry entry : expiredEntries) {
+            tombstones.append(DELETE_RECORD).append(' ').append(timestamp).append(' ').append(lamport).append(' ')
+                    .append(entry.sourceId).append(' ').append(entry.stationId).append('\n');
+        }
+        String records = tombstones.toString();
+        append(records.getBytes(StandardCharsets.UTF_8), expiredEntries.size());
+        return records;
+    }
+
+    /**
+     * Appends records shipped by a primary to the end of the log and applies them to the store, so a backup
+     * persists and recovers the replicated updates like its own.
+     *
+     * @param records Complete records in the format of this log, each ending with a new line.
+     * @param store The store of the backup.
+     * @return The highest Lamport clock value of the records, or -1 if none was applied.
+     * @throws IOException if the records cannot be written.
+     */
+    public long appendReplicated(String records, WeatherDataStore store) throws IOException {
+        String[] lines = records.split("\n");
+        int count = 0;
+        for (String line : lines) {
+            if (line.startsWith(PUT_RECORD + " ") || line.startsWith(DELETE_RECORD + " ")) {
+                count++;
+            }
+        }
+        append(records.getBytes(StandardCharsets.UTF_8), count);
+        return apply(lines, store);
+    }
+
+    /**
+     * Applies records in the format of this log to a store without writing them, such as the state a primary
+     * sends to a backup that cannot catch up from its recent updates.
+     *
+     * @param lines The records, BATCH lines are skipped.
+     * @param store The store to update.
+     * @return The highest Lamport clock value of the records, or -1 if none was applied.
+     */
+    static long apply(String[] lines, WeatherDataStore store) {
+        long maxLamport = -1;
+        for (String line : lines) {
+            if (line.startsWith(DELETE_RECORD + " ")) {
+                maxLamport = Math.max(maxLamport, replayDeleteRecord(line, store, -1));
+            } else if (line.startsWith(PUT_RECORD + " ")) {
+                maxLamport = Math.max(maxLamport, replayPutRecord(line, store, -1));
+            }
+        }
+        return maxLamport;
+    }
+
+    /**
+     * Appends records to the log, through the commit stage if it is started.
+     *
+     * @param records The encoded records, each ending with a new line.
+     * @param count The number of PUT and DEL records.
+     * @throws IOException if the records cannot be written.
+     */
+    private void append(byte[] records, int count) throws IOException {
+        GroupCommit stage = groupCommit;
+        if (stage != null) {
+            stage.commit(new PendingAppend(records, count));
+            return;
+        }
+        lock.lock();
+        try {
+            createParentDirectories();
+            Files.write(path, records, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            recordCount += count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts the group commit stage. From then on every append waits until its records are durable:
+     * a single writer thread collects the appends that arrive within the commit window, writes them with one
+     * append and one {@link FileChannel#force(boolean)}, and then releases every waiting append.
+     * Appends that arrive while the writer is busy are committed together with the next group, even with
+     * a window of 0.
+     *
+     * @param windowMicros How long the writer waits for more appends after the first one of a group, in microseconds.
+     */
+    public void startGroupCommit(long windowMicros) {
+        lock.lock();
+        try {
+            if (groupCommit == null) {
+                groupCommit = new GroupCommit(TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowMicros)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the group commit stage after committing the pending appends. Later appends are written directly.
+     */
+    public void stopGroupCommit() {
+        GroupCommit stage;
+        lock.lock();
+        try {
+            stage = groupCommit;
+            groupCommit = null;
+        } finally {
+            lock.unlock();
+        }
+        if (stage != null) {
+            stage.stop();
+        }
+    }
+
+    /**
+     * Gets the number of times the log was forced to the disk by the commit stage.
+     *
+     * @return The number of forces.
+     */
+    long getForceCount() {
+        return forceCount.get();
+    }
+
+    /**
+     * Writes a group of appends with one write and forces them to the disk.
+     */
+    private void writeGroup(List<PendingAppend> group) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[group.size()];
+        int count = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(group.get(i).records);
+            count += group.get(i).count;
+        }
+        lock.lock();
+        try {
+            createParentDirectories();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(false);
+            }
+            forceCount.incrementAndGet();
+            recordCount += count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void createParentDirectories() throws IOException {
+        Path parent = path.getParent();
+        if (parent != null && !Files.exists(parent)) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private Path previousPath() {
+        return Paths.get(path + ".prev");
+    }
+
+    /**
+     * Forces the directory of a file to the disk, so that a file created or moved into it survives a crash.
+     * Platforms that cannot open a directory (Windows) are skipped.
+     *
+     * @param file The file whose directory is forced.
+     * @throws IOException if the directory cannot be forced.
+     */
+    static void forceDirectory(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Rebuilds the store by replaying every record of the log, then compacts the log.
+     * Lines in the previous storage format ("yyyy-MM-dd HH:mm:ss [Thread ID: n] {json}", latest entries first)
+     * are also accepted. Lines that cannot be parsed are skipped.
+     *
+     * @param store The store to be rebuilt.
+     */
+    public void recover(WeatherDataStore store) {
+        recover(store, null);
+    }
+
+    /**
+     * Rebuilds the store from a snapshot and the log tail written after it. Only the records whose Lamport clock
+     * value is at least the high-water mark of the snapshot are replayed. If the snapshot is not valid, the store
+     * is rebuilt from the previous snapshot, the previous log segment and the log instead. Without any valid
+     * snapshot every record of both segments is replayed, including lines in the previous storage format
+     * ("yyyy-MM-dd HH:mm:ss [Thread ID: n] {json}", latest entries first). Lines that cannot be parsed are skipped.
+     * Without a snapshot file the log is compacted afterwards; with one, the caller is expected to write
+     * a new checkpoint, see {@link #checkpoint}.
+     *
+     * @param store The store to be rebuilt.
+     * @param snapshot The snapshot to start from, or null to replay the whole log.
+     * @return The highest Lamport clock value of the snapshot and the replayed records, or -1 if there is no state.
+     */
+    public long recover(WeatherDataStore store, SnapshotFile snapshot) {
+        lock.lock();
+        try {
+            store.clear();
+            recordCount = 0;
+            long lamportHighWaterMark = snapshot == null ? -1 : snapshot.load(store);
+            List<Path> segments = new ArrayList<>();
+            if (lamportHighWaterMark == -1 && snapshot != null) {
+                store.clear();
+                lamportHighWaterMark = snapshot.loadPrevious(store);
+                if (lamportHighWaterMark != -1) {
+                    System.err.println("Recovering from the previous snapshot.");
+                }
+                segments.add(previousPath()); // the records between the previous and the current snapshot
+            }
+            segments.add(path);
+            long maxLamport = lamportHighWaterMark;
+            segments.removeIf(segment -> !Files.exists(segment));
+            if (segments.isEmpty()) {
+                return maxLamport;
+            }
+            List<String> legacyLines = new ArrayList<>();
+            List<String> records = new ArrayList<>();
+            for (Path segment : segments) {
+                if (!readSegment(segment, legacyLines, records)) {
+                    return maxLamport;
+                }
+            }
+            if (lamportHighWaterMark == -1) {
+                // Legacy entries are sorted with the latest entries at the top, so replay them from the bottom
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                for (int i = legacyLines.size() - 1; i >= 0; i--) {
+                    if (replayLegacyLine(legacyLines.get(i), format, store)) {
+                        maxLamport = Math.max(maxLamport, 0);
+                    }
+                }
+            } else if (!legacyLines.isEmpty()) {
+                System.err.println("Skipping " + legacyLines.size() + " legacy lines already covered by the snapshot.");
+            }
+            for (String record : records) {
+                long lamport = record.startsWith(DELETE_RECORD + " ")
+                        ? replayDeleteRecord(record, store, lamportHighWaterMark)
+                        : replayPutRecord(record, store, lamportHighWaterMark);
+                maxLamport = Math.max(maxLamport, lamport);
+            }
+            recordCount += records.size(); // the whole tail stays in the log until the next checkpoint or compaction
+            if (snapshot == null) {
+                try {
+                    compact(store.entries());
+                } catch (IOException e) {
+                    System.err.println("Error compacting update log: " + e.getMessage());
+                }
+            }
+            return maxLamport;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the records of a log segment, skipping a batch that is not complete.
+     *
+     * @param segment The log segment to read.
+     * @param legacyLines The list the lines in the previous storage format are added to.
+     * @param records The list the PUT and DEL records are added to.
+     * @return false if the segment cannot be read.
+     */
+    private static boolean readSegment(Path segment, List<String> legacyLines, List<String> records) {
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            List<String> batch = null;
+            int batchSize = 0;
+            while ((line = reader.readLine()) != null) {
+                if (batch != null) {
+                    if (line.startsWith(PUT_RECORD + " ")) {
+                        batch.add(line);
+                        if (batch.size() == batchSize) { //the batch is complete, replay it
+                            records.addAll(batch);
+                            batch = null;
+                        }
+                        continue;
+                    }
+                    System.err.println("Skipping incomplete batch of " + batchSize + " records.");
+                    batch = null;
+                }
+                if (line.startsWith(BATCH_RECORD + " ")) {
+                    batchSize = parseBatchSize(line);
+                    batch = batchSize > 0 ? new ArrayList<>(batchSize) : null;
+                } else if (line.startsWith(PUT_RECORD + " ") || line.startsWith(DELETE_RECORD + " ")) {
+                    records.add(line);
+                } else if (!line.trim().isEmpty()) {
+                    legacyLines.add(line);
+                }
+            }
+            if (batch != null) { //a crash interrupted the append of the last batch
+                System.err.println("Skipping incomplete batch of " + batchSize + " records.");
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error reading update log: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given entries and starts a new, empty log, as every record is covered by the snapshot.
+     * The log is moved to the previous segment rather than emptied, and an empty log is created in its place, so
+     * that the previous snapshot and the segment still rebuild the store if the new snapshot is lost,
+     * see {@link #recover(WeatherDataStore, SnapshotFile)}.
+     * If there was no valid snapshot to keep as the previous one, the log is appended to the previous segment
+     * instead, which then still follows the previous snapshot.
+     * The caller must make sure that no update is between the store and the log while the checkpoint is taken,
+     * and that every update appended later has a Lamport clock value of at least the high-water mark.
+     *
+     * @param liveEntries The entries currently in the store.
+     * @param lamportHighWaterMark The Lamport clock value when the entries were read.
+     * @param snapshot The snapshot file to write.
+     * @throws IOException if the snapshot cannot be written or the log cannot be moved.
+     */
+    public void checkpoint(Collection<WeatherDataStore.WeatherEntry> liveEntries, long lamportHighWaterMark,
+                           SnapshotFile snapshot) throws IOException {
+        lock.lock();
+        try {
+            List<WeatherDataStore.WeatherEntry> sortedEntries = new ArrayList<>(liveEntries);
+            sortedEntries.sort(Comparator.comparingLong(entry -> entry.timestamp)); //keep the replay order of the entries
+            boolean rotated = snapshot.write(sortedEntries, lamportHighWaterMark);
+            if (Files.exists(path)) {
+                if (rotated || !Files.exists(previousPath())) {
+                    Files.move(path, previousPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    try (FileChannel channel = FileChannel.open(previousPath(), StandardOpenOption.APPEND)) {
+                        channel.write(ByteBuffer.wrap(Files.readAllBytes(path)));
+                        channel.force(true);
+                    }
+                    Files.delete(path);
+                }
+            }
+            createParentDirectories();
+            // The new log exists from the start, so a PUT after the checkpoint does not answer 201 Created
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            forceDirectory(path);
+            recordCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of PUT and DEL records in the log.
+     *
+     * @return The number of records.
+     */
+    public int getRecordCount() {
+        lock.lock();
+        try {
+            return recordCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether the log holds enough superseded records to be worth compacting.
+     *
+     * @param liveEntries The number of entries currently in the store.
+     * @return True if the log should be compacted, false otherwise.
+     */
+    public boolean needsCompaction(int liveEntries) {
+        lock.lock();
+        try {
+            return recordCount > Math.max(MIN_COMPACTION_RECORDS, 4 * liveEntries);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the log so that it only holds one record per live entry. The new log is written to a temporary
+     * file and forced to the disk first, then moved over the log, so a crash during compaction never loses
+     * the old log.
+     *
+     * @param liveEntries The entries currently in the store.
+     * @throws IOException if the compacted log cannot be written.
+     */
+    public void compact(Collection<WeatherDataStore.WeatherEntry> liveEntries) throws IOException {
+        lock.lock();
+        try {
+            List<WeatherDataStore.WeatherEntry> sortedEntries = new ArrayList<>(liveEntries);
+            sortedEntries.sort(Comparator.comparingLong(entry -> entry.timestamp)); //keep the replay order of the records
+            Path tmpPath = Paths.get(path + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+                for (WeatherDataStore.WeatherEntry entry : sortedEntries) {
+                    writer.write(formatPutRecord(entry.json, entry.timestamp, entry.lamport, entry.sourceId));
+                    writer.newLine();
+                }
+            }
+            try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(path);
+            recordCount = liveEntries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Formats a PUT record as a single line of the log.
+     */
+    static String formatPutRecord(String json, long timestamp, long lamport, long sourceId) {
+        return PUT_RECORD + " " + timestamp + " " + lamport + " " + sourceId + " " + json;
+    }
+
+    private static int parseBatchSize(String line) {
+        try {
+            return Integer.parseInt(line.substring(BATCH_RECORD.length() + 1).trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Skipping invalid log record: " + line);
+            return 0;
+        }
+    }
+
+    /**
+     * Replays a PUT record unless its Lamport clock value is below the given minimum.
+     *
+     * @return The Lamport clock value of the replayed record, or -1 if the record was skipped.
+     */
+    private static long replayPutRecord(String record, WeatherDataStore store, long minLamport) {
+        String[] fields = record.split(" ", 5);
+        if (fields.length != 5) {
+            System.err.println("Skipping invalid log record: " + record);
+            return -1;
+        }
+        try {
+            long timestamp = Long.parseLong(fields[1]);
+            long lamport = Long.parseLong(fields[2]);
+            long sourceId = Long.parseLong(fields[3]);
+            if (lamport < minLamport) {
+                return -1; // already covered by the snapshot
+            }
+            if (!JSONParser.isValidJson(fields[4])) {
+                System.err.println("Skipping invalid log record: " + record);
+                return -1;
+            }
+            store.put(fields[4], sourceId, timestamp, lamport);
+            return lamport;
+        } catch (NumberFormatException e) {
+            System.err.println("Skipping invalid log record: " + record);
+            return -1;
+        }
+    }
+
+    /**
+     * Replays a tombstone unless its Lamport clock value is below the given minimum. The entry is only removed
+     * if it is still the one that expired, not newer data of the same station.
+     *
+     * @return The Lamport clock value of the replayed record, or -1 if the record was skipped.
+     */
+    private static long replayDeleteRecord(String record, WeatherDataStore store, long minLamport) {
+        String[] fields = record.split(" ", 5);
+        if (fields.length != 5) {
+            System.err.println("Skipping invalid log record: " + record);
+            return -1;
+        }
+        try {
+            long lamport = Long.parseLong(fields[2]);
+            long sourceId = Long.parseLong(fields[3]);
+            if (lamport < minLamport) {
+                return -1; // already covered by the snapshot
+            }
+            store.remove(fields[4], sourceId, lamport);
+            return lamport;
+        } catch (NumberFormatException e) {
+            System.err.println("Skipping invalid log record: " + record);
+            return -1;
+        }
+    }
+
+    private boolean replayLegacyLine(String line, SimpleDateFormat format, WeatherDataStore store) {
+        int jsonStartIndex = line.indexOf("{");
+        if (line.length() < 19 || jsonStartIndex == -1) {
+            return false;
+        }
+        String json = line.substring(jsonStartIndex).trim();
+        if (!JSONParser.isValidJson(json)) {
+            return false;
+        }
+        try {
+            long timestamp = format.parse(line.substring(0, 19)).getTime();
+            store.put(json, extractThreadId(line), timestamp, 0);
+            recordCount++;
+            return true;
+        } catch (ParseException e) {
+            System.err.println("Skipping entry with invalid timestamp: " + line);
+            return false;
+        }
+    }
+
+    /**
+     * Extracts the thread ID tag of a line in the previous storage format.
+     *
+     * @param line A line of the storage file.
+     * @return The thread ID, or -1 if the line has no valid thread ID tag.
+     */
+    private static long extractThreadId(String line) {
+        int start = line.indexOf("[Thread ID: ");
+        int end = line.indexOf("]", start);
+        if (start == -1 || end == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(line.substring(start + "[Thread ID: ".length(), end).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * PendingAppend, records waiting in the commit stage and the future completed once they are durable.
+     */
+    private static final class PendingAppend {
+        final byte[] records;
+        final int count;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingAppend(byte[] records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+    }
+
+    /**
+     * GroupCommit, the single writer thread of the commit stage.
+     */
+    private final class GroupCommit implements Runnable {
+        private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+        private final long windowNanos;
+        private final Thread writer;
+        private volatile boolean running = true;
+
+        GroupCommit(long windowNanos) {
+            this.windowNanos = windowNanos;
+            this.writer = new Thread(this, "update-log-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        /**
+         * Hands over an append to the writer and waits until it is durable.
+         */
+        void commit(PendingAppend append) throws IOException {
+            queue.add(append);
+            try {
+                append.done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the update log", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        public void run() {
+            List<PendingAppend> group = new ArrayList<>();
+            while (running || !queue.isEmpty()) {
+                try {
+                    PendingAppend first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    group.add(first);
+                    long deadline = System.nanoTime() + windowNanos;
+                    long remaining;
+                    while ((remaining = deadline - System.nanoTime()) > 0) {
+                        PendingAppend next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        group.add(next);
+                    }
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+                queue.drainTo(group);
+                if (!group.isEmpty()) {
+                    commitGroup(group);
+                    group.clear();
+                }
+            }
+        }
+
+        private void commitGroup(List<PendingAppend> group) {
+            try {
+                writeGroup(group);
+                for (PendingAppend append : group) {
+                    append.done.complete(null);
+                }
+            } catch (IOException e) {
+                System.err.println("Error committing to the update log: " + e.getMessage());
+                for (PendingAppend append : group) {
+                    append.done.completeExceptionally(e);
+                }
+            }
+        }
+
+        void stop() {
+            running = false;
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Appends queued after the writer stopped are committed by the stopping thread
+            List<PendingAppend> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            if (!rest.isEmpty()) {
+                commitGroup(rest);
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpdateLogTest {
+    private static final String testFilePath = "data/testUpdateLog.txt";
+    private static final String testSnapshotPath = "data/testUpdateLog.snapshot";
+    private UpdateLog updateLog;
+    private WeatherDataStore store;
+
+    @BeforeEach
+    void setUp() {
+        updateLog = new UpdateLog(testFilePath);
+        store = new WeatherDataStore();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(Paths.get(testSnapshotPath));
+        Files.deleteIfExists(Paths.get(testSnapshotPath + ".prev"));
+        Files.deleteIfExists(Paths.get(testFilePath + ".prev"));
+        File file = new File(testFilePath);
+        if (file.exists()) {
+            boolean result = file.delete();
+            if (!result) {
+                throw new IOException("Could not delete file " + testFilePath);
+            }
+        }
+    }
+
+    @Test
+    void testAppendPutAddsOneLine() throws IOException {
+        updateLog.appendPut("{ \"id\": \"A\", \"air_temp\": 10 }", 1000, 1, 7);
+        updateLog.appendPut("{ \"id\": \"B\", \"air_temp\": 20 }", 2000, 2, 7);
+
+        List<String> lines = Files.readAllLines(Paths.get(testFilePath));
+        assertEquals(2, lines.size(), "Each PUT should append exactly one line");
+        assertEquals("PUT 2000 2 7 { \"id\": \"B\", \"air_temp\": 20 }", lines.get(1));
+    }
+
+    @Test
+    void testRecoverReplaysRecordsInOrder() throws IOException {
+        updateLog.appendPut("{ \"id\": \"A\", \"name\": \"Adelaide\" }", 1000, 1, 7);
+        updateLog.appendPut("{ \"id\": \"B\", \"name\": \"Atlantic\" }", 2000, 2, 7);
+        updateLog.appendPut("{ \"id\": \"A\", \"name\": \"Hanoi\" }", 3000, 3, 8);
+
+        new UpdateLog(testFilePath).recover(store);
+
+        assertEquals(2, store.size());
+        assertTrue(store.get("A").json.contains("Hanoi"), "The last record of a station should win");
+        assertEquals(8, store.get("A").sourceId);
+        assertEquals(3, store.get("A").lamport);
+        assertTrue(store.getLatestJson().contains("Hanoi"));
+    }
+
+    @Test
+    void testAppendPutsWritesOneBatch() throws IOException {
+        updateLog.appendPuts(List.of("{ \"id\": \"A\" }", "{ \"id\": \"B\" }"), 1000, 1, 7);
+
+        List<String> lines = Files.readAllLines(Paths.get(testFilePath));
+        assertEquals(List.of("BATCH 2", "PUT 1000 1 7 { \"id\": \"A\" }", "PUT 1000 1 7 { \"id\": \"B\" }"), lines);
+
+        new UpdateLog(testFilePath).recover(store);
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void testRecoverSkipsIncompleteBatch() throws IOException {
+        updateLog.appendPut("{ \"id\": \"A\", \"name\": \"Adelaide\" }", 1000, 1, 7);
+        updateLog.appendPuts(List.of("{ \"id\": \"A\", \"name\": \"Hanoi\" }", "{ \"id\": \"B\" }"), 2000, 2, 7);
+        // Simulate a crash in the middle of the batch append by dropping its last record
+        List<String> lines = Files.readAllLines(Paths.get(testFilePath));
+        Files.write(Paths.get(testFilePath), lines.subList(0, lines.size() - 1));
+
+        new UpdateLog(testFilePath).recover(store);
+
+        assertEquals(1, store.size(), "No record of an incomplete batch should be replayed");
+        assertTrue(store.get("A").json.contains("Adelaide"));
+    }
+
+    @Test
+    void testGroupCommitSharesOneForce() throws Exception {
+        updateLog.startGroupCommit(50_000);
+        try {
+            int writers = 8;
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                String json = "{ \"id\": \"S" + i + "\" }";
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        updateLog.appendPut(json, 1000, 1, 7);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join(5000);
+            }
+
+            assertEquals(writers, Files.readAllLines(Paths.get(testFilePath)).size(), "Every append should be committed");
+            assertTrue(updateLog.getForceCount() < writers, "Concurrent appends should share forces");
+        } finally {
+            updateLog.stopGroupCommit();
+        }
+        updateLog.appendPut("{ \"id\": \"after\" }", 2000, 2, 7);
+        assertEquals(9, Files.readAllLines(Paths.get(testFilePath)).size(), "Appends after stopping are written directly");
+    }
+
+    @Test
+    void testRecoverReplaysTombstones() throws IOException {
+        updateLog.appendPut("{ \"id\": \"A\", \"air_temp\": 1 }", 1000, 1, 7);
+        updateLog.appendPut("{ \"id\": \"B\", \"air_temp\": 2 }", 1000, 2, 8);
+        store.put("{ \"id\": \"A\", \"air_temp\": 1 }", 7, 1000, 1);
+        updateLog.appendDeletes(store.removeBySources(List.of(7L)), 2000, 3);
+        updateLog.appendPut("{ \"id\": \"B\", \"air_temp\": 3 }", 3000, 4, 9);
+        updateLog.appendDeletes(List.of(new WeatherDataStore.WeatherEntry("B", "{}", 8, 1000, 2)), 4000, 5);
+
+        List<String> lines = Files.readAllLines(Paths.get(testFilePath));
+        assertEquals("DEL 2000 3 7 A", lines.get(2));
+
+        WeatherDataStore restored = new WeatherDataStore();
+        new UpdateLog(testFilePath).recover(restored);
+        assertNull(restored.get("A"), "The expired station should stay removed");
+        assertEquals(9, restored.get("B").sourceId, "A tombstone should not remove newer data of the station");
+    }
+
+    @Test
+    void testRecoverCompactsLog() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            updateLog.appendPut("{ \"id\": \"A\", \"air_temp\": " + i + " }", 1000 + i, i, 7);
+        }
+        new UpdateLog(testFilePath).recover(store);
+
+        List<String> lines = Files.readAllLines(Paths.get(testFilePath));
+        assertEquals(1, lines.size(), "Superseded records should be removed after recovery");
+        assertEquals("PUT 1004 4 7 { \"id\": \"A\", \"air_temp\": 4 }", lines.get(0));
+    }
+
+    @Test
+    void testRecoverLegacyFormat() throws IOException {
+        try (FileWriter writer = new FileWriter(testFilePath)) {
+            writer.write("2024-10-03 23:49:55 [Thread ID: 3] { \"id\": \"A\", \"name\": \"Hanoi\" }\n");
+            writer.write("2024-10-03 23:49:54 [Thread ID: 2] { \"id\": \"A\", \"name\": \"Adelaide\" }\n");
+            writer.write("2024-10-03 23:49:53 [Thread ID: 2] { \"id\": \"B\", \"name\": \"Atlantic\" }\n");
+            writer.write("invalid line\n");
+        }
+        updateLog.recover(store);
+
+        assertEquals(2, store.size());
+        assertTrue(store.getLatestJson().contains("Hanoi"), "The newest line of the file should be the latest data");
+        assertEquals(3, store.get("A").sourceId);
+    }
+
+    @Test
+    void testRecoverMissingFile() {
+        updateLog.recover(store);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void testNeedsCompaction() throws IOException {
+        assertFalse(updateLog.needsCompaction(0));
+        for (int i = 0; i <= 1000; i++) {
+            updateLog.appendPut("{ \"id\": \"A\" }", i, i, 7);
+        }
+        assertTrue(updateLog.needsCompaction(1), "A log with mostly superseded records should be compacted");
+        assertFalse(updateLog.needsCompaction(1000));
+    }
+
+    @Test
+    void testCheckpointEmptiesLog() throws IOException {
+        SnapshotFile snapshot = new SnapshotFile(testSnapshotPath);
+        updateLog.appendPut("{ \"id\": \"A\", \"air_temp\": 1 }", 1000, 1, 7);
+        updateLog.recover(store, snapshot);
+        updateLog.checkpoint(store.entries(), 2, snapshot);
+
+        assertEquals(0, Files.size(Paths.get(testFilePath)), "The snapshot should cover every record of the log");
+        assertEquals(1, Files.readAllLines(Paths.get(testFilePath + ".prev")).size(),
+                "The log is kept as the previous segment");
+        assertEquals(0, updateLog.getRecordCount());
+        assertEquals(2, new UpdateLog(testFilePath).recover(store, snapshot));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void testRecoverReplaysLogTailAfterSnapshot() throws IOException {
+        SnapshotFile snapshot = new SnapshotFile(testSnapshotPath);
+        store.put("{ \"id\": \"A\", \"air_temp\": 1 }", 7, 1000, 1);
+        updateLog.checkpoint(store.entries(), 5, snapshot);
+        updateLog.appendPut("{ \"id\": \"A\", \"air_temp\": 0 }", 900, 4, 7); // older than the snapshot
+        updateLog.appendPut("{ \"id\": \"B\", \"air_temp\": 2 }", 2000, 5, 8);
+        updateLog.appendPut("{ \"id\": \"B\", \"air_temp\": 3 }", 3000, 9, 8);
+
+        WeatherDataStore restored = new WeatherDataStore();
+        assertEquals(9, new UpdateLog(testFilePath).recover(restored, snapshot));
+        assertEquals(2, restored.size());
+        assertTrue(restored.get("A").json.contains("1"), "Records below the high-water mark should be skipped");
+        assertTrue(restored.getLatestJson().contains("3"));
+    }
+
+    @Test
+    void testRecoverFallsBackToThePreviousSnapshot() throws IOException {
+        SnapshotFile snapshot = new SnapshotFile(testSnapshotPath);
+        updateLog.appendPut("{ \"id\": \"A\", \"air_temp\": 1 }", 1000, 1, 7);
+        updateLog.recover(store, snapshot);
+        updateLog.checkpoint(store.entries(), 2, snapshot);
+        updateLog.appendPut("{ \"id\": \"B\", \"air_temp\": 2 }", 2000, 2, 7);
+        updateLog.recover(store, snapshot);
+        updateLog.checkpoint(store.entries(), 3, snapshot);
+        updateLog.appendPut("{ \"id\": \"C\", \"air_temp\": 3 }", 3000, 3, 7);
+        try (RandomAccessFile file = new RandomAccessFile(testSnapshotPath, "rw")) {
+            file.setLength(file.length() - 1); // the latest snapshot is lost
+        }
+
+        WeatherDataStore restored = new WeatherDataStore();
+        assertEquals(3, new UpdateLog(testFilePath).recover(restored, snapshot));
+        assertEquals(3, restored.size(), "The previous snapshot and both log segments hold every update");
+        assertNotNull(restored.get("B"));
+
+        updateLog.checkpoint(restored.entries(), 4, snapshot);
+        try (RandomAccessFile file = new RandomAccessFile(testSnapshotPath, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        restored = new WeatherDataStore();
+        new UpdateLog(testFilePath).recover(restored, snapshot);
+        assertEquals(3, restored.size(), "The corrupted snapshot was not kept as the previous one");
+    }
+
+    @Test
+    void testRecoverWithoutSnapshotReplaysWholeLog() throws IOException {
+        updateLog.appendPut("{ \"id\": \"A\", \"air_temp\": 1 }", 1000, 1, 7);
+        updateLog.appendPut("{ \"id\": \"B\", \"air_temp\": 2 }", 2000, 3, 7);
+
+        assertEquals(3, new UpdateLog(testFilePath).recover(store, new SnapshotFile(testSnapshotPath)));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void testAppendReplicatedPersistsAndAppliesRecords() throws IOException {
+        UpdateLog primaryLog = new UpdateLog("data/testUpdateLogPrimary.txt");
+        try {
+            String records = primaryLog.appendPuts(List.of("{\"id\":\"A\"}", "{\"id\":\"B\"}"), 1000, 1, 7)
+                    + primaryLog.appendDeletes(List.of(new WeatherDataStore.WeatherEntry("A", "{\"id\":\"A\"}", 7, 1000, 1)), 2000, 2);
+
+            assertEquals(2, updateLog.appendReplicated(records, store));
+            assertEquals(1, store.size(), "The tombstone should remove A");
+            assertNotNull(store.get("B"));
+            assertEquals(records, Files.readString(Paths.get(testFilePath)), "The backup logs the same records");
+
+            WeatherDataStore recovered = new WeatherDataStore();
+            new UpdateLog(testFilePath).recover(recovered);
+            assertEquals(1, recovered.size());
+            assertNotNull(recovered.get("B"));
+        } finally {
+            Files.deleteIfExists(Paths.get("data/testUpdateLogPrimary.txt"));
+        }
+    }
+}
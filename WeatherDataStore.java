@@ -0,0 +1,499 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * WeatherDataStore, keeps the latest weather data of each station in memory.
+ * The storage file is only used for durability, GET requests are served from this store.
+ * Only the stations among the N most recent updates are kept, see {@link RecencyIndex}.
+ * Each entry also belongs to the source (content server) it was received from, and a per-source index lets
+ * the entries of an expired source be removed without scanning the other sources.
+ *
+ * Updates are serialised per station by striped locks keyed by station id, and an update with a lower Lamport
+ * clock value than the stored data of its station is ignored, so updates of one station are applied in Lamport
+ * order whatever order their threads arrive in. Updates of different stations share no lock: the recency index
+ * is a concurrent skip list, the per-source index a concurrent map updated one source at a time and the version
+ * an atomic counter. Entries are immutable, so {@link #get} reads the latest data of a station without locking,
+ * and {@link #entries()} copies the store without locking unless batches keep overlapping the copy.
+ */
+public class WeatherDataStore {
+    static final String UNKNOWN_STATION_ID = "";
+    static final int STRIPES = 64;
+    private static final int OPTIMISTIC_READS = 64;
+
+    private final Map<String, WeatherEntry> entries = new ConcurrentHashMap<>();
+    // Stripes are always taken in ascending order
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final Map<Long, Set<String>> stationsBySource = new ConcurrentHashMap<>();
+    private final RecencyIndex recencyIndex;
+    private final AtomicLong version = new AtomicLong();
+    // A batch is in progress while more batches were started than finished, see readConsistently
+    private final AtomicLong batchesStarted = new AtomicLong();
+    private final AtomicLong batchesFinished = new AtomicLong();
+
+    /**
+     * WeatherDataStore Constructor, keeps the 20 most recent stations.
+     */
+    public WeatherDataStore() {
+        this(RecencyIndex.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * WeatherDataStore Constructor.
+     *
+     * @param capacity The maximum number of stations to keep.
+     */
+    public WeatherDataStore(int capacity) {
+        this.recencyIndex = new RecencyIndex(capacity);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Stores the JSON data of a station, replacing the previous data of the same station unless that data has
+     * a higher Lamport clock value. JSON data without an id field is kept under a placeholder id.
+     *
+     * @param json The single-line JSON data to be stored.
+     * @param sourceId The ID of the source the data was received from.
+     * @param timestamp The time (epoch milliseconds) at which the data was received.
+     * @param lamport The Lamport clock value of the AggregationServer when the data was stored.
+     * @return Whether the station was created or replaced, or IGNORED if newer data is stored already.
+     */
+    public PutResult put(String json, long sourceId, long timestamp, long lamport) {
+        return put(JSONParser.extractId(json), json, sourceId, timestamp, lamport);
+    }
+
+    /**
+     * Stores the JSON data of a station whose id was read from the data already,
+     * see {@link #put(String, long, long, long)}.
+     *
+     * @param stationId The id of the station, or null if the JSON data has no id field.
+     * @param json The single-line JSON data to be stored.
+     * @param sourceId The ID of the source the data was received from.
+     * @param timestamp The time (epoch milliseconds) at which the data was received.
+     * @param lamport The Lamport clock value of the AggregationServer when the data was stored.
+     * @return Whether the station was created or replaced, or IGNORED if newer data is stored already.
+     */
+    public PutResult put(String stationId, String json, long sourceId, long timestamp, long lamport) {
+        WeatherEntry entry = new WeatherEntry(orPlaceholder(stationId), json, sourceId, timestamp, lamport);
+        ReentrantLock stripe = stripeOf(entry.stationId);
+        stripe.lock();
+        try {
+            WeatherEntry previous = replaceLocked(entry);
+            if (previous == entry) {
+                return PutResult.IGNORED;
+            }
+            indexLocked(previous, entry);
+            version.incrementAndGet();
+            return previous == null ? PutResult.CREATED : PutResult.REPLACED;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Checks whether the stored data of a station has a higher Lamport clock value than an update,
+     * which {@link #put} would then ignore.
+     *
+     * @param json The single-line JSON data of the update.
+     * @param lamport The Lamport clock value of the update.
+     * @return true if newer data of the station is stored already.
+     */
+    public boolean isOutdated(String json, long lamport) {
+        return isStationOutdated(JSONParser.extractId(json), lamport);
+    }
+
+    /**
+     * Checks whether the stored data of a station has a higher Lamport clock value than an update,
+     * for an update whose station id was read already, see {@link #isOutdated}.
+     *
+     * @param stationId The id of the station, or null if the JSON data of the update has no id field.
+     * @param lamport The Lamport clock value of the update.
+     * @return true if newer data of the station is stored already.
+     */
+    public boolean isStationOutdated(String stationId, long lamport) {
+        WeatherEntry current = entries.get(orPlaceholder(stationId));
+        return current != null && current.lamport > lamport;
+    }
+
+    /**
+     * Stores the JSON data of several stations as one update: readers of {@link #entries()} and
+     * {@link #getLatestJson()} see either none or all of them.
+     *
+     * @param jsons The single-line JSON data of each station, in the order they are applied.
+     * @param sourceId The ID of the source the data was received from.
+     * @param timestamp The time (epoch milliseconds) at which the data was received.
+     * @param lamport The Lamport clock value of the AggregationServer when the data was stored.
+     * @return For each JSON data, whether its station was created or replaced, or IGNORED if newer data
+     *         of the station is stored already.
+     */
+    public PutResult[] putAll(List<String> jsons, long sourceId, long timestamp, long lamport) {
+        List<String> stationIds = new ArrayList<>(jsons.size());
+        for (String json : jsons) {
+            stationIds.add(JSONParser.extractId(json));
+        }
+        return putAll(stationIds, jsons, sourceId, timestamp, lamport);
+    }
+
+    /**
+     * Stores the JSON data of several stations whose ids were read from the data already, as one update,
+     * see {@link #putAll(List, long, long, long)}.
+     *
+     * @param stationIds The id of each station, or null for JSON data without an id field.
+     * @param jsons The single-line JSON data of each station, in the order they are applied.
+     * @param sourceId The ID of the source the data was received from.
+     * @param timestamp The time (epoch milliseconds) at which the data was received.
+     * @param lamport The Lamport clock value of the AggregationServer when the data was stored.
+     * @return For each JSON data, whether its station was created or replaced, or IGNORED if newer data
+     *         of the station is stored already.
+     */
+    public PutResult[] putAll(List<String> stationIds, List<String> jsons, long sourceId, long timestamp,
+                              long lamport) {
+        WeatherEntry[] batch = new WeatherEntry[jsons.size()];
+        boolean[] batchStripes = new boolean[STRIPES];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new WeatherEntry(orPlaceholder(stationIds.get(i)), jsons.get(i), sourceId, timestamp, lamport);
+            batchStripes[stripeIndex(batch[i].stationId)] = true;
+        }
+        PutResult[] results = new PutResult[batch.length];
+        WeatherEntry[] previous = new WeatherEntry[batch.length];
+        lockStripes(batchStripes);
+        batchesStarted.incrementAndGet();
+        try {
+            for (int i = 0; i < batch.length; i++) {
+                previous[i] = replaceLocked(batch[i]);
+                results[i] = previous[i] == batch[i] ? PutResult.IGNORED
+                        : previous[i] == null ? PutResult.CREATED : PutResult.REPLACED;
+            }
+            for (int i = 0; i < batch.length; i++) {
+                if (previous[i] != batch[i]) {
+                    indexLocked(previous[i], batch[i]);
+                }
+            }
+            version.incrementAndGet();
+        } finally {
+            batchesFinished.incrementAndGet();
+            unlockStripes(batchStripes);
+        }
+        return results;
+    }
+
+    /**
+     * Stores an entry in the map while holding the stripe of its station, unless the stored data of the station
+     * has a higher Lamport clock value.
+     *
+     * @return The replaced entry, null if the station was not stored, or the entry itself if it was ignored.
+     */
+    private WeatherEntry replaceLocked(WeatherEntry entry) {
+        WeatherEntry current = entries.get(entry.stationId);
+        if (current != null && current.lamport > entry.lamport) {
+            return entry;
+        }
+        return entries.put(entry.stationId, entry);
+    }
+
+    /**
+     * Updates the recency and per-source indexes for a stored entry while holding its stripe.
+     * The previous entry may have been evicted in the meantime, removing it again is harmless.
+     * The entry joins the per-source index before the recency index, so it is never evicted before it is
+     * indexed by its source.
+     */
+    private void indexLocked(WeatherEntry previous, WeatherEntry entry) {
+        if (previous != null) {
+            recencyIndex.remove(previous);
+            if (previous.sourceId != entry.sourceId) { //the station moved to another source
+                unindexSource(previous);
+            }
+        }
+        stationsBySource.compute(entry.sourceId, (sourceId, stationIds) -> {
+            Set<String> indexed = stationIds != null ? stationIds : ConcurrentHashMap.newKeySet();
+            indexed.add(entry.stationId);
+            return indexed;
+        });
+        WeatherEntry evicted = recencyIndex.add(entry);
+        if (evicted != null) { //remove the station that is no longer among the N most recent ones
+            evict(evicted);
+        }
+    }
+
+    /**
+     * Removes an evicted entry. The stripe of the evicted station is not held, so the map entry is only removed
+     * if it was not replaced in the meantime; a replacing update indexes itself.
+     */
+    private void evict(WeatherEntry evicted) {
+        entries.remove(evicted.stationId, evicted);
+        unindexSource(evicted);
+    }
+
+    /**
+     * Changes the maximum number of stations to keep, evicting the oldest stations over the new capacity.
+     *
+     * @param capacity The maximum number of stations to keep, at least 1.
+     */
+    public void setCapacity(int capacity) {
+        recencyIndex.setCapacity(capacity);
+        WeatherEntry evicted;
+        while ((evicted = recencyIndex.evictOverflow()) != null) {
+            evict(evicted);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Gets the version of the store, which changes whenever an update, removal or eviction changes its content.
+     * Responses built from the store can be reused for as long as the version stays the same.
+     *
+     * @return The current version.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Gets the JSON data of the most recently updated station.
+     *
+     * @return The latest JSON data, or null if the store is empty.
+     */
+    public String getLatestJson() {
+        WeatherEntry entry = readConsistently(recencyIndex::newest);
+        return entry == null ? null : entry.json;
+    }
+
+    /**
+     * Gets the stored entry of a station, without blocking writers.
+     *
+     * @param stationId The id of the station.
+     * @return The entry of the station, or null if the station is not stored.
+     */
+    public WeatherEntry get(String stationId) {
+        return entries.get(stationId);
+    }
+
+    /**
+     * Gets a copy of all entries in the store. The copy never holds part of an update made with {@link #putAll}.
+     * Writers are not blocked, see {@link #readConsistently}.
+     *
+     * @return The stored entries.
+     */
+    public List<WeatherEntry> entries() {
+        return readConsistently(() -> new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * Reads the store so that the result holds either none or all of the entries of each batch.
+     * The read is repeated while it overlaps a batch, and only after many overlapping batches are the stripes
+     * taken, which waits for the batch in progress.
+     *
+     * @param read The read of the store.
+     * @return The result of the read.
+     */
+    private <T> T readConsistently(Supplier<T> read) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long finished = batchesFinished.get();
+            long started = batchesStarted.get();
+            if (started == finished) {
+                T result = read.get();
+                if (batchesStarted.get() == started) {
+                    return result;
+                }
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        lockStripes(null);
+        try {
+            return read.get();
+        } finally {
+            unlockStripes(null);
+        }
+    }
+
+    /**
+     * Gets the number of stations in the store.
+     *
+     * @return The number of stored stations.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of stations whose latest data was received from a source.
+     *
+     * @param sourceId The ID of the source.
+     * @return The number of stations of the source.
+     */
+    public int sizeOfSource(long sourceId) {
+        Set<String> stationIds = stationsBySource.get(sourceId);
+        return stationIds == null ? 0 : stationIds.size();
+    }
+
+    /**
+     * Removes every entry that was received from one of the given sources.
+     * Only the entries of those sources are visited, found through the per-source index.
+     *
+     * @param sourceIds The IDs of the sources whose entries need to be removed.
+     * @return The removed entries.
+     */
+    public List<WeatherEntry> removeBySources(Collection<Long> sourceIds) {
+        List<WeatherEntry> removed = new ArrayList<>();
+        List<String> candidates = new ArrayList<>();
+        for (Long sourceId : sourceIds) {
+            Set<String> stationIds = stationsBySource.get(sourceId);
+            if (stationIds != null) {
+                candidates.addAll(stationIds);
+            }
+        }
+        // Each station is removed under its stripe, in case an update of the station arrives meanwhile
+        for (String stationId : candidates) {
+            ReentrantLock stripe = stripeOf(stationId);
+            stripe.lock();
+            try {
+                WeatherEntry entry = entries.get(stationId);
+                if (entry == null || !sourceIds.contains(entry.sourceId)) {
+                    continue;
+                }
+                entries.remove(stationId);
+                recencyIndex.remove(entry);
+                unindexSource(entry);
+                removed.add(entry);
+            } finally {
+                stripe.unlock();
+            }
+        }
+        if (!removed.isEmpty()) {
+            version.incrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the entry of a station if it was received from the given source no later than the given
+     * Lamport clock value. Used to replay the tombstone of an expired entry.
+     *
+     * @param stationId The id of the station.
+     * @param sourceId The ID of the source whose entry expired.
+     * @param lamport The Lamport clock value of the AggregationServer when the entry expired.
+     * @return true if the entry was removed.
+     */
+    public boolean remove(String stationId, long sourceId, long lamport) {
+        ReentrantLock stripe = stripeOf(stationId);
+        stripe.lock();
+        try {
+            WeatherEntry entry = entries.get(stationId);
+            if (entry == null || entry.sourceId != sourceId || entry.lamport > lamport) {
+                return false;
+            }
+            entries.remove(stationId);
+            recencyIndex.remove(entry);
+            unindexSource(entry);
+            version.incrementAndGet();
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Removes every entry from the store.
+     */
+    public void clear() {
+        lockStripes(null);
+        try {
+            entries.clear();
+            stationsBySource.clear();
+            recencyIndex.clear();
+            version.incrementAndGet();
+        } finally {
+            unlockStripes(null);
+        }
+    }
+
+    /**
+     * Removes a station from the index of the source an entry was received from, unless the station is stored
+     * again with data of that source. The check and the removal are atomic for the source, so they cannot
+     * undo a concurrent update of the station that already stored its new entry.
+     */
+    private void unindexSource(WeatherEntry entry) {
+        stationsBySource.computeIfPresent(entry.sourceId, (sourceId, stationIds) -> {
+            WeatherEntry current = entries.get(entry.stationId);
+            if (current == null || current.sourceId != sourceId) {
+                stationIds.remove(entry.stationId);
+            }
+            return stationIds.isEmpty() ? null : stationIds;
+        });
+    }
+
+    private static String orPlaceholder(String stationId) {
+        return stationId == null ? UNKNOWN_STATION_ID : stationId;
+    }
+
+    /**
+     * Gets the stripe of a station.
+     *
+     * @param stationId The id of the station.
+     * @return The index of the stripe, between 0 and STRIPES - 1.
+     */
+    static int stripeIndex(String stationId) {
+        int hash = stationId.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private ReentrantLock stripeOf(String stationId) {
+        return stripes[stripeIndex(stationId)];
+    }
+
+    /**
+     * Locks the selected stripes in ascending order, or every stripe if none are selected.
+     */
+    private void lockStripes(boolean[] selected) {
+        for (int i = 0; i < STRIPES; i++) {
+            if (selected == null || selected[i]) {
+                stripes[i].lock();
+            }
+        }
+    }
+
+    private void unlockStripes(boolean[] selected) {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            if (selected == null || selected[i]) {
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * PutResult, what storing the data of a station did.
+     */
+    enum PutResult {
+        CREATED, // the station was not stored before
+        REPLACED, // older data of the station was replaced
+        IGNORED // newer data of the station is stored already
+    }
+
+    /**
+     * WeatherEntry, the latest data received for a station.
+     */
+    static final class WeatherEntry {
+        final String stationId;
+        final String json;
+        final long sourceId;
+        final long timestamp;
+        final long lamport;
+
+        WeatherEntry(String stationId, String json, long sourceId, long timestamp, long lamport) {
+            this.stationId = stationId;
+            this.json = json;
+            this.sourceId = sourceId;
+            this.timestamp = timestamp;
+            this.lamport = lamport;
+        }
+    }
+}
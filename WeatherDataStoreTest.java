@@ -0,0 +1,272 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeatherDataStoreTest {
+    private WeatherDataStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new WeatherDataStore();
+    }
+
+    @Test
+    void testPutReplacesSameStation() {
+        store.put("{ \"id\": \"IDS60901\", \"name\": \"Adelaide\" }", 1, 1000, 0);
+        store.put("{ \"id\": \"IDS60901\", \"name\": \"Hanoi\" }", 1, 2000, 0);
+
+        assertEquals(1, store.size(), "The same station should only be stored once");
+        assertTrue(store.getLatestJson().contains("Hanoi"), "The latest data should replace the previous data");
+    }
+
+    @Test
+    void testGetLatestJson() {
+        store.put("{ \"id\": \"A\", \"air_temp\": 10 }", 1, 2000, 0);
+        store.put("{ \"id\": \"B\", \"air_temp\": 20 }", 1, 1000, 0);
+
+        assertEquals("{ \"id\": \"A\", \"air_temp\": 10 }", store.getLatestJson());
+        assertEquals("{ \"id\": \"B\", \"air_temp\": 20 }", store.get("B").json);
+    }
+
+    @Test
+    void testPutAllAppliesEveryRecord() {
+        store.put("{ \"id\": \"A\", \"air_temp\": 10 }", 1, 1000, 0);
+        WeatherDataStore.PutResult[] results = store.putAll(List.of("{ \"id\": \"A\", \"air_temp\": 11 }",
+                "{ \"id\": \"B\", \"air_temp\": 20 }"), 2, 2000, 1);
+
+        assertArrayEquals(new WeatherDataStore.PutResult[]{WeatherDataStore.PutResult.REPLACED,
+                WeatherDataStore.PutResult.CREATED}, results, "Only B is a new station");
+        assertEquals(2, store.size());
+        assertTrue(store.get("A").json.contains("11"));
+        assertEquals(2, store.get("B").sourceId);
+    }
+
+    @Test
+    void testEmptyStore() {
+        assertNull(store.getLatestJson(), "An empty store should have no latest data");
+    }
+
+    @Test
+    void testRemoveBySources() {
+        store.put("{ \"id\": \"A\" }", 1, 1000, 0);
+        store.put("{ \"id\": \"B\" }", 2, 2000, 0);
+        store.removeBySources(List.of(2L));
+
+        assertEquals(1, store.size());
+        assertNull(store.get("B"));
+        assertEquals("{ \"id\": \"A\" }", store.getLatestJson(), "The latest entry should fall back to the remaining station");
+    }
+
+    @Test
+    void testSameTimestampOrderedByLamportClock() {
+        store.put("{ \"id\": \"B\" }", 1, 1000, 6);
+        store.put("{ \"id\": \"A\" }", 1, 1000, 5);
+
+        assertEquals("{ \"id\": \"B\" }", store.getLatestJson(), "The higher Lamport clock should be the latest at the same timestamp");
+    }
+
+    @Test
+    void testConfigurableCapacity() {
+        WeatherDataStore smallStore = new WeatherDataStore(2);
+        smallStore.put("{ \"id\": \"A\" }", 1, 1000, 1);
+        smallStore.put("{ \"id\": \"B\" }", 1, 2000, 2);
+        smallStore.put("{ \"id\": \"A\" }", 1, 3000, 3);
+        smallStore.put("{ \"id\": \"C\" }", 1, 4000, 4);
+
+        assertEquals(2, smallStore.size());
+        assertNull(smallStore.get("B"), "B is the least recently updated station");
+
+        smallStore.setCapacity(1);
+        assertEquals(1, smallStore.size());
+        assertNotNull(smallStore.get("C"));
+    }
+
+    @Test
+    void testRemoveOnlyMatchingEntry() {
+        store.put("{ \"id\": \"A\" }", 1, 1000, 5);
+        assertFalse(store.remove("A", 2, 9), "Data of another connection should be kept");
+        assertFalse(store.remove("A", 1, 4), "Data newer than the tombstone should be kept");
+        assertTrue(store.remove("A", 1, 5));
+        assertEquals(0, store.size());
+        assertNull(store.getLatestJson());
+    }
+
+    @Test
+    void testPerSourceIndex() {
+        store.put("{ \"id\": \"A\" }", 1, 1000, 1);
+        store.put("{ \"id\": \"B\" }", 1, 2000, 2);
+        store.put("{ \"id\": \"C\" }", 2, 3000, 3);
+        store.put("{ \"id\": \"B\" }", 2, 4000, 4);
+
+        assertEquals(1, store.sizeOfSource(1), "B moved to source 2");
+        assertEquals(2, store.sizeOfSource(2));
+
+        List<WeatherDataStore.WeatherEntry> removed = store.removeBySources(List.of(1L));
+        assertEquals(1, removed.size());
+        assertEquals("A", removed.get(0).stationId);
+        assertNotNull(store.get("B"), "The station taken over by another source should be kept");
+        assertEquals(0, store.sizeOfSource(1));
+
+        store.remove("C", 2, 3);
+        assertEquals(1, store.sizeOfSource(2));
+    }
+
+    @Test
+    void testEvictionUpdatesPerSourceIndex() {
+        WeatherDataStore smallStore = new WeatherDataStore(1);
+        smallStore.put("{ \"id\": \"A\" }", 1, 1000, 1);
+        smallStore.put("{ \"id\": \"B\" }", 2, 2000, 2);
+
+        assertEquals(0, smallStore.sizeOfSource(1), "Evicted stations should leave the index");
+        assertTrue(smallStore.removeBySources(List.of(1L)).isEmpty());
+        assertEquals(1, smallStore.size());
+    }
+
+    @Test
+    void testVersionChangesWithContent() {
+        long version = store.getVersion();
+        store.put("{ \"id\": \"A\" }", 1, 1000, 1);
+        assertNotEquals(version, version = store.getVersion(), "A PUT should change the version");
+        store.removeBySources(List.of(2L));
+        assertEquals(version, store.getVersion(), "Removing nothing should keep the version");
+        store.removeBySources(List.of(1L));
+        assertNotEquals(version, store.getVersion(), "An expiry should change the version");
+    }
+
+    @Test
+    void testKeepOnly20Stations() {
+        for (int i = 0; i < 25; i++) {
+            store.put("{ \"id\": \"ID" + i + "\" }", 1, i, 0);
+        }
+        assertEquals(20, store.size(), "Only the 20 most recent stations should be kept");
+        assertNull(store.get("ID0"), "The oldest station should be removed");
+        assertNotNull(store.get("ID24"));
+    }
+
+    @Test
+    void testOlderLamportUpdateIsIgnored() {
+        assertEquals(WeatherDataStore.PutResult.CREATED, store.put("{ \"id\": \"A\", \"air_temp\": 2 }", 1, 2000, 8));
+        assertTrue(store.isOutdated("{ \"id\": \"A\", \"air_temp\": 1 }", 7));
+        assertFalse(store.isOutdated("{ \"id\": \"B\" }", 7), "A station that is not stored is never outdated");
+        assertEquals(WeatherDataStore.PutResult.IGNORED, store.put("{ \"id\": \"A\", \"air_temp\": 1 }", 1, 2001, 7));
+
+        assertEquals("{ \"id\": \"A\", \"air_temp\": 2 }", store.get("A").json, "Updates of a station apply in Lamport order");
+        assertEquals(WeatherDataStore.PutResult.IGNORED, store.putAll(List.of("{ \"id\": \"A\" }"), 1, 2002, 6)[0]);
+        assertEquals(8, store.get("A").lamport);
+        assertEquals(1, store.sizeOfSource(1));
+    }
+
+    @Test
+    void testPutWithStationIdSkipsParsing() {
+        assertEquals(WeatherDataStore.PutResult.CREATED, store.put("A", "{ \"id\": \"A\", \"air_temp\": 2 }", 1, 2000, 8));
+        assertTrue(store.isStationOutdated("A", 7));
+        assertFalse(store.isStationOutdated(null, 7), "A station that is not stored is never outdated");
+
+        WeatherDataStore.PutResult[] results = store.putAll(List.of("A", "B"),
+                List.of("{ \"id\": \"A\", \"air_temp\": 3 }", "{ \"id\": \"B\" }"), 1, 2001, 9);
+        assertEquals(WeatherDataStore.PutResult.REPLACED, results[0]);
+        assertEquals(WeatherDataStore.PutResult.CREATED, results[1]);
+        assertEquals(9, store.get("A").lamport);
+    }
+
+    @Test
+    void testConcurrentUpdatesOfDifferentStations() throws InterruptedException {
+        WeatherDataStore largeStore = new WeatherDataStore(1000);
+        int threadCount = 4;
+        int updates = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            long source = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < updates; i++) {
+                    String stationId = "S" + source + "-" + (i % 100);
+                    largeStore.put("{ \"id\": \"" + stationId + "\", \"n\": " + i + " }", source, i, i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * 100, largeStore.size());
+        assertEquals(threadCount * 100, largeStore.entries().size());
+        for (int t = 0; t < threadCount; t++) {
+            assertEquals(100, largeStore.sizeOfSource(t));
+            assertEquals("{ \"id\": \"S" + t + "-99\", \"n\": " + (updates - 1) + " }", largeStore.get("S" + t + "-99").json);
+        }
+        assertEquals(threadCount * 100, largeStore.removeBySources(List.of(0L, 1L, 2L, 3L)).size());
+        assertEquals(0, largeStore.size());
+    }
+
+    @Test
+    void testConcurrentEvictionKeepsIndexesInSync() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long source = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    store.put("{ \"id\": \"S" + source + "-" + (i % 50) + "\" }", source, i, i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(RecencyIndex.DEFAULT_CAPACITY, store.size());
+        int indexed = 0;
+        for (long source = 0; source < 4; source++) {
+            indexed += store.sizeOfSource(source);
+        }
+        assertEquals(store.size(), indexed, "Every stored station and no evicted one is indexed by its source");
+    }
+
+    @Test
+    void testEntriesNeverHoldPartOfABatch() throws InterruptedException {
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 5000; i++) {
+                store.putAll(List.of("{ \"id\": \"A\", \"n\": " + i + " }", "{ \"id\": \"B\", \"n\": " + i + " }"),
+                        1, i, i);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            long a = -1;
+            long b = -1;
+            for (WeatherDataStore.WeatherEntry entry : store.entries()) {
+                if (entry.stationId.equals("A")) {
+                    a = entry.lamport;
+                } else {
+                    b = entry.lamport;
+                }
+            }
+            assertEquals(a, b, "Both stations of a batch are seen together");
+        }
+        writer.join();
+    }
+
+    @Test
+    void testStripeIndex() {
+        assertEquals(WeatherDataStore.stripeIndex("IDS60901"), WeatherDataStore.stripeIndex("IDS60901"));
+        for (String stationId : List.of("", "A", "IDS60901", "IDS60902")) {
+            int stripe = WeatherDataStore.stripeIndex(stationId);
+            assertTrue(stripe >= 0 && stripe < WeatherDataStore.STRIPES);
+        }
+    }
+}
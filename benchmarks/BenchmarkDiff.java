@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BenchmarkDiff, compares two JMH result files written with "-rf json", such as the baseline of the previous
+ * release and the results of the current build. For every benchmark it prints the score in both files, the change
+ * in percent and, for results taken with "-prof gc", the bytes allocated per operation. A change worse than the
+ * threshold is marked as a regression and makes the exit status 1, so the comparison can fail a build.
+ * It does not need JMH itself, the result files are read with the JSONParser of the server.
+ */
+public class BenchmarkDiff {
+    static final double DEFAULT_THRESHOLD_PERCENT = 5;
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    /**
+     * Compares two result files.
+     *
+     * @param args The baseline file and the current file, optionally followed by "--threshold=PERCENT".
+     * @throws IOException if a result file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java BenchmarkDiff <baseline.json> <current.json> [--threshold=PERCENT]");
+            System.exit(2);
+        }
+        double threshold = DEFAULT_THRESHOLD_PERCENT;
+        for (String arg : args) {
+            if (arg.startsWith("--threshold=")) {
+                threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+            }
+        }
+        Map<String, Result> baseline = readResults(Path.of(args[0]));
+        Map<String, Result> current = readResults(Path.of(args[1]));
+        int regressions = 0;
+        System.out.printf("%-60s %14s %14s %9s %12s %12s %s%n", "Benchmark", "Baseline", "Current", "Change", "B/op before",
+                "B/op after", "Unit");
+        for (Result before : baseline.values()) {
+            Result after = current.get(before.name);
+            if (after == null) {
+                System.out.printf("%-60s %14.3f %14s%n", before.name, before.score, "missing");
+                continue;
+            }
+            double change = changePercent(before, after);
+            boolean regression = isRegression(before, after, threshold);
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-60s %14.3f %14.3f %+8.1f%% %12.1f %12.1f %s%s%n", before.name, before.score, after.score,
+                    change, before.allocatedBytes, after.allocatedBytes, after.unit, regression ? "  REGRESSION" : "");
+        }
+        for (Result after : current.values()) {
+            if (!baseline.containsKey(after.name)) {
+                System.out.printf("%-60s %14s %14.3f %9s %12s %12.1f %s%n", after.name, "new", after.score, "", "",
+                        after.allocatedBytes, after.unit);
+            }
+        }
+        System.out.println(regressions + " regression(s) beyond " + threshold + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /**
+     * Reads a JMH result file.
+     *
+     * @param file The file written by JMH with "-rf json".
+     * @return The results by benchmark name (with its parameters), in the order of the file.
+     * @throws IOException if the file cannot be read or is not a JMH result file.
+     */
+    static Map<String, Result> readResults(Path file) throws IOException {
+        return parseResults(Files.readString(file));
+    }
+
+    /**
+     * Parses the content of a JMH result file.
+     *
+     * @param json The JSON array written by JMH.
+     * @return The results by benchmark name (with its parameters), in the order of the array.
+     * @throws IOException if the text is not a JMH result file.
+     */
+    static Map<String, Result> parseResults(String json) throws IOException {
+        List<String> objects = JSONParser.splitJsonArray(json);
+        if (objects == null) {
+            throw new IOException("Not a JMH result file, expected a JSON array");
+        }
+        Map<String, Result> results = new LinkedHashMap<>();
+        JSONTokenizer.FieldOffsets fields = new JSONTokenizer.FieldOffsets();
+        JSONTokenizer.FieldOffsets metric = new JSONTokenizer.FieldOffsets();
+        for (String object : objects) {
+            if (!JSONTokenizer.tokenize(object, fields) || fields.value("benchmark") == null
+                    || fields.indexOf("primaryMetric") == -1) {
+                throw new IOException("Not a JMH result: " + object);
+            }
+            StringBuilder name = new StringBuilder(fields.value("benchmark"));
+            String params = fields.indexOf("params") == -1 ? null : fields.rawValue(fields.indexOf("params"));
+            String mode = fields.value("mode");
+            String secondary = fields.indexOf("secondaryMetrics") == -1 ? null
+                    : fields.rawValue(fields.indexOf("secondaryMetrics"));
+            if (params != null && JSONTokenizer.tokenize(params, metric)) {
+                for (int i = 0; i < metric.size(); i++) {
+                    name.append(i == 0 ? ':' : ',').append(metric.key(i)).append('=').append(metric.value(metric.key(i)));
+                }
+            }
+            JSONTokenizer.tokenize(fields.rawValue(fields.indexOf("primaryMetric")), metric);
+            double score = Double.parseDouble(metric.value("score"));
+            String unit = metric.value("scoreUnit");
+            double allocatedBytes = secondary == null ? Double.NaN : allocatedBytes(secondary, metric);
+            results.put(name.toString(), new Result(name.toString(), mode, score, unit, allocatedBytes));
+        }
+        return results;
+    }
+
+    /**
+     * Gets the normalized allocation rate from the secondary metrics, whose key has a prefix in some JMH versions.
+     */
+    private static double allocatedBytes(String secondaryMetrics, JSONTokenizer.FieldOffsets metric) {
+        if (!JSONTokenizer.tokenize(secondaryMetrics, metric)) {
+            return Double.NaN;
+        }
+        for (int i = 0; i < metric.size(); i++) {
+            if (metric.key(i).endsWith(ALLOCATION_METRIC)) {
+                JSONTokenizer.tokenize(metric.rawValue(i), metric);
+                return Double.parseDouble(metric.value("score"));
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Gets the change of the score in percent.
+     *
+     * @param before The baseline result.
+     * @param after The current result.
+     * @return The change in percent, positive if the score grew.
+     */
+    static double changePercent(Result before, Result after) {
+        return (after.score - before.score) / before.score * 100;
+    }
+
+    /**
+     * Checks whether the current result is worse than the baseline by more than the threshold. Higher scores are
+     * better in throughput mode, lower scores in the time modes.
+     *
+     * @param before The baseline result.
+     * @param after The current result.
+     * @param thresholdPercent The tolerated change in percent.
+     * @return true if the result got worse by more than the threshold.
+     */
+    static boolean isRegression(Result before, Result after, double thresholdPercent) {
+        double change = changePercent(before, after);
+        return "thrpt".equals(before.mode) ? change < -thresholdPercent : change > thresholdPercent;
+    }
+
+    /**
+     * Result, the score of one benchmark with one set of parameters.
+     */
+    static final class Result {
+        final String name;
+        final String mode;
+        final double score;
+        final String unit;
+        final double allocatedBytes; // NaN if the results were taken without "-prof gc"
+
+        Result(String name, String mode, double score, String unit, double allocatedBytes) {
+            this.name = name;
+            this.mode = mode;
+            this.score = score;
+            this.unit = unit;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
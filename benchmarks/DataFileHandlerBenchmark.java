@@ -0,0 +1,83 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataFileHandlerBenchmark, measures the save/sort/trim cycle of the legacy storage file at several file sizes:
+ * each invocation saves one entry (which appends and re-sorts the whole file) and trims the file back to its size.
+ * It is the cost every PUT paid before the update log, kept to compare the two release to release.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataFileHandlerBenchmark {
+    private static final String STATION = "{ \"id\": \"IDS60901\", \"name\": \"Adelaide (West Terrace /  ngayirdapira)\", " +
+            "\"air_temp\": 13.3, \"apparent_t\": 9.5, \"press\": 1023.9, \"rel_hum\": 60, \"wind_spd_kt\": 8 }";
+
+    /**
+     * The number of entries in the storage file.
+     */
+    @Param({"20", "1000", "10000"})
+    public int entries;
+
+    private Path dataFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataFile = Files.createTempFile("weather_data", ".txt");
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long now = System.currentTimeMillis();
+        List<String> lines = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            lines.add(format.format(new Date(now - i * 1000L)) + " [Thread ID: " + i + "] "
+                    + STATION.replace("IDS60901", "ID" + i));
+        }
+        Files.write(dataFile, lines);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dataFile);
+        Files.deleteIfExists(Path.of(dataFile + ".tmp"));
+    }
+
+    @Benchmark
+    public void saveSortTrim() throws IOException {
+        DataFileHandler.saveDataToFile(STATION, dataFile.toString());
+        keepTopEntries();
+    }
+
+    /**
+     * Trims the file back to its size, as DataFileHandler.keepTop20Entries does for 20 entries.
+     */
+    private void keepTopEntries() throws IOException {
+        List<String> lines = Files.readAllLines(dataFile);
+        Files.write(dataFile, lines.subList(0, Math.min(entries, lines.size())));
+    }
+
+    @Benchmark
+    public void sortFileByTimestamp() {
+        DataFileHandler.sortFileByTimestamp(dataFile.toString());
+    }
+}
@@ -0,0 +1,70 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSONParserBenchmark, measures what a ContentServer does with every input file and what the AggregationServer
+ * does with every PUT body: converting the file to JSON, validating it and flattening it to a single line.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSONParserBenchmark {
+    private static final String STATION_FILE = "id:IDS60901\nname:Adelaide (West Terrace /  ngayirdapira)\n" +
+            "state: SA\ntime_zone:CST\nlat:-34.9\nlon:138.6\nlocal_date_time:15/04:00pm\n" +
+            "local_date_time_full:20230715160000\nair_temp:13.3\napparent_t:9.5\ncloud:Partly cloudy\n" +
+            "dewpt:5.7\npress:1023.9\nrel_hum:60\nwind_dir:S\nwind_spd_kmh:15\nwind_spd_kt:8\n";
+
+    private Path inputFile;
+    private String prettyJson;
+    private String singleLineJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        inputFile = Files.createTempFile("station", ".txt");
+        Files.writeString(inputFile, STATION_FILE);
+        prettyJson = JSONParser.convertFileToJson(inputFile.toString());
+        singleLineJson = JSONParser.convertToSingleLineJson(prettyJson);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(inputFile);
+    }
+
+    @Benchmark
+    public String convertFileToJson() throws IOException {
+        return JSONParser.convertFileToJson(inputFile.toString());
+    }
+
+    @Benchmark
+    public boolean isValidJson() {
+        return JSONParser.isValidJson(singleLineJson);
+    }
+
+    @Benchmark
+    public String convertToSingleLineJson() {
+        return JSONParser.convertToSingleLineJson(prettyJson);
+    }
+
+    @Benchmark
+    public String extractId() {
+        return JSONParser.extractId(singleLineJson);
+    }
+}
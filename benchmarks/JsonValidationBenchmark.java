@@ -0,0 +1,137 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonValidationBenchmark, compares the single-pass JSONTokenizer with the split-based validation that
+ * JSONParser.isValidJson used before, on the station records a ContentServer sends.
+ * Run with "-prof gc" to also compare the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonValidationBenchmark {
+    private static final String STATION = "{ \"id\": \"IDS60901\", \"name\": \"Adelaide (West Terrace /  ngayirdapira)\", " +
+            "\"state\": \"SA\", \"time_zone\": \"CST\", \"lat\": -34.9, \"lon\": 138.6, " +
+            "\"local_date_time\": \"15/04:00pm\", \"local_date_time_full\": \"20230715160000\", " +
+            "\"air_temp\": 13.3, \"apparent_t\": 9.5, \"cloud\": \"Partly cloudy\", \"dewpt\": 5.7, " +
+            "\"press\": 1023.9, \"rel_hum\": 60, \"wind_dir\": \"S\", \"wind_spd_kmh\": 15, \"wind_spd_kt\": 8 }";
+
+    /**
+     * The number of station records in the validated text: 1 is a single PUT, more are nested in one object.
+     */
+    @Param({"1", "16"})
+    public int stations;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        if (stations == 1) {
+            json = STATION;
+            return;
+        }
+        StringBuilder builder = new StringBuilder("{ \"stations\": {");
+        for (int i = 0; i < stations; i++) {
+            builder.append(i == 0 ? "" : ", ").append("\"s").append(i).append("\": ").append(STATION);
+        }
+        json = builder.append("} }").toString();
+    }
+
+    @Benchmark
+    public boolean splitValidation() {
+        return SplitValidation.isValidJson(json);
+    }
+
+    @Benchmark
+    public boolean tokenizerValidation() {
+        return JSONTokenizer.isValidObject(json);
+    }
+
+    @Benchmark
+    public String splitExtractId() {
+        return SplitValidation.isValidJson(json) ? SplitValidation.extractId(json) : null;
+    }
+
+    @Benchmark
+    public String tokenizerExtractId() {
+        return JSONParser.extractId(json);
+    }
+
+    /**
+     * The validation and id extraction of JSONParser before the tokenizer, kept as the baseline.
+     */
+    static final class SplitValidation {
+        static boolean isValidJson(String stringCheck) {
+            if (!stringCheck.startsWith("{") || !stringCheck.endsWith("}")) {
+                return false;
+            }
+            stringCheck = stringCheck.substring(1, stringCheck.length() - 1).trim();
+            String[] pairs = stringCheck.split(",");
+            for (String pair : pairs) {
+                pair = pair.trim();
+                if (!pair.contains(":")) {
+                    return false;
+                }
+                String[] keyValue = pair.split(":", 2);
+                if (keyValue.length != 2) {
+                    return false;
+                }
+                String key = keyValue[0].trim();
+                String value = keyValue[1].trim();
+                if (!key.startsWith("\"") || !key.endsWith("\"")) {
+                    return false;
+                }
+                if (!(isNumber(value) || value.startsWith("\"") && value.endsWith("\"") ||
+                        value.equals("true") || value.equals("false") || value.equals("null") ||
+                        (value.startsWith("{") && value.endsWith("}")) ||
+                        (value.startsWith("[") && value.endsWith("]")))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static String extractId(String json) {
+            int keyIndex = json.indexOf("\"id\"");
+            if (keyIndex == -1) {
+                return null;
+            }
+            int colonIndex = json.indexOf(':', keyIndex + 4);
+            if (colonIndex == -1) {
+                return null;
+            }
+            int valueEnd = colonIndex + 1;
+            while (valueEnd < json.length() && json.charAt(valueEnd) != ',' && json.charAt(valueEnd) != '}') {
+                valueEnd++;
+            }
+            String value = json.substring(colonIndex + 1, valueEnd).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            return value.isEmpty() ? null : value;
+        }
+
+        private static boolean isNumber(String value) {
+            try {
+                Double.parseDouble(value);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LamportClockBenchmark, measures the shared server clock under contention: every benchmark thread ticks or
+ * updates the same clock, like the connection threads of the AggregationServer do for every message.
+ * Compares the lock-free LamportClock with the synchronized int clock it replaced.
+ * Run with "-t N" to change the number of threads (default 8).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class LamportClockBenchmark {
+    private final LamportClock clock = new LamportClock();
+    private final SynchronizedClock synchronizedClock = new SynchronizedClock();
+
+    @Benchmark
+    public long lockFreeTick() {
+        return clock.tickAndGet();
+    }
+
+    @Benchmark
+    public long lockFreeUpdate() {
+        // Received values are usually close behind the server clock
+        return clock.updateAndGet(clock.getValue() - ThreadLocalRandom.current().nextInt(4));
+    }
+
+    @Benchmark
+    public int synchronizedTick() {
+        synchronizedClock.increment();
+        return synchronizedClock.getValue();
+    }
+
+    @Benchmark
+    public int synchronizedUpdate() {
+        synchronizedClock.update(synchronizedClock.getValue() - ThreadLocalRandom.current().nextInt(4));
+        return synchronizedClock.getValue();
+    }
+
+    /**
+     * The LamportClock before it became lock-free, kept as the baseline.
+     */
+    static final class SynchronizedClock {
+        private int value = 0;
+
+        synchronized void increment() {
+            value++;
+        }
+
+        synchronized void update(int receivedValue) {
+            value = Math.max(value, receivedValue) + 1;
+        }
+
+        synchronized int getValue() {
+            return value;
+        }
+    }
+}
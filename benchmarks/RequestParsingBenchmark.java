@@ -0,0 +1,45 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RequestParsingBenchmark, measures the header parsing done for every message of the legacy wire format:
+ * the Lamport clock, read from every message, and the Source-Id of a PUT.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestParsingBenchmark {
+    private final String getRequest = "GET /weather HTTP/1.1\r\nHost: localhost:4567\r\nLamport-Clock: 1234567\r\n";
+    private final String putRequest = "PUT /weather_data.txt HTTP/1.1\r\nUser-Agent: ATOMClient/1/0\r\n" +
+            "Content-Type: text/Json\r\nContent-Length: 118\r\nLamport-Clock: 1234567\r\n" +
+            "Source-Id: host:/data/inputData.txt\r\n\r\n" +
+            "{ \"id\": \"IDS60901\", \"name\": \"Adelaide (West Terrace /  ngayirdapira)\", \"air_temp\": 13.3, \"rel_hum\": 60 }\r\n";
+
+    @Benchmark
+    public long extractLamportClockFromGet() {
+        return AggregationServer.AggregationServerThread.extractLamportClock(getRequest);
+    }
+
+    @Benchmark
+    public long extractLamportClockFromPut() {
+        return AggregationServer.AggregationServerThread.extractLamportClock(putRequest);
+    }
+
+    @Benchmark
+    public String extractSourceId() {
+        return AggregationServer.AggregationServerThread.extractHeader(putRequest,
+                AggregationServer.AggregationServerThread.SOURCE_HEADER);
+    }
+}